@@ -0,0 +1,113 @@
+package com.theplutushome.veristore.controller;
+
+import com.theplutushome.veristore.service.payment.BulkRedemption;
+
+import jakarta.faces.application.FacesMessage;
+import jakarta.faces.context.FacesContext;
+import jakarta.faces.view.ViewScoped;
+import jakarta.inject.Inject;
+import jakarta.inject.Named;
+import jakarta.servlet.http.Part;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Named
+@ViewScoped
+public class BulkRedeemView implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Inject
+    private BulkRedemption bulkRedemption;
+
+    private String invoiceNumbers;
+    private transient Part upload;
+    private List<BulkRedemption.Result> results;
+    private final Map<BulkRedemption.Outcome, Integer> counts = new EnumMap<>(BulkRedemption.Outcome.class);
+
+    public void redeem() {
+        FacesContext context = FacesContext.getCurrentInstance();
+        List<String> lines = new ArrayList<>();
+        if (invoiceNumbers != null) {
+            invoiceNumbers.lines().forEach(lines::add);
+        }
+        if (upload != null && upload.getSize() > 0) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(upload.getInputStream(), StandardCharsets.UTF_8))) {
+                reader.lines().forEach(lines::add);
+            } catch (IOException e) {
+                context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_ERROR, "Unable to read settlement file", null));
+                return;
+            }
+        }
+        BulkRedemption.Batch batch;
+        try {
+            batch = bulkRedemption.prepare(lines.stream()
+                    .flatMap(line -> Stream.of(line.split("[,;\\s]+")).limit(1))
+                    .iterator());
+        } catch (IllegalArgumentException e) {
+            context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_ERROR, e.getMessage(), null));
+            return;
+        }
+        if (batch.size() == 0) {
+            context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_ERROR, "Enter or upload at least one invoice number", null));
+            return;
+        }
+        List<BulkRedemption.Result> collected = new ArrayList<>(batch.size());
+        try {
+            bulkRedemption.run(batch, collected::add);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_ERROR, "Bulk redemption was interrupted", null));
+        }
+        results = collected;
+        counts.clear();
+        counts.putAll(collected.stream().collect(Collectors.toMap(BulkRedemption.Result::outcome, result -> 1,
+                Integer::sum, () -> new EnumMap<>(BulkRedemption.Outcome.class))));
+        int redeemed = counts.getOrDefault(BulkRedemption.Outcome.REDEEMED, 0);
+        context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_INFO,
+                "Redeemed " + redeemed + " of " + collected.size() + " invoices.", null));
+    }
+
+    public int count(BulkRedemption.Outcome outcome) {
+        return counts.getOrDefault(outcome, 0);
+    }
+
+    public BulkRedemption.Outcome[] getOutcomes() {
+        return BulkRedemption.Outcome.values();
+    }
+
+    public boolean isHasResults() {
+        return results != null && !results.isEmpty();
+    }
+
+    public List<BulkRedemption.Result> getResults() {
+        return results;
+    }
+
+    public String getInvoiceNumbers() {
+        return invoiceNumbers;
+    }
+
+    public void setInvoiceNumbers(String invoiceNumbers) {
+        this.invoiceNumbers = invoiceNumbers;
+    }
+
+    public Part getUpload() {
+        return upload;
+    }
+
+    public void setUpload(Part upload) {
+        this.upload = upload;
+    }
+}
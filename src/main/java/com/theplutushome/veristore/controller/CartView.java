@@ -10,6 +10,7 @@ import com.theplutushome.veristore.model.Price;
 import com.theplutushome.veristore.model.dto.CartLineDTO;
 import com.theplutushome.veristore.service.payment.PaymentService;
 import com.theplutushome.veristore.service.PricingService;
+import com.theplutushome.veristore.util.Tracer;
 
 import jakarta.enterprise.context.SessionScoped;
 import jakarta.faces.application.FacesMessage;
@@ -239,6 +240,7 @@ public class CartView implements Serializable {
         List<CheckoutReference> references = new ArrayList<>();
         List<PaymentService.Purchase> purchases = new ArrayList<>();
         List<CartLineDTO> snapshot = new ArrayList<>(lines);
+        Tracer.Span span = Tracer.start("checkout");
         try {
             for (CartLineDTO line : snapshot) {
                 line.setPaymentMode(mode);
@@ -256,11 +258,14 @@ public class CartView implements Serializable {
                     initiation.getInvoiceNo(),
                     initiation.getCheckoutUrl()));
         } catch (Exception ex) {
+            span.fail();
             FacesContext context = FacesContext.getCurrentInstance();
             if (context != null) {
                 context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_ERROR, ex.getMessage(), null));
             }
             return null;
+        } finally {
+            span.close();
         }
         lines.clear();
 
@@ -205,7 +205,9 @@ public class CheckoutResultView implements Serializable {
             List<String> masked = invoice.getCodesIfDelivered().stream().map(Masker::mask).toList();
             String status = switch (invoice.getStatus()) {
                 case PENDING -> "Pending payment";
+                case FULFILLING -> "Processing";
                 case PAID -> "Paid";
+                case FAILED -> "Fulfillment failed";
                 case CANCELLED -> "Cancelled";
             };
             return new ResultLine(invoice.getInvoiceNo(),
@@ -16,7 +16,6 @@ import java.io.Serial;
 import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
-import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -29,7 +28,7 @@ public class HistoryView implements Serializable {
 
     private String email;
     private String msisdn;
-    private List<OrderStore.Order> results = Collections.emptyList();
+    private OrderHistoryModel results;
     private boolean searched;
 
     @Inject
@@ -45,16 +44,17 @@ public class HistoryView implements Serializable {
         String normalizedMsisdn = normalize(msisdn);
         if (normalizedEmail.isEmpty() && normalizedMsisdn.isEmpty()) {
             context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_ERROR, "Enter an email or phone number", null));
-            results = Collections.emptyList();
+            results = null;
             return;
         }
         Contact query = new Contact(normalizedEmail, normalizedMsisdn);
-        results = orderStore.findOrdersByContact(query);
-        if (results.isEmpty()) {
+        results = new OrderHistoryModel(orderStore, query);
+        int total = results.getTotal();
+        if (total == 0) {
             context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_INFO, "No matching orders found.", null));
         } else {
             context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_INFO,
-                results.size() == 1 ? "Found 1 matching order." : "Found " + results.size() + " matching orders.", null));
+                total == 1 ? "Found 1 matching order." : "Found " + total + " matching orders.", null));
         }
     }
 
@@ -74,10 +74,14 @@ public class HistoryView implements Serializable {
         this.msisdn = msisdn;
     }
 
-    public List<OrderStore.Order> getResults() {
+    public OrderHistoryModel getResults() {
         return results;
     }
 
+    public boolean isHasResults() {
+        return results != null && results.getTotal() > 0;
+    }
+
     public boolean isSearched() {
         return searched;
     }
@@ -0,0 +1,78 @@
+package com.theplutushome.veristore.controller;
+
+import com.theplutushome.veristore.model.Contact;
+import com.theplutushome.veristore.service.OrderStore;
+
+import org.primefaces.model.FilterMeta;
+import org.primefaces.model.LazyDataModel;
+import org.primefaces.model.SortMeta;
+
+import java.io.Serial;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Lazy table model over {@link OrderStore#findOrdersByContact(Contact, String, int)}. Only the visible
+ * page is held; continuation tokens are remembered per page offset so moving back and forth never
+ * rescans from the newest order.
+ */
+public class OrderHistoryModel extends LazyDataModel<OrderStore.Order> {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final OrderStore orderStore;
+    private final Contact contact;
+    private final int total;
+    private final TreeMap<Integer, String> continuations = new TreeMap<>();
+
+    OrderHistoryModel(OrderStore orderStore, Contact contact) {
+        this.orderStore = Objects.requireNonNull(orderStore, "orderStore");
+        this.contact = Objects.requireNonNull(contact, "contact");
+        this.total = orderStore.countOrdersByContact(contact);
+        continuations.put(0, null);
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    @Override
+    public int count(Map<String, FilterMeta> filterBy) {
+        return total;
+    }
+
+    @Override
+    public List<OrderStore.Order> load(int first, int pageSize, Map<String, SortMeta> sortBy, Map<String, FilterMeta> filterBy) {
+        Map.Entry<Integer, String> start = continuations.floorEntry(first);
+        int offset = start.getKey();
+        String continuation = start.getValue();
+        // Jumps past the furthest page seen walk forward one page at a time from the nearest known cursor.
+        while (offset < first) {
+            OrderStore.OrderPage skipped = orderStore.findOrdersByContact(contact, continuation, Math.min(pageSize, first - offset));
+            if (!skipped.hasMore()) {
+                return List.of();
+            }
+            offset += skipped.orders().size();
+            continuation = skipped.continuation();
+            continuations.put(offset, continuation);
+        }
+        OrderStore.OrderPage page = orderStore.findOrdersByContact(contact, continuation, pageSize);
+        if (page.hasMore()) {
+            continuations.put(first + page.orders().size(), page.continuation());
+        }
+        return page.orders();
+    }
+
+    @Override
+    public String getRowKey(OrderStore.Order order) {
+        return order.getId();
+    }
+
+    @Override
+    public OrderStore.Order getRowData(String rowKey) {
+        return orderStore.findOrder(rowKey).orElse(null);
+    }
+}
@@ -62,6 +62,8 @@ public class SuccessView implements Serializable {
             invoice = orderStore.findInvoice(invoiceNo).orElse(null);
             if (invoice == null) {
                 context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_ERROR, "Invoice not found", null));
+            } else if (invoice.getStatus() == InvoiceStatus.FULFILLING) {
+                context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_WARN, "Invoice payment is being processed", null));
             } else if (invoice.getStatus() != InvoiceStatus.PAID) {
                 context.addMessage(null, new FacesMessage(FacesMessage.SEVERITY_WARN, "Invoice pending payment", null));
             } else if (context.getMessageList().isEmpty()) {
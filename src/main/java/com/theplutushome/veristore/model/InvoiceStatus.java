@@ -2,8 +2,24 @@ package com.theplutushome.veristore.model;
 
 import java.io.Serializable;
 
+/**
+ * Invoice lifecycle. Fulfillment is claimed by moving PENDING (or a previously FAILED invoice) to
+ * FULFILLING; only that claimant may settle it as PAID or FAILED. CANCELLED only goes back to
+ * PENDING when a late payment arrives for an invoice that expired unpaid.
+ */
 public enum InvoiceStatus implements Serializable {
     PENDING,
+    FULFILLING,
     PAID,
-    CANCELLED
+    FAILED,
+    CANCELLED;
+
+    public boolean canMoveTo(InvoiceStatus next) {
+        return switch (this) {
+            case PENDING, FAILED -> next == FULFILLING || next == CANCELLED;
+            case FULFILLING -> next == PAID || next == FAILED;
+            case CANCELLED -> next == PENDING;
+            case PAID -> false;
+        };
+    }
 }
@@ -0,0 +1,95 @@
+package com.theplutushome.veristore.model.entity;
+
+import com.theplutushome.veristore.model.Currency;
+import com.theplutushome.veristore.model.InvoiceStatus;
+
+import jakarta.persistence.CascadeType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.OneToMany;
+import jakarta.persistence.OrderColumn;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Persistent form of an invoice. It is deliberately kept out of the shared (second-level) cache:
+ * several nodes move invoices between states, and a cached copy would serve a status another node
+ * has already changed. Status changes are conditional updates in the database.
+ */
+@Entity
+@Table(name = "invoice", indexes = {
+    @Index(name = "idx_invoice_email_key", columnList = "email_key"),
+    @Index(name = "idx_invoice_msisdn_key", columnList = "msisdn_key")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class InvoiceEntity implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "invoice_no", length = 64)
+    private String invoiceNo;
+
+    @Column(name = "email", nullable = false)
+    private String email;
+
+    @Column(name = "msisdn", nullable = false)
+    private String msisdn;
+
+    @Column(name = "email_key", nullable = false)
+    private String emailKey;
+
+    @Column(name = "msisdn_key", nullable = false)
+    private String msisdnKey;
+
+    @Column(name = "deliver_email", nullable = false)
+    private boolean deliverByEmail;
+
+    @Column(name = "deliver_sms", nullable = false)
+    private boolean deliverBySms;
+
+    @Column(name = "total_minor", nullable = false)
+    private long totalMinor;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "currency", nullable = false, length = 3)
+    private Currency currency;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, length = 16)
+    private InvoiceStatus status;
+
+    @Column(name = "created_nanos", nullable = false)
+    private long createdNanos;
+
+    @Column(name = "checkout_url", length = 1024)
+    private String checkoutUrl;
+
+    @OneToMany(mappedBy = "invoice", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.EAGER)
+    @OrderColumn(name = "line_no")
+    private List<InvoiceLineEntity> lines = new ArrayList<>();
+
+    @Version
+    @Column(name = "version")
+    private long version;
+
+    public void addLine(InvoiceLineEntity line) {
+        line.setInvoice(this);
+        lines.add(line);
+    }
+}
@@ -0,0 +1,81 @@
+package com.theplutushome.veristore.model.entity;
+
+import com.theplutushome.veristore.model.Currency;
+
+import jakarta.persistence.CascadeType;
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.OneToMany;
+import jakarta.persistence.OrderColumn;
+import jakarta.persistence.Table;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Persistent form of a fulfilled order. History lookups filter on the normalized contact keys and
+ * sort newest first, so each key is indexed together with the creation time.
+ */
+@Entity
+@Table(name = "orders", indexes = {
+    @Index(name = "idx_orders_email_created", columnList = "email_key, created_nanos"),
+    @Index(name = "idx_orders_msisdn_created", columnList = "msisdn_key, created_nanos")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+public class OrderEntity implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "order_id", length = 64)
+    private String id;
+
+    @Column(name = "email", nullable = false)
+    private String email;
+
+    @Column(name = "msisdn", nullable = false)
+    private String msisdn;
+
+    @Column(name = "email_key", nullable = false)
+    private String emailKey;
+
+    @Column(name = "msisdn_key", nullable = false)
+    private String msisdnKey;
+
+    @Column(name = "deliver_email", nullable = false)
+    private boolean deliverByEmail;
+
+    @Column(name = "deliver_sms", nullable = false)
+    private boolean deliverBySms;
+
+    @Column(name = "total_minor", nullable = false)
+    private long totalMinor;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "currency", nullable = false, length = 3)
+    private Currency currency;
+
+    @Column(name = "created_nanos", nullable = false)
+    private long createdNanos;
+
+    @OneToMany(mappedBy = "order", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
+    @OrderColumn(name = "line_no")
+    private List<OrderLineEntity> lines = new ArrayList<>();
+
+    public void addLine(OrderLineEntity line) {
+        line.setOrder(this);
+        lines.add(line);
+    }
+}
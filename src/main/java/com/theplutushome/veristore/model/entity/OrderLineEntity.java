@@ -0,0 +1,62 @@
+package com.theplutushome.veristore.model.entity;
+
+import com.theplutushome.veristore.model.Currency;
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
+import jakarta.persistence.Id;
+import jakarta.persistence.JoinColumn;
+import jakarta.persistence.ManyToOne;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import java.io.Serial;
+import java.io.Serializable;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Entity
+@Table(name = "order_line")
+@Getter
+@Setter
+@NoArgsConstructor
+public class OrderLineEntity implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_line_seq")
+    @SequenceGenerator(name = "order_line_seq", sequenceName = "order_line_seq", allocationSize = 50)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "order_id", nullable = false)
+    private OrderEntity order;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "family", nullable = false, length = 16)
+    private ProductFamily family;
+
+    @Column(name = "sku", nullable = false, length = 32)
+    private String sku;
+
+    @Column(name = "quantity", nullable = false)
+    private int quantity;
+
+    @Column(name = "total_minor", nullable = false)
+    private long totalMinor;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "currency", nullable = false, length = 3)
+    private Currency currency;
+
+    @Column(name = "codes", length = 65535)
+    private String codes;
+}
@@ -0,0 +1,33 @@
+package com.theplutushome.veristore.model.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import java.io.Serial;
+import java.io.Serializable;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Delivery outbox row: an order whose PINs have not been sent yet. Written in the same transaction
+ * that marks its invoice paid, and deleted once delivery succeeds.
+ */
+@Entity
+@Table(name = "pending_deliveries")
+@Getter
+@Setter
+@NoArgsConstructor
+public class PendingDeliveryEntity implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Id
+    @Column(name = "order_id", length = 64)
+    private String orderId;
+
+    @Column(name = "created_nanos", nullable = false)
+    private long createdNanos;
+}
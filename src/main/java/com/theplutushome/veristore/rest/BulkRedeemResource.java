@@ -0,0 +1,92 @@
+package com.theplutushome.veristore.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theplutushome.veristore.service.payment.BulkRedemption;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Redeems an uploaded settlement file of invoice numbers, one per line, and streams one JSON line per
+ * invoice back as each finishes.
+ */
+@Path("/payment/redeem/bulk")
+public class BulkRedeemResource {
+
+    private static final Logger LOGGER = Logger.getLogger(BulkRedeemResource.class.getName());
+    static final String NDJSON = "application/x-ndjson";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Inject
+    private BulkRedemption bulkRedemption;
+
+    @POST
+    @Consumes({MediaType.TEXT_PLAIN, "text/csv", MediaType.APPLICATION_OCTET_STREAM})
+    @Produces(NDJSON)
+    public Response redeem(InputStream body) {
+        BulkRedemption.Batch batch;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            batch = bulkRedemption.prepare(reader.lines().map(BulkRedeemResource::firstColumn).iterator());
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).entity(e.getMessage()).build();
+        } catch (IOException | UncheckedIOException e) {
+            LOGGER.log(Level.WARNING, "Unable to read bulk redemption upload", e);
+            return Response.status(Response.Status.BAD_REQUEST).build();
+        }
+        LOGGER.log(Level.INFO, "Bulk redeeming {0} invoices", batch.size());
+        StreamingOutput output = out -> {
+            try {
+                bulkRedemption.run(batch, result -> writeLine(out, result));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        };
+        return Response.ok(output, NDJSON).build();
+    }
+
+    private void writeLine(OutputStream out, BulkRedemption.Result result) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("invoiceNo", result.invoiceNo());
+        line.put("sku", result.sku());
+        line.put("outcome", result.outcome().name());
+        line.put("status", result.status() == null ? null : result.status().name());
+        line.put("millis", result.millis());
+        if (result.error() != null) {
+            line.put("error", result.error());
+        }
+        try {
+            out.write(mapper.writeValueAsBytes(line));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Settlement exports are CSV with the invoice number first.
+    private static String firstColumn(String line) {
+        int comma = line.indexOf(',');
+        return comma < 0 ? line : line.substring(0, comma);
+    }
+}
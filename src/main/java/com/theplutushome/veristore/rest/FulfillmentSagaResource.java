@@ -0,0 +1,97 @@
+package com.theplutushome.veristore.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theplutushome.veristore.service.payment.FulfillmentSaga;
+import com.theplutushome.veristore.service.payment.PaymentService;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Atlas transactions held for unpaid invoices, and cancelling an invoice so they are compensated.
+ */
+@Path("/payment/saga")
+@Produces(MediaType.APPLICATION_JSON)
+public class FulfillmentSagaResource {
+
+    private static final Logger LOGGER = Logger.getLogger(FulfillmentSagaResource.class.getName());
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Inject
+    private FulfillmentSaga saga;
+
+    @Inject
+    private PaymentService paymentService;
+
+    @GET
+    public Response open() {
+        Map<String, Object> body = new LinkedHashMap<>();
+        saga.openSagas().forEach((invoiceNo, steps) -> body.put(invoiceNo, toList(steps)));
+        return json(body);
+    }
+
+    @GET
+    @Path("/{invoiceNo}")
+    public Response steps(@PathParam("invoiceNo") String invoiceNo) {
+        List<FulfillmentSaga.Step> steps = saga.steps(invoiceNo.trim());
+        if (steps.isEmpty()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return json(toList(steps));
+    }
+
+    /**
+     * Cancels an unpaid invoice; its Atlas transactions are cancelled in the background. Answers 409 if
+     * the invoice is paid or being fulfilled.
+     */
+    @POST
+    @Path("/{invoiceNo}/cancel")
+    public Response cancel(@PathParam("invoiceNo") String invoiceNo) {
+        String normalized = invoiceNo.trim();
+        try {
+            if (paymentService.cancelInvoice(normalized)) {
+                return Response.status(Response.Status.ACCEPTED).build();
+            }
+            return Response.status(Response.Status.CONFLICT).entity("Invoice cannot be cancelled").build();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Unable to cancel invoice " + normalized, e);
+            return Response.serverError().build();
+        }
+    }
+
+    private Response json(Object body) {
+        try {
+            return Response.ok(mapper.writeValueAsString(body)).build();
+        } catch (JsonProcessingException e) {
+            LOGGER.log(Level.SEVERE, "Unable to render fulfillment sagas", e);
+            return Response.serverError().build();
+        }
+    }
+
+    private static List<Map<String, Object>> toList(List<FulfillmentSaga.Step> steps) {
+        List<Map<String, Object>> lines = new ArrayList<>();
+        for (FulfillmentSaga.Step step : steps) {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("line", step.line());
+            line.put("transactionId", step.transactionId());
+            line.put("state", step.state().name());
+            lines.add(line);
+        }
+        return lines;
+    }
+}
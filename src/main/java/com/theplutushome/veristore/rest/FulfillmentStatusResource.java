@@ -0,0 +1,75 @@
+package com.theplutushome.veristore.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theplutushome.veristore.service.payment.FulfillmentQueue;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Where a queued payment-callback fulfillment stands, by invoice number, plus the dead-letter list.
+ */
+@Path("/payment/fulfillment")
+@Produces(MediaType.APPLICATION_JSON)
+public class FulfillmentStatusResource {
+
+    private static final Logger LOGGER = Logger.getLogger(FulfillmentStatusResource.class.getName());
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Inject
+    private FulfillmentQueue fulfillmentQueue;
+
+    @GET
+    @Path("/dead-letters")
+    public Response deadLetters() {
+        List<Map<String, Object>> dead = new ArrayList<>();
+        for (FulfillmentQueue.Status status : fulfillmentQueue.deadLetters()) {
+            dead.add(toMap(status));
+        }
+        return json(dead);
+    }
+
+    @GET
+    @Path("/{invoiceNo}")
+    public Response status(@PathParam("invoiceNo") String invoiceNo) {
+        Optional<FulfillmentQueue.Status> status = fulfillmentQueue.status(invoiceNo == null ? null : invoiceNo.trim());
+        if (status.isEmpty()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return json(toMap(status.get()));
+    }
+
+    private Response json(Object body) {
+        try {
+            return Response.ok(mapper.writeValueAsString(body)).build();
+        } catch (JsonProcessingException e) {
+            LOGGER.log(Level.SEVERE, "Unable to render fulfillment status", e);
+            return Response.serverError().build();
+        }
+    }
+
+    private static Map<String, Object> toMap(FulfillmentQueue.Status status) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("invoiceNo", status.invoiceNo());
+        body.put("state", status.state().name());
+        body.put("attempts", status.attempts());
+        body.put("lastError", status.lastError());
+        body.put("updatedAt", status.updatedAt().toString());
+        return body;
+    }
+}
@@ -0,0 +1,155 @@
+package com.theplutushome.veristore.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theplutushome.veristore.service.PinVault;
+import com.theplutushome.veristore.util.LatencyHistogram;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * PIN vault stock levels, take rates and take latency per SKU, as JSON or in the Prometheus text
+ * exposition format.
+ */
+@Path("/telemetry/inventory")
+public class InventoryTelemetryResource {
+
+    private static final Logger LOGGER = Logger.getLogger(InventoryTelemetryResource.class.getName());
+    static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Inject
+    private PinVault pinVault;
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response json() {
+        List<Map<String, Object>> shelves = new ArrayList<>();
+        for (PinVault.StockLevel level : pinVault.stockLevels()) {
+            Map<String, Object> shelf = new LinkedHashMap<>();
+            shelf.put("family", level.key().family().name());
+            shelf.put("sku", level.key().sku());
+            shelf.put("available", level.available());
+            shelf.put("lowWatermark", level.lowWatermark());
+            shelf.put("highWatermark", level.highWatermark());
+            shelf.put("takeRatePerSecond", level.takeRatePerSecond());
+            shelf.put("taken", level.taken());
+            shelf.put("inlineGenerated", level.inlineGenerated());
+            shelf.put("reservations", level.reservations());
+            shelf.put("takeLatency", latency(level.takeLatency()));
+            shelves.add(shelf);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("inlineGenerated", pinVault.inlineGenerated());
+        body.put("shelves", shelves);
+        try {
+            return Response.ok(mapper.writeValueAsString(body)).build();
+        } catch (JsonProcessingException e) {
+            LOGGER.log(Level.SEVERE, "Unable to render inventory telemetry", e);
+            return Response.serverError().build();
+        }
+    }
+
+    @GET
+    @Path("/prometheus")
+    @Produces(PROMETHEUS_TEXT)
+    public String prometheus() {
+        return render(pinVault.stockLevels());
+    }
+
+    static String render(List<PinVault.StockLevel> levels) {
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "veristore_vault_available", "PINs in stock", levels, PinVault.StockLevel::available);
+        gauge(out, "veristore_vault_low_watermark", "Stock level that triggers a refill", levels, PinVault.StockLevel::lowWatermark);
+        gauge(out, "veristore_vault_high_watermark", "Stock level a refill tops up to", levels, PinVault.StockLevel::highWatermark);
+        gauge(out, "veristore_vault_take_rate", "Smoothed PINs taken per second", levels, PinVault.StockLevel::takeRatePerSecond);
+        gauge(out, "veristore_vault_reservations", "Invoices holding reserved PINs", levels, PinVault.StockLevel::reservations);
+        counter(out, "veristore_vault_taken_total", "PINs taken", levels, PinVault.StockLevel::taken);
+        counter(out, "veristore_vault_inline_generated_total", "PINs generated on the caller's thread because stock ran dry",
+                levels, PinVault.StockLevel::inlineGenerated);
+
+        String name = "veristore_vault_take_seconds";
+        out.append("# HELP ").append(name).append(" Time spent in PinVault.take\n");
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        for (PinVault.StockLevel level : levels) {
+            LatencyHistogram.Snapshot latency = level.takeLatency();
+            long[] bounds = latency.boundsMicros();
+            long[] counts = latency.cumulativeCounts();
+            for (int i = 0; i < counts.length; i++) {
+                String le = i < bounds.length ? Double.toString(bounds[i] / 1_000_000.0) : "+Inf";
+                out.append(name).append("_bucket");
+                labels(out, level, le).append(' ').append(counts[i]).append('\n');
+            }
+            out.append(name).append("_sum");
+            labels(out, level, null).append(' ').append(latency.totalNanos() / 1e9).append('\n');
+            out.append(name).append("_count");
+            labels(out, level, null).append(' ').append(latency.count()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, List<PinVault.StockLevel> levels,
+                              ToDoubleFunction<PinVault.StockLevel> value) {
+        series(out, name, help, "gauge", levels, value);
+    }
+
+    private static void counter(StringBuilder out, String name, String help, List<PinVault.StockLevel> levels,
+                                ToDoubleFunction<PinVault.StockLevel> value) {
+        series(out, name, help, "counter", levels, value);
+    }
+
+    private static void series(StringBuilder out, String name, String help, String type, List<PinVault.StockLevel> levels,
+                               ToDoubleFunction<PinVault.StockLevel> value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (PinVault.StockLevel level : levels) {
+            double sample = value.applyAsDouble(level);
+            out.append(name);
+            labels(out, level, null).append(' ');
+            if (sample == Math.rint(sample) && Math.abs(sample) < 1e15) {
+                out.append((long) sample);
+            } else {
+                out.append(sample);
+            }
+            out.append('\n');
+        }
+    }
+
+    private static StringBuilder labels(StringBuilder out, PinVault.StockLevel level, String le) {
+        out.append("{family=\"").append(level.key().family().name())
+                .append("\",sku=\"").append(level.key().sku().replace("\\", "\\\\").replace("\"", "\\\""))
+                .append('"');
+        if (le != null) {
+            out.append(",le=\"").append(le).append('"');
+        }
+        return out.append('}');
+    }
+
+    private static Map<String, Object> latency(LatencyHistogram.Snapshot snapshot) {
+        Map<String, Object> buckets = new LinkedHashMap<>();
+        long[] bounds = snapshot.boundsMicros();
+        long[] counts = snapshot.cumulativeCounts();
+        for (int i = 0; i < counts.length; i++) {
+            buckets.put(i < bounds.length ? Long.toString(bounds[i]) : "+Inf", counts[i]);
+        }
+        Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("count", snapshot.count());
+        latency.put("totalMicros", snapshot.totalNanos() / 1_000);
+        latency.put("bucketsMicros", buckets);
+        return latency;
+    }
+}
@@ -4,7 +4,8 @@
  */
 package com.theplutushome.veristore.rest;
 
-import com.theplutushome.veristore.service.payment.PaymentService;
+import com.theplutushome.veristore.service.payment.CallbackDeduplicator;
+import com.theplutushome.veristore.service.payment.FulfillmentQueue;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.POST;
@@ -26,21 +27,34 @@ public class PaymentCallback {
     private static final Logger LOGGER = Logger.getLogger(PaymentCallback.class.getName());
 
     @Inject
-    private PaymentService paymentService;
+    private FulfillmentQueue fulfillmentQueue;
 
+    @Inject
+    private CallbackDeduplicator deduplicator;
+
+    /**
+     * Acknowledges the callback with 202 once fulfillment is queued, or asks the gateway to retry with
+     * 503 when the queue is full; progress is visible at {@code /payment/fulfillment/{invoice}}.
+     * Repeats of an acknowledged callback are answered by {@link CallbackDeduplicator}.
+     */
     @Consumes(MediaType.APPLICATION_FORM_URLENCODED)
     @POST
-    public Response processCallback(@QueryParam(value = "invoice_number") String invoiceNumber) {
+    public Response processCallback(@QueryParam(value = "invoice_number") String invoiceNumber,
+                                    @QueryParam(value = "event_id") String eventId) {
         if (invoiceNumber == null || invoiceNumber.isBlank()) {
             LOGGER.warning("Payment callback received without invoice number");
             return Response.status(Response.Status.BAD_REQUEST).entity("invoice_number is required").build();
         }
         String normalized = invoiceNumber.trim();
-        LOGGER.log(Level.INFO, () -> "Processing payment callback for invoice " + normalized);
         try {
-            boolean fulfilled = paymentService.processGatewayCallback(normalized);
-            if (fulfilled) {
-                return Response.ok().build();
+            CallbackDeduplicator.Outcome outcome = deduplicator.process(normalized, eventId, () -> {
+                LOGGER.log(Level.INFO, () -> "Queueing fulfillment for payment callback on invoice " + normalized);
+                return fulfillmentQueue.enqueue(normalized)
+                        ? CallbackDeduplicator.Outcome.ACCEPTED
+                        : CallbackDeduplicator.Outcome.RETRY_LATER;
+            });
+            if (outcome == CallbackDeduplicator.Outcome.RETRY_LATER) {
+                return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", "30").build();
             }
             return Response.status(Response.Status.ACCEPTED).build();
         } catch (Exception e) {
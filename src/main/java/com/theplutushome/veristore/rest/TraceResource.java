@@ -0,0 +1,114 @@
+package com.theplutushome.veristore.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.theplutushome.veristore.util.Tracer;
+
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.PathParam;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Recent checkout and fulfillment traces: per-stage latency percentiles, the slowest traces, and
+ * the spans of one trace.
+ */
+@Path("/telemetry/traces")
+@Produces(MediaType.APPLICATION_JSON)
+public class TraceResource {
+
+    private static final Logger LOGGER = Logger.getLogger(TraceResource.class.getName());
+    private static final int MAX_LIMIT = 100;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @GET
+    @Path("/stages")
+    public Response stages() {
+        List<Map<String, Object>> stages = new ArrayList<>();
+        for (Tracer.StageStats stats : Tracer.global().stages()) {
+            Map<String, Object> stage = new LinkedHashMap<>();
+            stage.put("stage", stats.stage());
+            stage.put("count", stats.count());
+            stage.put("errors", stats.errors());
+            stage.put("p50Millis", millis(stats.p50Nanos()));
+            stage.put("p90Millis", millis(stats.p90Nanos()));
+            stage.put("p99Millis", millis(stats.p99Nanos()));
+            stage.put("maxMillis", millis(stats.maxNanos()));
+            stages.add(stage);
+        }
+        return json(stages);
+    }
+
+    @GET
+    @Path("/slowest")
+    public Response slowest(@QueryParam("limit") @DefaultValue("10") int limit) {
+        List<Map<String, Object>> traces = new ArrayList<>();
+        for (Tracer.Trace trace : Tracer.global().slowest(Math.max(1, Math.min(MAX_LIMIT, limit)))) {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("traceId", trace.traceId());
+            body.put("stage", trace.root().stage());
+            body.put("durationMillis", millis(trace.root().durationNanos()));
+            body.put("startedAt", startedAt(trace.root()));
+            body.put("spans", toList(trace.spans()));
+            traces.add(body);
+        }
+        return json(traces);
+    }
+
+    @GET
+    @Path("/{traceId}")
+    public Response trace(@PathParam("traceId") String traceId) {
+        List<Tracer.SpanRecord> spans = Tracer.global().trace(traceId.trim());
+        if (spans.isEmpty()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return json(toList(spans));
+    }
+
+    private Response json(Object body) {
+        try {
+            return Response.ok(mapper.writeValueAsString(body)).build();
+        } catch (JsonProcessingException e) {
+            LOGGER.log(Level.SEVERE, "Unable to render traces", e);
+            return Response.serverError().build();
+        }
+    }
+
+    private static List<Map<String, Object>> toList(List<Tracer.SpanRecord> spans) {
+        List<Map<String, Object>> list = new ArrayList<>(spans.size());
+        for (Tracer.SpanRecord span : spans) {
+            Map<String, Object> body = new LinkedHashMap<>();
+            body.put("spanId", span.spanId());
+            body.put("parentSpanId", span.parentSpanId());
+            body.put("stage", span.stage());
+            body.put("startedAt", startedAt(span));
+            body.put("durationMillis", millis(span.durationNanos()));
+            body.put("error", span.error());
+            list.add(body);
+        }
+        return list;
+    }
+
+    private static String startedAt(Tracer.SpanRecord span) {
+        long micros = span.startMicros();
+        return Instant.ofEpochSecond(TimeUnit.MICROSECONDS.toSeconds(micros), (micros % 1_000_000) * 1_000).toString();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
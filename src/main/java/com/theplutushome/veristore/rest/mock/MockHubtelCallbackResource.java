@@ -1,5 +1,6 @@
 package com.theplutushome.veristore.rest.mock;
 
+import com.theplutushome.veristore.service.payment.CallbackDeduplicator;
 import com.theplutushome.veristore.service.payment.PaymentService;
 
 import jakarta.inject.Inject;
@@ -23,10 +24,14 @@ public class MockHubtelCallbackResource {
     @Inject
     private PaymentService paymentService;
 
+    @Inject
+    private CallbackDeduplicator deduplicator;
+
     @GET
     @Path("/callback")
     public Response simulatePayment(@QueryParam("invoice") String invoiceNo,
-                                    @QueryParam("paid") @DefaultValue("false") boolean paid) {
+                                    @QueryParam("paid") @DefaultValue("false") boolean paid,
+                                    @QueryParam("event") String eventId) {
         if (invoiceNo == null || invoiceNo.isBlank()) {
             return Response.status(Response.Status.BAD_REQUEST)
                     .entity("invoice parameter is required")
@@ -40,8 +45,11 @@ public class MockHubtelCallbackResource {
                     .build();
         }
         try {
-            boolean fulfilled = paymentService.processGatewayCallback(normalized);
-            if (fulfilled) {
+            CallbackDeduplicator.Outcome outcome = deduplicator.process(normalized, eventId,
+                    () -> paymentService.processGatewayCallback(normalized)
+                            ? CallbackDeduplicator.Outcome.FULFILLED
+                            : CallbackDeduplicator.Outcome.NOT_FULFILLED);
+            if (outcome == CallbackDeduplicator.Outcome.FULFILLED) {
                 return Response.ok("Payment simulated successfully for invoice " + normalized + ".").build();
             }
             return Response.status(Response.Status.ACCEPTED)
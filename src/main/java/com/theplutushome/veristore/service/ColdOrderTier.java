@@ -0,0 +1,290 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.service.journal.ByteBufferInput;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only, compressed segment files for orders that have aged out of the heap.
+ * <p>
+ * Each record is {@code [int length][header][int bodyLength][deflated order]}. The header carries the
+ * order id, creation time and normalized contact keys so the contact index can be rebuilt on startup
+ * without inflating any bodies. Only a small {@code id -> location} map stays in memory, plus an LRU
+ * of recently faulted-in orders.
+ */
+final class ColdOrderTier implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(ColdOrderTier.class.getName());
+    private static final long SEGMENT_LIMIT = 256L << 20;
+    private static final int OFFSET_BITS = 40;
+
+    private final Path directory;
+    private final Map<String, Long> locations = new ConcurrentHashMap<>();
+    private final Map<Integer, FileChannel> segments = new ConcurrentHashMap<>();
+    private final Map<String, OrderStore.Order> recent;
+    private int activeSegment;
+    private long activeSize;
+
+    ColdOrderTier(Path directory, int cacheSize) {
+        this.directory = directory;
+        this.recent = new LinkedHashMap<>(cacheSize * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, OrderStore.Order> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create cold order directory " + directory, e);
+        }
+    }
+
+    /**
+     * Scans every segment header, registering each order's location and passing its index keys to
+     * {@code visitor}. Later copies of the same order win.
+     */
+    void load(HeaderVisitor visitor) {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Integer> numbers = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("cold-") && name.endsWith(".seg"))
+                    .map(name -> Integer.parseInt(name.substring(5, name.length() - 4)))
+                    .sorted()
+                    .toList();
+            for (int number : numbers) {
+                FileChannel channel = open(number);
+                long size = scan(number, channel, visitor);
+                activeSegment = number;
+                activeSize = size;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to load cold orders from " + directory, e);
+        }
+        LOGGER.log(Level.INFO, () -> String.format("Cold order tier holds %d orders in %d segments", locations.size(), segments.size()));
+    }
+
+    boolean contains(String orderId) {
+        return locations.containsKey(orderId);
+    }
+
+    int size() {
+        return locations.size();
+    }
+
+    /**
+     * Appends {@code orders} and forces them to disk before returning, so callers may drop them from
+     * the heap afterwards.
+     */
+    synchronized void append(Collection<OrderStore.Order> orders) {
+        if (orders.isEmpty()) {
+            return;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            FileChannel channel = null;
+            for (OrderStore.Order order : orders) {
+                if (channel == null || activeSize >= SEGMENT_LIMIT) {
+                    if (channel != null) {
+                        channel.force(false);
+                        activeSegment++;
+                        activeSize = 0;
+                    }
+                    channel = open(activeSegment);
+                    activeSize = channel.size();
+                }
+                byte[] record = encode(order, deflater);
+                long offset = activeSize;
+                channel.write(ByteBuffer.wrap(record), offset);
+                activeSize += record.length;
+                locations.put(order.getId(), location(activeSegment, offset));
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to append cold orders", e);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    Optional<OrderStore.Order> find(String orderId) {
+        Long location = locations.get(orderId);
+        if (location == null) {
+            return Optional.empty();
+        }
+        synchronized (recent) {
+            OrderStore.Order cached = recent.get(orderId);
+            if (cached != null) {
+                return Optional.of(cached);
+            }
+        }
+        OrderStore.Order order = read(location);
+        synchronized (recent) {
+            recent.put(orderId, order);
+        }
+        return Optional.of(order);
+    }
+
+    @Override
+    public void close() {
+        for (FileChannel channel : segments.values()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to close cold segment", e);
+            }
+        }
+        segments.clear();
+    }
+
+    private OrderStore.Order read(long location) {
+        int segment = (int) (location >>> OFFSET_BITS);
+        long offset = location & ((1L << OFFSET_BITS) - 1);
+        try {
+            FileChannel channel = segments.get(segment);
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            readFully(channel, length, offset);
+            ByteBuffer record = ByteBuffer.allocate(length.flip().getInt());
+            readFully(channel, record, offset + Integer.BYTES);
+            DataInput in = new ByteBufferInput(record.flip());
+            skipHeader(in);
+            byte[] compressed = new byte[in.readInt()];
+            in.readFully(compressed);
+            return OrderJournal.readOrder(new ByteBufferInput(ByteBuffer.wrap(inflate(compressed))));
+        } catch (IOException | DataFormatException e) {
+            throw new IllegalStateException("Unable to read cold order at segment " + segment + " offset " + offset, e);
+        }
+    }
+
+    private long scan(int number, FileChannel channel, HeaderVisitor visitor) throws IOException {
+        long size = channel.size();
+        long offset = 0;
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        while (offset + Integer.BYTES <= size) {
+            length.clear();
+            readFully(channel, length, offset);
+            int recordLength = length.flip().getInt();
+            if (recordLength <= 0 || offset + Integer.BYTES + recordLength > size) {
+                LOGGER.log(Level.WARNING, "Truncating partial cold record in segment {0} at {1}", new Object[]{number, offset});
+                channel.truncate(offset);
+                return offset;
+            }
+            ByteBuffer header = ByteBuffer.allocate(Math.min(recordLength, 1024));
+            readFully(channel, header, offset + Integer.BYTES);
+            DataInput in = new ByteBufferInput(header.flip());
+            String id = in.readUTF();
+            Instant created = Instant.ofEpochSecond(in.readLong(), in.readInt());
+            String emailKey = in.readUTF();
+            String msisdnKey = in.readUTF();
+            locations.put(id, location(number, offset));
+            visitor.visit(id, created, emailKey, msisdnKey);
+            offset += Integer.BYTES + recordLength;
+        }
+        return offset;
+    }
+
+    private byte[] encode(OrderStore.Order order, Deflater deflater) throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream(256);
+        OrderJournal.writeOrder(new DataOutputStream(plain), order);
+        deflater.reset();
+        deflater.setInput(plain.toByteArray());
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(128);
+        byte[] chunk = new byte[512];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            compressed.write(chunk, 0, n);
+        }
+        ByteArrayOutputStream record = new ByteArrayOutputStream(compressed.size() + 96);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(0);
+        out.writeUTF(order.getId());
+        out.writeLong(order.getCreated().getEpochSecond());
+        out.writeInt(order.getCreated().getNano());
+        out.writeUTF(OrderStore.normalize(order.getContact().email()));
+        out.writeUTF(OrderStore.normalize(order.getContact().msisdn()));
+        out.writeInt(compressed.size());
+        compressed.writeTo(out);
+        byte[] bytes = record.toByteArray();
+        ByteBuffer.wrap(bytes).putInt(0, bytes.length - Integer.BYTES);
+        return bytes;
+    }
+
+    private static void skipHeader(DataInput in) throws IOException {
+        in.readUTF();
+        in.skipBytes(Long.BYTES + Integer.BYTES);
+        in.readUTF();
+        in.readUTF();
+    }
+
+    private static byte[] inflate(byte[] compressed) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 3);
+            byte[] chunk = new byte[1024];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Truncated cold order body");
+                }
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private FileChannel open(int number) {
+        return segments.computeIfAbsent(number, n -> {
+            try {
+                return FileChannel.open(directory.resolve("cold-" + n + ".seg"),
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to open cold segment " + n, e);
+            }
+        });
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new IOException("Unexpected end of cold segment");
+            }
+        }
+    }
+
+    private static long location(int segment, long offset) {
+        return ((long) segment << OFFSET_BITS) | offset;
+    }
+
+    @FunctionalInterface
+    interface HeaderVisitor {
+
+        void visit(String orderId, Instant created, String emailKey, String msisdnKey);
+    }
+}
@@ -0,0 +1,173 @@
+package com.theplutushome.veristore.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Snowflake-style 64-bit identifiers: 42 bits of milliseconds since 2024-01-01, a 10-bit node id and
+ * a 12-bit per-millisecond sequence. Generation is a single CAS; when a millisecond's sequence runs
+ * out the generator borrows the next millisecond instead of spinning, and it never moves backwards
+ * if the wall clock does.
+ * <p>
+ * With a high-water-mark file the generator leases time ahead in {@link #LEASE_MILLIS} steps and
+ * fsyncs the lease before handing out any id inside it, so a restart (even onto a slower clock)
+ * resumes past every id already issued.
+ */
+public final class IdGenerator implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(IdGenerator.class.getName());
+
+    static final long EPOCH_MILLIS = 1_704_067_200_000L;
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+    static final long LEASE_MILLIS = 10_000;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int ENCODED_LENGTH = 13;
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private final long nodeBits;
+    private final LongSupplier clock;
+    private final AtomicLong state;
+    private final FileChannel highWaterMark;
+    private volatile long leasedUntil;
+
+    public IdGenerator(int nodeId) {
+        this(nodeId, null, System::currentTimeMillis);
+    }
+
+    public IdGenerator(int nodeId, Path highWaterMarkFile) {
+        this(nodeId, highWaterMarkFile, System::currentTimeMillis);
+    }
+
+    IdGenerator(int nodeId, Path highWaterMarkFile, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("nodeId must be between 0 and " + MAX_NODE_ID);
+        }
+        this.nodeBits = (long) nodeId << SEQUENCE_BITS;
+        this.clock = clock;
+        long start = elapsed();
+        if (highWaterMarkFile == null) {
+            this.highWaterMark = null;
+        } else {
+            this.highWaterMark = openHighWaterMark(highWaterMarkFile);
+            long leased = readHighWaterMark();
+            if (leased > start) {
+                LOGGER.log(Level.INFO, "Clock is behind the persisted id high-water mark by {0} ms; resuming from the mark",
+                        leased - start);
+                start = leased;
+            }
+        }
+        this.state = new AtomicLong(start << SEQUENCE_BITS);
+        this.leasedUntil = start;
+    }
+
+    public long nextId() {
+        long next;
+        while (true) {
+            long current = state.get();
+            long now = elapsed();
+            // A full sequence carries into the millisecond bits, i.e. borrows the next millisecond.
+            next = now > current >>> SEQUENCE_BITS ? now << SEQUENCE_BITS : current + 1;
+            if (state.compareAndSet(current, next)) {
+                break;
+            }
+        }
+        long millis = next >>> SEQUENCE_BITS;
+        if (highWaterMark != null && millis >= leasedUntil) {
+            extendLease(millis);
+        }
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * Returns {@code prefix} followed by the next id as 13 Crockford base32 digits. Ids of one
+     * generator sort in issue order as strings.
+     */
+    public String next(String prefix) {
+        return format(prefix, nextId());
+    }
+
+    static String format(String prefix, long id) {
+        int length = prefix.length();
+        char[] chars = new char[length + ENCODED_LENGTH];
+        prefix.getChars(0, length, chars, 0);
+        for (int i = chars.length - 1; i >= length; i--) {
+            chars[i] = ALPHABET[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public void close() {
+        if (highWaterMark != null) {
+            try {
+                highWaterMark.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to close id high-water mark", e);
+            }
+        }
+    }
+
+    private long elapsed() {
+        return clock.getAsLong() - EPOCH_MILLIS;
+    }
+
+    private synchronized void extendLease(long millis) {
+        if (millis < leasedUntil) {
+            return;
+        }
+        long lease = millis + LEASE_MILLIS;
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES).putLong(0, lease);
+            while (buffer.hasRemaining()) {
+                highWaterMark.write(buffer, buffer.position());
+            }
+            highWaterMark.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to persist id high-water mark", e);
+        }
+        leasedUntil = lease;
+    }
+
+    private long readHighWaterMark() {
+        try {
+            if (highWaterMark.size() < Long.BYTES) {
+                return 0;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+            while (buffer.hasRemaining()) {
+                if (highWaterMark.read(buffer, buffer.position()) < 0) {
+                    return 0;
+                }
+            }
+            return buffer.getLong(0);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read id high-water mark", e);
+        }
+    }
+
+    private static FileChannel openHighWaterMark(Path file) {
+        try {
+            Path parent = file.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open id high-water mark " + file, e);
+        }
+    }
+}
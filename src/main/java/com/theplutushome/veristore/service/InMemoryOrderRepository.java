@@ -0,0 +1,636 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Heap-resident {@link OrderRepository}, optionally made durable by an {@link OrderJournal}. With a
+ * {@link ColdOrderTier} attached, orders past the hot window leave the heap and are faulted back in
+ * on lookup; their index entries stay resident so history queries keep their ordering.
+ */
+final class InMemoryOrderRepository implements OrderRepository {
+
+    private static final Logger LOGGER = Logger.getLogger(InMemoryOrderRepository.class.getName());
+
+    private final Map<String, OrderStore.Order> ordersById = new ConcurrentHashMap<>();
+    private final Map<String, OrderStore.Invoice> invoicesByNo = new ConcurrentHashMap<>();
+    // Replaced, presized, by the first recovery pass; fixed once the repository is in use.
+    private Map<String, ContactOrders> ordersByEmail = new ConcurrentHashMap<>();
+    private Map<String, ContactOrders> ordersByMsisdn = new ConcurrentHashMap<>();
+    private final Set<String> pendingDeliveries = ConcurrentHashMap.newKeySet();
+    private OrderJournal journal;
+    private ScheduledExecutorService snapshotter;
+    private ColdOrderTier coldTier;
+    private ScheduledExecutorService tierer;
+    private IndexBuilder restoringByEmail;
+    private IndexBuilder restoringByMsisdn;
+
+    /**
+     * Attaches a cold tier and moves orders older than {@code hotWindow} into it every
+     * {@code intervalSeconds}. Must be called before {@link #openJournal} so replay can skip orders
+     * that were already tiered.
+     */
+    void openColdTier(Path directory, Duration hotWindow, int cacheSize, long intervalSeconds) {
+        if (journal != null) {
+            throw new IllegalStateException("Cold tier must be opened before the journal");
+        }
+        ColdOrderTier opened = new ColdOrderTier(directory, cacheSize);
+        beginRestore();
+        try {
+            opened.load(this::index);
+        } finally {
+            finishRestore();
+        }
+        coldTier = opened;
+        if (intervalSeconds > 0) {
+            tierer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "order-store-tiering");
+                thread.setDaemon(true);
+                return thread;
+            });
+            tierer.scheduleWithFixedDelay(() -> moveToColdTier(Instant.now().minus(hotWindow)),
+                    intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Moves every hot order created before {@code cutoff} into the cold tier. Orders are only dropped
+     * from the heap once their cold copy has been forced to disk.
+     */
+    int moveToColdTier(Instant cutoff) {
+        ColdOrderTier current = coldTier;
+        if (current == null) {
+            return 0;
+        }
+        List<OrderStore.Order> aged = ordersById.values().stream()
+                .filter(order -> order.getCreated().isBefore(cutoff))
+                .toList();
+        try {
+            current.append(aged);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Moving orders to the cold tier failed", e);
+            return 0;
+        }
+        for (OrderStore.Order order : aged) {
+            ordersById.remove(order.getId(), order);
+        }
+        if (!aged.isEmpty()) {
+            LOGGER.log(Level.INFO, "Moved {0} orders to the cold tier", aged.size());
+        }
+        return aged.size();
+    }
+
+    void openJournal(Path directory, int segmentBytes, long snapshotIntervalSeconds) {
+        OrderJournal opened = OrderJournal.open(directory, segmentBytes);
+        beginRestore();
+        try {
+            opened.recover(this);
+        } finally {
+            finishRestore();
+        }
+        journal = opened;
+        // Whoever was fulfilling these died with the previous process; let them be retried.
+        for (OrderStore.Invoice invoice : invoicesByNo.values()) {
+            if (invoice.getStatus() == InvoiceStatus.FULFILLING
+                    && transition(invoice.getInvoiceNo(), InvoiceStatus.FULFILLING, InvoiceStatus.FAILED)) {
+                LOGGER.log(Level.WARNING, "Invoice {0} was interrupted mid-fulfillment and is now FAILED", invoice.getInvoiceNo());
+            }
+        }
+        LOGGER.log(Level.INFO, () -> String.format("Order store journal opened in %s with %d invoices and %d orders",
+                directory, invoicesByNo.size(), ordersById.size()));
+        if (snapshotIntervalSeconds > 0) {
+            snapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "order-store-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotter.scheduleWithFixedDelay(this::snapshot, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    void snapshot() {
+        OrderJournal current = journal;
+        if (current == null || !current.hasChangesSinceSnapshot()) {
+            return;
+        }
+        try {
+            current.snapshot(invoicesByNo.values(), ordersById.values(), pendingDeliveries);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Order store snapshot failed", e);
+        }
+    }
+
+    void closeWithoutSnapshot() {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+        }
+        if (journal != null) {
+            journal.close();
+            journal = null;
+        }
+        closeColdTier();
+    }
+
+    @Override
+    public void close() {
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+        }
+        if (journal != null) {
+            snapshot();
+            journal.close();
+            journal = null;
+        }
+        closeColdTier();
+    }
+
+    private void closeColdTier() {
+        if (tierer != null) {
+            tierer.shutdownNow();
+        }
+        if (coldTier != null) {
+            coldTier.close();
+            coldTier = null;
+        }
+    }
+
+    @Override
+    public void saveInvoice(OrderStore.Invoice invoice) {
+        persist(() -> {
+            if (invoicesByNo.putIfAbsent(invoice.getInvoiceNo(), invoice) != null) {
+                throw new IllegalArgumentException("Invoice already exists: " + invoice.getInvoiceNo());
+            }
+        }, () -> OrderJournal.invoiceCreated(invoice));
+    }
+
+    @Override
+    public void saveOrder(OrderStore.Order order) {
+        persist(() -> restoreOrder(order), () -> OrderJournal.orderCreated(order));
+    }
+
+    @Override
+    public Optional<OrderStore.Invoice> findInvoice(String invoiceNo) {
+        return Optional.ofNullable(invoicesByNo.get(invoiceNo));
+    }
+
+    @Override
+    public List<OrderStore.Invoice> findInvoicesByStatus(InvoiceStatus status) {
+        return invoicesByNo.values().stream()
+                .filter(invoice -> invoice.getStatus() == status)
+                .toList();
+    }
+
+    @Override
+    public boolean evictInvoice(String invoiceNo) {
+        OrderStore.Invoice invoice = invoicesByNo.get(invoiceNo);
+        if (invoice == null || invoice.getStatus() != InvoiceStatus.CANCELLED) {
+            return false;
+        }
+        return persistIf(() -> invoice.getStatus() == InvoiceStatus.CANCELLED && invoicesByNo.remove(invoiceNo, invoice),
+                () -> OrderJournal.invoiceEvicted(invoiceNo));
+    }
+
+    @Override
+    public Optional<OrderStore.Order> findOrder(String orderId) {
+        OrderStore.Order order = ordersById.get(orderId);
+        if (order != null) {
+            return Optional.of(order);
+        }
+        ColdOrderTier current = coldTier;
+        return current == null ? Optional.empty() : current.find(orderId);
+    }
+
+    @Override
+    public List<OrderStore.Order> findOrdersByContact(String emailKey, String msisdnKey, OrderCursor after, int limit) {
+        Iterator<IndexEntry> emails = lookup(ordersByEmail, emailKey).page(after);
+        Iterator<IndexEntry> msisdns = lookup(ordersByMsisdn, msisdnKey).page(after);
+        IndexEntry email = next(emails);
+        IndexEntry msisdn = next(msisdns);
+        List<OrderStore.Order> matches = new ArrayList<>(Math.min(limit, 16));
+        // Both index sets are newest-first, so a merge walk keeps the combined result ordered.
+        while (matches.size() < limit && (email != null || msisdn != null)) {
+            IndexEntry entry;
+            if (msisdn == null || (email != null && IndexEntry.NEWEST_FIRST.compare(email, msisdn) <= 0)) {
+                entry = email;
+                email = next(emails);
+                if (entry.equals(msisdn)) {
+                    msisdn = next(msisdns);
+                }
+            } else {
+                entry = msisdn;
+                msisdn = next(msisdns);
+            }
+            findOrder(entry.orderId()).ifPresent(matches::add);
+        }
+        return List.copyOf(matches);
+    }
+
+    @Override
+    public int countOrdersByContact(String emailKey, String msisdnKey) {
+        ContactOrders byEmail = lookup(ordersByEmail, emailKey);
+        ContactOrders byMsisdn = lookup(ordersByMsisdn, msisdnKey);
+        int emailCount = byEmail.size();
+        int msisdnCount = byMsisdn.size();
+        ContactOrders smaller = emailCount <= msisdnCount ? byEmail : byMsisdn;
+        ContactOrders larger = smaller == byEmail ? byMsisdn : byEmail;
+        int shared = 0;
+        for (Iterator<IndexEntry> entries = smaller.page(null); entries.hasNext(); ) {
+            if (larger.contains(entries.next())) {
+                shared++;
+            }
+        }
+        return emailCount + msisdnCount - shared;
+    }
+
+    @Override
+    public boolean transition(String invoiceNo, InvoiceStatus expected, InvoiceStatus next) {
+        if (!expected.canMoveTo(next)) {
+            throw new IllegalArgumentException("Invoice cannot move from " + expected + " to " + next);
+        }
+        OrderStore.Invoice invoice = invoicesByNo.get(invoiceNo);
+        if (invoice == null) {
+            return false;
+        }
+        return persistIf(() -> invoice.compareAndSetStatus(expected, next),
+                () -> OrderJournal.invoiceStatus(invoiceNo, next));
+    }
+
+    @Override
+    public boolean markPaid(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes) {
+        OrderStore.Invoice invoice = invoicesByNo.get(invoiceNo);
+        if (invoice == null || invoice.getStatus() != InvoiceStatus.FULFILLING) {
+            return false;
+        }
+        // Codes are written only by the caller whose compare-and-set won, never over another's.
+        return persistIf(() -> {
+            if (!invoice.compareAndSetStatus(InvoiceStatus.FULFILLING, InvoiceStatus.PAID)) {
+                return false;
+            }
+            invoice.setDeliveredCodes(deliveredCodes);
+            return true;
+        }, () -> OrderJournal.invoicePaid(invoiceNo, deliveredCodes));
+    }
+
+    @Override
+    public boolean settle(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes, OrderStore.Order order) {
+        OrderStore.Invoice invoice = invoicesByNo.get(invoiceNo);
+        if (invoice == null || invoice.getStatus() != InvoiceStatus.FULFILLING) {
+            return false;
+        }
+        // One journal record covers the payment, the order and its outbox entry.
+        return persistIf(() -> {
+            if (!invoice.compareAndSetStatus(InvoiceStatus.FULFILLING, InvoiceStatus.PAID)) {
+                return false;
+            }
+            invoice.setDeliveredCodes(deliveredCodes);
+            restoreOrder(order);
+            pendingDeliveries.add(order.getId());
+            return true;
+        }, () -> OrderJournal.invoiceSettled(invoiceNo, deliveredCodes, order));
+    }
+
+    @Override
+    public List<String> findPendingDeliveries() {
+        return pendingDeliveries.stream()
+                .map(this::findOrder)
+                .flatMap(Optional::stream)
+                .sorted(Comparator.comparing(OrderStore.Order::getCreated))
+                .map(OrderStore.Order::getId)
+                .toList();
+    }
+
+    @Override
+    public void markDelivered(String orderId) {
+        persistIf(() -> pendingDeliveries.remove(orderId), () -> OrderJournal.orderDelivered(orderId));
+    }
+
+    void restorePendingDelivery(String orderId) {
+        pendingDeliveries.add(orderId);
+    }
+
+    void restoreDelivered(String orderId) {
+        pendingDeliveries.remove(orderId);
+    }
+
+    void restoreInvoice(OrderStore.Invoice invoice) {
+        invoicesByNo.put(invoice.getInvoiceNo(), invoice);
+    }
+
+    void restoreOrder(OrderStore.Order order) {
+        ColdOrderTier current = coldTier;
+        if (current != null && current.contains(order.getId())) {
+            return;
+        }
+        if (ordersById.put(order.getId(), order) == null) {
+            index(order.getId(), order.getCreated(),
+                    OrderStore.normalize(order.getContact().email()), OrderStore.normalize(order.getContact().msisdn()));
+        }
+    }
+
+    void restorePaid(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes) {
+        OrderStore.Invoice invoice = invoicesByNo.get(invoiceNo);
+        if (invoice != null) {
+            applyPaid(invoice, deliveredCodes);
+        }
+    }
+
+    void restoreEvicted(String invoiceNo) {
+        invoicesByNo.remove(invoiceNo);
+    }
+
+    void restoreStatus(String invoiceNo, InvoiceStatus status) {
+        OrderStore.Invoice invoice = invoicesByNo.get(invoiceNo);
+        if (invoice != null) {
+            invoice.setStatus(status);
+        }
+    }
+
+    private void applyPaid(OrderStore.Invoice invoice, Map<ProductKey, List<String>> deliveredCodes) {
+        invoice.setStatus(InvoiceStatus.PAID);
+        invoice.setDeliveredCodes(deliveredCodes);
+    }
+
+    private void persist(Runnable mutation, Supplier<byte[]> record) {
+        OrderJournal current = journal;
+        if (current == null) {
+            mutation.run();
+            return;
+        }
+        current.sync(current.apply(mutation, record));
+    }
+
+    private boolean persistIf(BooleanSupplier mutation, Supplier<byte[]> record) {
+        OrderJournal current = journal;
+        if (current == null) {
+            return mutation.getAsBoolean();
+        }
+        long position = current.applyIf(mutation, record);
+        if (position < 0) {
+            return false;
+        }
+        current.sync(position);
+        return true;
+    }
+
+    private void index(String orderId, Instant created, String emailKey, String msisdnKey) {
+        IndexEntry entry = new IndexEntry(created, orderId);
+        if (restoringByEmail != null) {
+            restoringByEmail.add(emailKey, entry);
+            restoringByMsisdn.add(msisdnKey, entry);
+        } else {
+            addToIndex(ordersByEmail, emailKey, entry);
+            addToIndex(ordersByMsisdn, msisdnKey, entry);
+        }
+    }
+
+    private void addToIndex(Map<String, ContactOrders> index, String key, IndexEntry entry) {
+        if (key.isEmpty()) {
+            return;
+        }
+        index.computeIfAbsent(key, k -> new ContactOrders()).add(entry);
+    }
+
+    /**
+     * Recovery appends to an {@link IndexBuilder} instead of inserting order by order; {@link #finishRestore}
+     * groups and sorts the lot once and publishes one array per contact.
+     */
+    private void beginRestore() {
+        restoringByEmail = new IndexBuilder();
+        restoringByMsisdn = new IndexBuilder();
+    }
+
+    private void finishRestore() {
+        ordersByEmail = restoringByEmail.publish(ordersByEmail);
+        ordersByMsisdn = restoringByMsisdn.publish(ordersByMsisdn);
+        restoringByEmail = null;
+        restoringByMsisdn = null;
+    }
+
+    private static ContactOrders lookup(Map<String, ContactOrders> index, String key) {
+        if (key == null || key.isEmpty()) {
+            return ContactOrders.NONE;
+        }
+        return index.getOrDefault(key, ContactOrders.NONE);
+    }
+
+    private static IndexEntry next(Iterator<IndexEntry> entries) {
+        return entries.hasNext() ? entries.next() : null;
+    }
+
+    private record IndexEntry(Instant created, String orderId) {
+
+        static final Comparator<IndexEntry> NEWEST_FIRST = (a, b) -> {
+            int byCreated = b.created.compareTo(a.created);
+            return byCreated != 0 ? byCreated : b.orderId.compareTo(a.orderId);
+        };
+    }
+
+    /**
+     * One contact's orders, newest first. A short history is a copy-on-write array; past
+     * {@link #ARRAY_LIMIT} entries it moves to a skip list so an insert never copies a long history.
+     */
+    private static final class ContactOrders {
+
+        private static final int ARRAY_LIMIT = 32;
+        private static final IndexEntry[] EMPTY = new IndexEntry[0];
+        static final ContactOrders NONE = new ContactOrders();
+
+        private volatile IndexEntry[] entries = EMPTY;
+        private volatile NavigableSet<IndexEntry> large;
+
+        synchronized void add(IndexEntry entry) {
+            NavigableSet<IndexEntry> set = large;
+            if (set != null) {
+                set.add(entry);
+                return;
+            }
+            IndexEntry[] current = entries;
+            int at = Arrays.binarySearch(current, entry, IndexEntry.NEWEST_FIRST);
+            if (at >= 0) {
+                return;
+            }
+            at = -at - 1;
+            if (current.length >= ARRAY_LIMIT) {
+                set = new ConcurrentSkipListSet<>(IndexEntry.NEWEST_FIRST);
+                Collections.addAll(set, current);
+                set.add(entry);
+                large = set;
+                return;
+            }
+            IndexEntry[] grown = new IndexEntry[current.length + 1];
+            System.arraycopy(current, 0, grown, 0, at);
+            grown[at] = entry;
+            System.arraycopy(current, at, grown, at + 1, current.length - at);
+            entries = grown;
+        }
+
+        static ContactOrders of(IndexEntry[] newestFirst) {
+            ContactOrders orders = new ContactOrders();
+            orders.publish(newestFirst);
+            return orders;
+        }
+
+        /** Folds in a batch recovered after this contact was already indexed, such as the journal after the cold tier. */
+        synchronized void addAll(IndexEntry[] newestFirst) {
+            NavigableSet<IndexEntry> set = large;
+            if (set != null) {
+                Collections.addAll(set, newestFirst);
+                return;
+            }
+            IndexEntry[] current = entries;
+            IndexEntry[] merged = Arrays.copyOf(current, current.length + newestFirst.length);
+            System.arraycopy(newestFirst, 0, merged, current.length, newestFirst.length);
+            publish(sortedDistinct(merged, merged.length));
+        }
+
+        private void publish(IndexEntry[] newestFirst) {
+            if (newestFirst.length > ARRAY_LIMIT) {
+                NavigableSet<IndexEntry> set = new ConcurrentSkipListSet<>(IndexEntry.NEWEST_FIRST);
+                Collections.addAll(set, newestFirst);
+                large = set;
+            } else {
+                entries = newestFirst;
+            }
+        }
+
+        int size() {
+            NavigableSet<IndexEntry> set = large;
+            return set != null ? set.size() : entries.length;
+        }
+
+        boolean contains(IndexEntry entry) {
+            NavigableSet<IndexEntry> set = large;
+            return set != null ? set.contains(entry) : Arrays.binarySearch(entries, entry, IndexEntry.NEWEST_FIRST) >= 0;
+        }
+
+        /** Entries strictly older than {@code after}, or all of them when it is null. */
+        Iterator<IndexEntry> page(OrderCursor after) {
+            IndexEntry from = after == null ? null : new IndexEntry(after.created(), after.orderId());
+            NavigableSet<IndexEntry> set = large;
+            if (set != null) {
+                return (from == null ? set : set.tailSet(from, false)).iterator();
+            }
+            IndexEntry[] current = entries;
+            int start = 0;
+            if (from != null) {
+                int at = Arrays.binarySearch(current, from, IndexEntry.NEWEST_FIRST);
+                start = at >= 0 ? at + 1 : -at - 1;
+            }
+            return Arrays.asList(current).subList(start, current.length).iterator();
+        }
+    }
+
+    /** Sorts newest-first and drops repeats; the cold tier can list an order twice after a retried move. */
+    private static IndexEntry[] sortedDistinct(IndexEntry[] entries, int count) {
+        Arrays.sort(entries, 0, count, IndexEntry.NEWEST_FIRST);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || IndexEntry.NEWEST_FIRST.compare(entries[distinct - 1], entries[i]) != 0) {
+                entries[distinct++] = entries[i];
+            }
+        }
+        return distinct == entries.length ? entries : Arrays.copyOf(entries, distinct);
+    }
+
+    /**
+     * One index field collected during recovery. Appends are sequential, with no map lookup per order;
+     * {@link #publish} sorts (key hash, replay position) pairs once, so each contact's entries end up
+     * adjacent and only one map write per contact remains.
+     */
+    private static final class IndexBuilder {
+
+        private long[] slots = new long[1024];
+        private String[] keys = new String[1024];
+        private IndexEntry[] entries = new IndexEntry[1024];
+        private int size;
+
+        void add(String key, IndexEntry entry) {
+            if (key.isEmpty()) {
+                return;
+            }
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            slots[size] = (long) key.hashCode() << 32 | size;
+            keys[size] = key;
+            entries[size] = entry;
+            size++;
+        }
+
+        /** Returns {@code index} with the collected entries folded in, or a presized replacement if it was empty. */
+        Map<String, ContactOrders> publish(Map<String, ContactOrders> index) {
+            Arrays.sort(slots, 0, size);
+            boolean merging = !index.isEmpty();
+            if (!merging) {
+                int hashes = size == 0 ? 0 : 1;
+                for (int i = 1; i < size; i++) {
+                    if (slots[i] >>> 32 != slots[i - 1] >>> 32) {
+                        hashes++;
+                    }
+                }
+                index = new ConcurrentHashMap<>(hashes);
+            }
+            IndexEntry[] group = new IndexEntry[16];
+            int start = 0;
+            while (start < size) {
+                int end = start + 1;
+                while (end < size && slots[end] >>> 32 == slots[start] >>> 32) {
+                    end++;
+                }
+                // Usually one contact per hash; a collision is split by key, as each key claims its own.
+                for (int i = start; i < end; i++) {
+                    String key = keys[(int) slots[i]];
+                    if (key == null) {
+                        continue;
+                    }
+                    // Walked backwards: replay order is oldest first, so the group comes out already sorted.
+                    int count = 0;
+                    for (int j = end - 1; j >= i; j--) {
+                        int at = (int) slots[j];
+                        if (keys[at] != null && (j == i || key.equals(keys[at]))) {
+                            if (count == group.length) {
+                                group = Arrays.copyOf(group, count * 2);
+                            }
+                            group[count++] = entries[at];
+                            keys[at] = null;
+                        }
+                    }
+                    IndexEntry[] newestFirst = sortedDistinct(Arrays.copyOf(group, count), count);
+                    ContactOrders existing = merging ? index.get(key) : null;
+                    if (existing != null) {
+                        existing.addAll(newestFirst);
+                    } else {
+                        index.put(key, ContactOrders.of(newestFirst));
+                    }
+                }
+                start = end;
+            }
+            return index;
+        }
+    }
+}
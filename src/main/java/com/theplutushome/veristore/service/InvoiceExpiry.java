@@ -0,0 +1,122 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.util.HashedWheelTimer;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cancels invoices still PENDING or FAILED after the TTL and evicts them once the grace period has
+ * passed. Within the grace period a late payment callback may {@link #reinstate} an expired invoice.
+ * An invoice being fulfilled when its TTL passes is left alone; if it then fails it is tracked again.
+ */
+final class InvoiceExpiry implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(InvoiceExpiry.class.getName());
+
+    private final OrderRepository repository;
+    private final HashedWheelTimer timer;
+    private final Duration ttl;
+    private final Duration grace;
+    private final Consumer<String> onExpired;
+    private final Map<String, HashedWheelTimer.Timeout> expiries = new ConcurrentHashMap<>();
+    private final Map<String, HashedWheelTimer.Timeout> evictions = new ConcurrentHashMap<>();
+
+    InvoiceExpiry(OrderRepository repository, HashedWheelTimer timer, Duration ttl, Duration grace,
+                  Consumer<String> onExpired) {
+        this.repository = repository;
+        this.timer = timer;
+        this.ttl = ttl;
+        this.grace = grace;
+        this.onExpired = onExpired;
+    }
+
+    /**
+     * Re-arms timers for invoices that survived a restart. Cancelled invoices are evicted after the
+     * grace period but cannot be reinstated, since it is no longer known whether they expired.
+     */
+    void resume() {
+        repository.findInvoicesByStatus(InvoiceStatus.PENDING).forEach(this::track);
+        repository.findInvoicesByStatus(InvoiceStatus.FAILED).forEach(this::track);
+        for (OrderStore.Invoice invoice : repository.findInvoicesByStatus(InvoiceStatus.CANCELLED)) {
+            String invoiceNo = invoice.getInvoiceNo();
+            timer.schedule(() -> repository.evictInvoice(invoiceNo), grace.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void track(OrderStore.Invoice invoice) {
+        String invoiceNo = invoice.getInvoiceNo();
+        long delay = Duration.between(Instant.now(), invoice.getCreated().plus(ttl)).toMillis();
+        HashedWheelTimer.Timeout previous = expiries.put(invoiceNo,
+                timer.schedule(() -> expire(invoiceNo), delay, TimeUnit.MILLISECONDS));
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    void settled(String invoiceNo) {
+        HashedWheelTimer.Timeout timeout = expiries.remove(invoiceNo);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * Moves an invoice this sweeper expired back to PENDING if it is still inside its grace period.
+     */
+    boolean reinstate(String invoiceNo) {
+        HashedWheelTimer.Timeout eviction = evictions.remove(invoiceNo);
+        if (eviction == null || !eviction.cancel()) {
+            return false;
+        }
+        if (!repository.transition(invoiceNo, InvoiceStatus.CANCELLED, InvoiceStatus.PENDING)) {
+            return false;
+        }
+        LOGGER.log(Level.INFO, "Reinstated expired invoice {0} for a late payment", invoiceNo);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        timer.close();
+    }
+
+    private void expire(String invoiceNo) {
+        expiries.remove(invoiceNo);
+        // Registered before the transition, so a late payment that sees CANCELLED always finds it.
+        HashedWheelTimer.Timeout eviction = scheduleEviction(invoiceNo);
+        if (!repository.transition(invoiceNo, InvoiceStatus.PENDING, InvoiceStatus.CANCELLED)
+                && !repository.transition(invoiceNo, InvoiceStatus.FAILED, InvoiceStatus.CANCELLED)) {
+            if (evictions.remove(invoiceNo, eviction)) {
+                eviction.cancel();
+            }
+            return;
+        }
+        if (evictions.get(invoiceNo) != eviction) {
+            // A reinstate took it before the transition and found nothing to reinstate; evicting an
+            // invoice that has since been reinstated is a no-op.
+            scheduleEviction(invoiceNo);
+        }
+        LOGGER.log(Level.FINE, "Expired unpaid or failed invoice {0}", invoiceNo);
+        onExpired.accept(invoiceNo);
+    }
+
+    private HashedWheelTimer.Timeout scheduleEviction(String invoiceNo) {
+        HashedWheelTimer.Timeout eviction = timer.schedule(() -> evict(invoiceNo), grace.toMillis(), TimeUnit.MILLISECONDS);
+        evictions.put(invoiceNo, eviction);
+        return eviction;
+    }
+
+    private void evict(String invoiceNo) {
+        evictions.remove(invoiceNo);
+        repository.evictInvoice(invoiceNo);
+    }
+}
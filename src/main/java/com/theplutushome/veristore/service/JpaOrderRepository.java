@@ -0,0 +1,378 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.Contact;
+import com.theplutushome.veristore.model.DeliveryPrefs;
+import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+import com.theplutushome.veristore.model.entity.InvoiceEntity;
+import com.theplutushome.veristore.model.entity.InvoiceLineEntity;
+import com.theplutushome.veristore.model.entity.OrderEntity;
+import com.theplutushome.veristore.model.entity.OrderLineEntity;
+import com.theplutushome.veristore.model.entity.PendingDeliveryEntity;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.EntityTransaction;
+import jakarta.persistence.PersistenceUnit;
+import jakarta.persistence.TypedQuery;
+import jakarta.transaction.Transactional;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * {@link OrderRepository} on the {@code veristorePU} persistence unit, so several application nodes
+ * can share one database. Inside the container it joins the JTA transaction opened by
+ * {@link Transactional}; the package-private constructor runs it against a resource-local unit.
+ */
+@ApplicationScoped
+@Transactional
+public class JpaOrderRepository implements OrderRepository, Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final String CODE_SEPARATOR = "\n";
+
+    @PersistenceUnit(unitName = "veristorePU")
+    private EntityManagerFactory entityManagerFactory;
+
+    private boolean resourceLocal;
+
+    public JpaOrderRepository() {
+    }
+
+    JpaOrderRepository(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = Objects.requireNonNull(entityManagerFactory, "entityManagerFactory");
+        this.resourceLocal = true;
+    }
+
+    @Override
+    public void saveInvoice(OrderStore.Invoice invoice) {
+        inTransaction(em -> {
+            if (em.find(InvoiceEntity.class, invoice.getInvoiceNo()) != null) {
+                throw new IllegalArgumentException("Invoice already exists: " + invoice.getInvoiceNo());
+            }
+            em.persist(toEntity(invoice));
+            return null;
+        });
+    }
+
+    @Override
+    public void saveOrder(OrderStore.Order order) {
+        inTransaction(em -> {
+            em.persist(toEntity(order));
+            return null;
+        });
+    }
+
+    @Override
+    public Optional<OrderStore.Invoice> findInvoice(String invoiceNo) {
+        return inTransaction(em -> Optional.ofNullable(em.find(InvoiceEntity.class, invoiceNo)).map(this::toInvoice));
+    }
+
+    @Override
+    public List<OrderStore.Invoice> findInvoicesByStatus(InvoiceStatus status) {
+        return inTransaction(em -> em.createQuery("select i from InvoiceEntity i where i.status = :status", InvoiceEntity.class)
+                .setParameter("status", status)
+                .getResultStream()
+                .map(this::toInvoice)
+                .toList());
+    }
+
+    @Override
+    public Optional<OrderStore.Order> findOrder(String orderId) {
+        return inTransaction(em -> em.createQuery(
+                        "select distinct o from OrderEntity o left join fetch o.lines where o.id = :id", OrderEntity.class)
+                .setParameter("id", orderId)
+                .getResultStream()
+                .findFirst()
+                .map(this::toOrder));
+    }
+
+    @Override
+    public List<OrderStore.Order> findOrdersByContact(String emailKey, String msisdnKey, OrderCursor after, int limit) {
+        String filter = contactFilter(emailKey, msisdnKey);
+        if (filter == null) {
+            return List.of();
+        }
+        String page = after == null ? "" : " and (o.createdNanos < :afterNanos or (o.createdNanos = :afterNanos and o.id < :afterId))";
+        return inTransaction(em -> {
+            // Page over ids first: limiting a fetch join would make the provider paginate in memory.
+            TypedQuery<String> ids = em.createQuery(
+                    "select o.id from OrderEntity o where (" + filter + ")" + page
+                    + " order by o.createdNanos desc, o.id desc", String.class);
+            bindContact(ids, emailKey, msisdnKey);
+            if (after != null) {
+                ids.setParameter("afterNanos", toNanos(after.created()));
+                ids.setParameter("afterId", after.orderId());
+            }
+            List<String> pageIds = ids.setMaxResults(limit).getResultList();
+            if (pageIds.isEmpty()) {
+                return List.<OrderStore.Order>of();
+            }
+            Map<String, OrderEntity> byId = new HashMap<>();
+            em.createQuery("select distinct o from OrderEntity o left join fetch o.lines where o.id in :ids", OrderEntity.class)
+                    .setParameter("ids", pageIds)
+                    .getResultStream()
+                    .forEach(entity -> byId.put(entity.getId(), entity));
+            List<OrderStore.Order> orders = new ArrayList<>(pageIds.size());
+            for (String id : pageIds) {
+                OrderEntity entity = byId.get(id);
+                if (entity != null) {
+                    orders.add(toOrder(entity));
+                }
+            }
+            return orders;
+        });
+    }
+
+    @Override
+    public int countOrdersByContact(String emailKey, String msisdnKey) {
+        String filter = contactFilter(emailKey, msisdnKey);
+        if (filter == null) {
+            return 0;
+        }
+        return inTransaction(em -> {
+            TypedQuery<Long> query = em.createQuery("select count(o) from OrderEntity o where " + filter, Long.class);
+            bindContact(query, emailKey, msisdnKey);
+            return Math.toIntExact(query.getSingleResult());
+        });
+    }
+
+    @Override
+    public boolean transition(String invoiceNo, InvoiceStatus expected, InvoiceStatus next) {
+        if (!expected.canMoveTo(next)) {
+            throw new IllegalArgumentException("Invoice cannot move from " + expected + " to " + next);
+        }
+        return inTransaction(em -> compareAndSetStatus(em, invoiceNo, expected, next));
+    }
+
+    @Override
+    public boolean markPaid(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes) {
+        return inTransaction(em -> {
+            if (!compareAndSetStatus(em, invoiceNo, InvoiceStatus.FULFILLING, InvoiceStatus.PAID)) {
+                return false;
+            }
+            em.createQuery("select l from InvoiceLineEntity l where l.invoice.invoiceNo = :invoiceNo", InvoiceLineEntity.class)
+                    .setParameter("invoiceNo", invoiceNo)
+                    .getResultStream()
+                    .forEach(line -> line.setDeliveredCodes(joinCodes(
+                            deliveredCodes.getOrDefault(new ProductKey(line.getFamily(), line.getSku()), List.of()))));
+            return true;
+        });
+    }
+
+    @Override
+    public boolean settle(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes, OrderStore.Order order) {
+        return inTransaction(em -> {
+            if (!compareAndSetStatus(em, invoiceNo, InvoiceStatus.FULFILLING, InvoiceStatus.PAID)) {
+                return false;
+            }
+            em.createQuery("select l from InvoiceLineEntity l where l.invoice.invoiceNo = :invoiceNo", InvoiceLineEntity.class)
+                    .setParameter("invoiceNo", invoiceNo)
+                    .getResultStream()
+                    .forEach(line -> line.setDeliveredCodes(joinCodes(
+                            deliveredCodes.getOrDefault(new ProductKey(line.getFamily(), line.getSku()), List.of()))));
+            em.persist(toEntity(order));
+            PendingDeliveryEntity pending = new PendingDeliveryEntity();
+            pending.setOrderId(order.getId());
+            pending.setCreatedNanos(toNanos(order.getCreated()));
+            em.persist(pending);
+            return true;
+        });
+    }
+
+    @Override
+    public List<String> findPendingDeliveries() {
+        return inTransaction(em -> em.createQuery(
+                        "select p.orderId from PendingDeliveryEntity p order by p.createdNanos", String.class)
+                .getResultList());
+    }
+
+    @Override
+    public void markDelivered(String orderId) {
+        inTransaction(em -> em.createQuery("delete from PendingDeliveryEntity p where p.orderId = :orderId")
+                .setParameter("orderId", orderId)
+                .executeUpdate());
+    }
+
+    // A conditional UPDATE is the database's compare-and-set: no row lock is held beyond the statement,
+    // and a losing caller sees zero rows updated instead of waiting on a pessimistic lock.
+    private static boolean compareAndSetStatus(EntityManager em, String invoiceNo, InvoiceStatus expected, InvoiceStatus next) {
+        return em.createQuery("update InvoiceEntity i set i.status = :next, i.version = i.version + 1"
+                        + " where i.invoiceNo = :invoiceNo and i.status = :expected")
+                .setParameter("next", next)
+                .setParameter("invoiceNo", invoiceNo)
+                .setParameter("expected", expected)
+                .executeUpdate() == 1;
+    }
+
+    private static String contactFilter(String emailKey, String msisdnKey) {
+        boolean byEmail = emailKey != null && !emailKey.isEmpty();
+        boolean byMsisdn = msisdnKey != null && !msisdnKey.isEmpty();
+        if (!byEmail && !byMsisdn) {
+            return null;
+        }
+        return byEmail && byMsisdn
+                ? "o.emailKey = :emailKey or o.msisdnKey = :msisdnKey"
+                : byEmail ? "o.emailKey = :emailKey" : "o.msisdnKey = :msisdnKey";
+    }
+
+    private static void bindContact(TypedQuery<?> query, String emailKey, String msisdnKey) {
+        if (emailKey != null && !emailKey.isEmpty()) {
+            query.setParameter("emailKey", emailKey);
+        }
+        if (msisdnKey != null && !msisdnKey.isEmpty()) {
+            query.setParameter("msisdnKey", msisdnKey);
+        }
+    }
+
+    private <T> T inTransaction(Function<EntityManager, T> work) {
+        EntityManager em = entityManagerFactory.createEntityManager();
+        try {
+            if (!resourceLocal) {
+                em.joinTransaction();
+                T result = work.apply(em);
+                em.flush();
+                return result;
+            }
+            EntityTransaction transaction = em.getTransaction();
+            transaction.begin();
+            try {
+                T result = work.apply(em);
+                transaction.commit();
+                return result;
+            } catch (RuntimeException e) {
+                if (transaction.isActive()) {
+                    transaction.rollback();
+                }
+                throw e;
+            }
+        } finally {
+            em.close();
+        }
+    }
+
+    private InvoiceEntity toEntity(OrderStore.Invoice invoice) {
+        InvoiceEntity entity = new InvoiceEntity();
+        entity.setInvoiceNo(invoice.getInvoiceNo());
+        entity.setEmail(invoice.getContact().email());
+        entity.setMsisdn(invoice.getContact().msisdn());
+        entity.setEmailKey(OrderStore.normalize(invoice.getContact().email()));
+        entity.setMsisdnKey(OrderStore.normalize(invoice.getContact().msisdn()));
+        entity.setDeliverByEmail(invoice.getDeliveryPrefs().byEmail());
+        entity.setDeliverBySms(invoice.getDeliveryPrefs().bySms());
+        entity.setTotalMinor(invoice.getTotalMinor());
+        entity.setCurrency(invoice.getCurrency());
+        entity.setStatus(invoice.getStatus());
+        entity.setCreatedNanos(toNanos(invoice.getCreated()));
+        entity.setCheckoutUrl(invoice.getCheckoutUrl());
+        for (OrderStore.InvoiceLine line : invoice.getLines()) {
+            InvoiceLineEntity lineEntity = new InvoiceLineEntity();
+            lineEntity.setFamily(line.getKey().family());
+            lineEntity.setSku(line.getKey().sku());
+            lineEntity.setQuantity(line.getQuantity());
+            lineEntity.setTotalMinor(line.getTotalMinor());
+            lineEntity.setCurrency(line.getCurrency());
+            lineEntity.setDeliveredCodes(joinCodes(line.getDeliveredCodes()));
+            entity.addLine(lineEntity);
+        }
+        return entity;
+    }
+
+    private OrderStore.Invoice toInvoice(InvoiceEntity entity) {
+        List<OrderStore.InvoiceLine> lines = new ArrayList<>(entity.getLines().size());
+        for (InvoiceLineEntity line : entity.getLines()) {
+            lines.add(new OrderStore.InvoiceLine(
+                    new ProductKey(line.getFamily(), line.getSku()),
+                    line.getQuantity(),
+                    line.getTotalMinor(),
+                    line.getCurrency(),
+                    splitCodes(line.getDeliveredCodes())));
+        }
+        return new OrderStore.Invoice(
+                entity.getInvoiceNo(),
+                new Contact(entity.getEmail(), entity.getMsisdn()),
+                new DeliveryPrefs(entity.isDeliverByEmail(), entity.isDeliverBySms()),
+                entity.getTotalMinor(),
+                entity.getCurrency(),
+                entity.getStatus(),
+                fromNanos(entity.getCreatedNanos()),
+                entity.getCheckoutUrl(),
+                lines);
+    }
+
+    private OrderEntity toEntity(OrderStore.Order order) {
+        OrderEntity entity = new OrderEntity();
+        entity.setId(order.getId());
+        entity.setEmail(order.getContact().email());
+        entity.setMsisdn(order.getContact().msisdn());
+        entity.setEmailKey(OrderStore.normalize(order.getContact().email()));
+        entity.setMsisdnKey(OrderStore.normalize(order.getContact().msisdn()));
+        entity.setDeliverByEmail(order.getDeliveryPrefs().byEmail());
+        entity.setDeliverBySms(order.getDeliveryPrefs().bySms());
+        entity.setTotalMinor(order.getTotalMinor());
+        entity.setCurrency(order.getCurrency());
+        entity.setCreatedNanos(toNanos(order.getCreated()));
+        for (OrderStore.OrderLine line : order.getLines()) {
+            OrderLineEntity lineEntity = new OrderLineEntity();
+            lineEntity.setFamily(line.getKey().family());
+            lineEntity.setSku(line.getKey().sku());
+            lineEntity.setQuantity(line.getQuantity());
+            lineEntity.setTotalMinor(line.getTotalMinor());
+            lineEntity.setCurrency(line.getCurrency());
+            lineEntity.setCodes(joinCodes(line.getCodes()));
+            entity.addLine(lineEntity);
+        }
+        return entity;
+    }
+
+    private OrderStore.Order toOrder(OrderEntity entity) {
+        List<OrderStore.OrderLine> lines = new ArrayList<>(entity.getLines().size());
+        for (OrderLineEntity line : entity.getLines()) {
+            lines.add(new OrderStore.OrderLine(
+                    new ProductKey(line.getFamily(), line.getSku()),
+                    line.getQuantity(),
+                    line.getTotalMinor(),
+                    line.getCurrency(),
+                    splitCodes(line.getCodes())));
+        }
+        return new OrderStore.Order(
+                entity.getId(),
+                new Contact(entity.getEmail(), entity.getMsisdn()),
+                new DeliveryPrefs(entity.isDeliverByEmail(), entity.isDeliverBySms()),
+                entity.getTotalMinor(),
+                entity.getCurrency(),
+                fromNanos(entity.getCreatedNanos()),
+                lines);
+    }
+
+    private static String joinCodes(List<String> codes) {
+        return String.join(CODE_SEPARATOR, codes);
+    }
+
+    private static List<String> splitCodes(String codes) {
+        if (codes == null || codes.isEmpty()) {
+            return List.of();
+        }
+        return List.of(codes.split(CODE_SEPARATOR));
+    }
+
+    private static long toNanos(Instant instant) {
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+    }
+
+    private static Instant fromNanos(long nanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), Math.floorMod(nanos, 1_000_000_000L));
+    }
+}
@@ -0,0 +1,94 @@
+package com.theplutushome.veristore.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded multi-producer/multi-consumer ring of fixed-length ASCII codes held in a direct buffer, so
+ * stock costs {@value #STRIDE} bytes per code outside the heap instead of a String per code inside it.
+ * Each slot is an 8-byte sequence word followed by the code bytes; the sequence tells producers and
+ * consumers whose turn the slot is (Vyukov's bounded queue). A polled slot is zeroed before it is
+ * handed back to producers.
+ */
+final class OffHeapPinRing {
+
+    static final int CODE_LENGTH = 14;
+    private static final int STRIDE = 24;
+    private static final VarHandle SEQUENCE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final byte[] BLANK = new byte[CODE_LENGTH];
+
+    private final ByteBuffer slots;
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong dequeued = new AtomicLong();
+
+    OffHeapPinRing(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1 || capacity > Integer.MAX_VALUE / STRIDE) {
+            throw new IllegalArgumentException("capacity must be a power of two of at most " + Integer.MAX_VALUE / STRIDE);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.slots = ByteBuffer.allocateDirect(capacity * STRIDE);
+        for (int i = 0; i < capacity; i++) {
+            SEQUENCE.setRelease(slots, i * STRIDE, (long) i);
+        }
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    boolean offer(String code) {
+        if (code.length() != CODE_LENGTH) {
+            throw new IllegalArgumentException("codes must be " + CODE_LENGTH + " characters");
+        }
+        long position = enqueued.get();
+        while (true) {
+            int offset = (int) (position & mask) * STRIDE;
+            long sequence = (long) SEQUENCE.getAcquire(slots, offset);
+            long difference = sequence - position;
+            if (difference == 0) {
+                if (enqueued.compareAndSet(position, position + 1)) {
+                    for (int i = 0; i < CODE_LENGTH; i++) {
+                        slots.put(offset + 8 + i, (byte) code.charAt(i));
+                    }
+                    SEQUENCE.setRelease(slots, offset, position + 1);
+                    return true;
+                }
+                position = enqueued.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = enqueued.get();
+            }
+        }
+    }
+
+    String poll() {
+        long position = dequeued.get();
+        while (true) {
+            int offset = (int) (position & mask) * STRIDE;
+            long sequence = (long) SEQUENCE.getAcquire(slots, offset);
+            long difference = sequence - (position + 1);
+            if (difference == 0) {
+                if (dequeued.compareAndSet(position, position + 1)) {
+                    byte[] code = new byte[CODE_LENGTH];
+                    slots.get(offset + 8, code);
+                    slots.put(offset + 8, BLANK);
+                    SEQUENCE.setRelease(slots, offset, position + capacity);
+                    return new String(code, StandardCharsets.US_ASCII);
+                }
+                position = dequeued.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = dequeued.get();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.theplutushome.veristore.service;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Position in a newest-first order history: the {@code (created, id)} of the last order already seen.
+ * The continuation token handed to clients is this pair, URL-safe encoded.
+ */
+public record OrderCursor(Instant created, String orderId) implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    public OrderCursor {
+        Objects.requireNonNull(created, "created");
+        Objects.requireNonNull(orderId, "orderId");
+    }
+
+    public static OrderCursor after(OrderStore.Order order) {
+        return new OrderCursor(order.getCreated(), order.getId());
+    }
+
+    public String token() {
+        String raw = created.getEpochSecond() + "." + created.getNano() + "." + orderId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static OrderCursor parse(String token) {
+        Objects.requireNonNull(token, "token");
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int firstDot = raw.indexOf('.');
+            int secondDot = raw.indexOf('.', firstDot + 1);
+            if (firstDot < 0 || secondDot < 0) {
+                throw new IllegalArgumentException("Malformed order cursor");
+            }
+            Instant created = Instant.ofEpochSecond(Long.parseLong(raw.substring(0, firstDot)),
+                    Long.parseLong(raw.substring(firstDot + 1, secondDot)));
+            return new OrderCursor(created, raw.substring(secondDot + 1));
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new IllegalArgumentException("Malformed order cursor", e);
+        }
+    }
+}
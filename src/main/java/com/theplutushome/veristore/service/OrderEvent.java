@@ -0,0 +1,26 @@
+package com.theplutushome.veristore.service;
+
+import java.time.Instant;
+
+/**
+ * Change published by {@link OrderStore#events()}. Sequences are gap-free and increase in publish
+ * order; the payload is only the reference, so subscribers look details up in the store.
+ */
+public sealed interface OrderEvent {
+
+    long sequence();
+
+    Instant at();
+
+    record InvoiceCreated(long sequence, Instant at, String invoiceNo) implements OrderEvent {
+    }
+
+    record InvoicePaid(long sequence, Instant at, String invoiceNo) implements OrderEvent {
+    }
+
+    record InvoiceCancelled(long sequence, Instant at, String invoiceNo) implements OrderEvent {
+    }
+
+    record OrderCreated(long sequence, Instant at, String orderId) implements OrderEvent {
+    }
+}
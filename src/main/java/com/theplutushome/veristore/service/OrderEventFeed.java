@@ -0,0 +1,245 @@
+package com.theplutushome.veristore.service;
+
+import java.io.Closeable;
+import java.io.Serial;
+import java.lang.invoke.VarHandle;
+import java.time.Instant;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded ring of {@link OrderEvent}s with one cursor per subscriber. Publishers take turns under a
+ * short lock to fill the next preallocated slot, so each slot has a single writer at a time; they
+ * never wait on subscribers, which pull at the pace of their own {@link Flow.Subscription#request
+ * demand}. Event objects are only created on the delivering thread.
+ * <p>
+ * A subscriber that falls a full ring behind receives {@link OverrunException} through
+ * {@code onError} and its subscription ends; events are not replayed. To carry on it subscribes
+ * again, which starts at the newest event, and rereads from the order store whatever it missed.
+ */
+final class OrderEventFeed implements Flow.Publisher<OrderEvent>, Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderEventFeed.class.getName());
+
+    static final byte INVOICE_CREATED = 1;
+    static final byte INVOICE_PAID = 2;
+    static final byte INVOICE_CANCELLED = 3;
+    static final byte ORDER_CREATED = 4;
+
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final List<FeedSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    OrderEventFeed(int capacity) {
+        this(capacity, null);
+    }
+
+    OrderEventFeed(int capacity, Executor executor) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a positive power of two");
+        }
+        this.ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+        this.mask = capacity - 1;
+        if (executor == null) {
+            this.ownedExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "order-event-feed");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor = ownedExecutor;
+        } else {
+            this.ownedExecutor = null;
+            this.executor = executor;
+        }
+    }
+
+    void publish(byte type, String reference) {
+        writeLock.lock();
+        try {
+            long sequence = claimed.get();
+            Slot slot = ring[(int) (sequence & mask)];
+            // Seqlock: readers discard a slot whose sequence changed while they copied it.
+            slot.sequence = -1;
+            VarHandle.releaseFence();
+            slot.type = type;
+            slot.reference = reference;
+            slot.epochMillis = System.currentTimeMillis();
+            slot.sequence = sequence;
+            claimed.set(sequence + 1);
+        } finally {
+            writeLock.unlock();
+        }
+        for (FeedSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super OrderEvent> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        FeedSubscription subscription = new FeedSubscription(subscriber, claimed.get());
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+    }
+
+    @Override
+    public void close() {
+        for (FeedSubscription subscription : subscriptions) {
+            subscription.complete();
+        }
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Signalled to a subscriber that fell more than a ring's worth of events behind.
+     */
+    static final class OverrunException extends IllegalStateException {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        OverrunException(long missedFrom) {
+            super("Subscriber fell behind the order event feed; events from sequence " + missedFrom + " were overwritten");
+        }
+    }
+
+    private static final class Slot {
+
+        volatile long sequence = -1;
+        byte type;
+        String reference;
+        long epochMillis;
+    }
+
+    private final class FeedSubscription implements Flow.Subscription, Runnable {
+
+        private final Flow.Subscriber<? super OrderEvent> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private long cursor;
+
+        FeedSubscription(Flow.Subscriber<? super OrderEvent> subscriber, long cursor) {
+            this.subscriber = subscriber;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("request must be positive, was " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void complete() {
+            completed = true;
+            signal();
+        }
+
+        void signal() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            while (!cancelled) {
+                if (demand.get() == 0) {
+                    if (completed) {
+                        finish();
+                    }
+                    return;
+                }
+                Slot slot = ring[(int) (cursor & mask)];
+                long before = slot.sequence;
+                byte type = slot.type;
+                String reference = slot.reference;
+                long epochMillis = slot.epochMillis;
+                VarHandle.acquireFence();
+                long after = slot.sequence;
+                if (before == cursor && after == cursor) {
+                    cursor++;
+                    demand.decrementAndGet();
+                    deliver(toEvent(before, type, reference, epochMillis));
+                } else if (before > cursor || after > cursor || claimed.get() - cursor > ring.length) {
+                    fail(new OverrunException(cursor));
+                    return;
+                } else {
+                    // Not yet published; the publisher's signal reruns us.
+                    if (completed) {
+                        finish();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void deliver(OrderEvent event) {
+            try {
+                subscriber.onNext(event);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Order event subscriber failed; cancelling its subscription", e);
+                cancel();
+            }
+        }
+
+        private void finish() {
+            cancel();
+            subscriber.onComplete();
+        }
+
+        private void fail(Throwable error) {
+            cancel();
+            subscriber.onError(error);
+        }
+
+        private OrderEvent toEvent(long sequence, byte type, String reference, long epochMillis) {
+            Instant at = Instant.ofEpochMilli(epochMillis);
+            return switch (type) {
+                case INVOICE_CREATED -> new OrderEvent.InvoiceCreated(sequence, at, reference);
+                case INVOICE_PAID -> new OrderEvent.InvoicePaid(sequence, at, reference);
+                case INVOICE_CANCELLED -> new OrderEvent.InvoiceCancelled(sequence, at, reference);
+                case ORDER_CREATED -> new OrderEvent.OrderCreated(sequence, at, reference);
+                default -> throw new IllegalStateException("Unknown order event type " + type);
+            };
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.Contact;
+import com.theplutushome.veristore.model.Currency;
+import com.theplutushome.veristore.model.DeliveryPrefs;
+import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+import com.theplutushome.veristore.service.journal.ByteBufferInput;
+import com.theplutushome.veristore.service.journal.MappedJournal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Durable backing for {@link InMemoryOrderRepository}: every mutation is appended to a memory-mapped journal and the
+ * full repository is periodically written to a compact binary snapshot. Recovery loads the snapshot and
+ * replays the journal tail written after it.
+ * <p>
+ * Mutations hold the read side of {@link #gate} while they update the maps and append their record;
+ * a snapshot only takes the write side long enough to read the journal position it covers. Replay is
+ * idempotent, so records that also made it into the snapshot are harmless.
+ */
+final class OrderJournal implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderJournal.class.getName());
+
+    static final byte INVOICE_CREATED = 1;
+    static final byte ORDER_CREATED = 2;
+    static final byte INVOICE_PAID = 3;
+    static final byte INVOICE_CANCELLED = 4;
+    static final byte INVOICE_STATUS = 5;
+    static final byte INVOICE_EVICTED = 6;
+    static final byte INVOICE_SETTLED = 7;
+    static final byte ORDER_DELIVERED = 8;
+    // Snapshot only: an order still in the delivery outbox.
+    static final byte DELIVERY_PENDING = 9;
+
+    private static final byte SNAPSHOT_END = 0;
+    private static final int SNAPSHOT_MAGIC = 0x56534E50; // "VSNP"
+    private static final int SNAPSHOT_VERSION = 1;
+    // Indexed by the flag bits writeContact stores, so recovery shares four instances.
+    private static final DeliveryPrefs[] PREFS = {
+            new DeliveryPrefs(false, false), new DeliveryPrefs(true, false),
+            new DeliveryPrefs(false, true), new DeliveryPrefs(true, true)};
+
+    private final MappedJournal journal;
+    private final Path snapshotFile;
+    private final ReadWriteLock gate = new ReentrantReadWriteLock();
+    private volatile long snapshotPosition;
+
+    private OrderJournal(MappedJournal journal, Path snapshotFile) {
+        this.journal = journal;
+        this.snapshotFile = snapshotFile;
+    }
+
+    static OrderJournal open(Path directory, int segmentSize) {
+        MappedJournal journal = MappedJournal.open(directory, "orders", segmentSize);
+        return new OrderJournal(journal, directory.resolve("orders.snapshot"));
+    }
+
+    /**
+     * Applies {@code mutation} and appends its record atomically with respect to snapshots.
+     * Returns the position to pass to {@link #sync(long)}.
+     */
+    long apply(Runnable mutation, Supplier<byte[]> record) {
+        gate.readLock().lock();
+        try {
+            mutation.run();
+            return journal.append(record.get());
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Like {@link #apply(Runnable, Supplier)}, but appends nothing and returns {@code -1} when
+     * {@code mutation} declines, e.g. because a compare-and-set lost.
+     */
+    long applyIf(BooleanSupplier mutation, Supplier<byte[]> record) {
+        gate.readLock().lock();
+        try {
+            return mutation.getAsBoolean() ? journal.append(record.get()) : -1;
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    void sync(long position) {
+        journal.sync(position);
+    }
+
+    void recover(InMemoryOrderRepository store) {
+        long started = System.nanoTime();
+        long from = loadSnapshot(store);
+        int[] replayed = {0};
+        journal.replay(from, (position, payload) -> {
+            apply(store, payload);
+            replayed[0]++;
+        });
+        snapshotPosition = from;
+        LOGGER.log(Level.INFO, () -> String.format("Recovered order store: %d journal records replayed in %d ms",
+                replayed[0], (System.nanoTime() - started) / 1_000_000));
+    }
+
+    boolean hasChangesSinceSnapshot() {
+        return journal.position() != snapshotPosition;
+    }
+
+    void snapshot(Collection<OrderStore.Invoice> invoices, Collection<OrderStore.Order> orders,
+                  Collection<String> pendingDeliveries) {
+        long marker;
+        gate.writeLock().lock();
+        try {
+            marker = journal.position();
+        } finally {
+            gate.writeLock().unlock();
+        }
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32C());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(marker);
+            for (OrderStore.Invoice invoice : invoices) {
+                out.writeByte(INVOICE_CREATED);
+                writeInvoice(out, invoice);
+            }
+            for (OrderStore.Order order : orders) {
+                out.writeByte(ORDER_CREATED);
+                writeOrder(out, order);
+            }
+            for (String orderId : pendingDeliveries) {
+                out.writeByte(DELIVERY_PENDING);
+                out.writeUTF(orderId);
+            }
+            out.writeByte(SNAPSHOT_END);
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getChannel().force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write order snapshot", e);
+        }
+        try {
+            Files.move(temp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to publish order snapshot", e);
+        }
+        snapshotPosition = marker;
+        journal.truncateBefore(marker);
+    }
+
+    @Override
+    public void close() {
+        journal.close();
+    }
+
+    static byte[] invoiceCreated(OrderStore.Invoice invoice) {
+        return encode(INVOICE_CREATED, out -> writeInvoice(out, invoice));
+    }
+
+    static byte[] orderCreated(OrderStore.Order order) {
+        return encode(ORDER_CREATED, out -> writeOrder(out, order));
+    }
+
+    static byte[] invoicePaid(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes) {
+        return encode(INVOICE_PAID, out -> writePaid(out, invoiceNo, deliveredCodes));
+    }
+
+    static byte[] invoiceSettled(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes, OrderStore.Order order) {
+        return encode(INVOICE_SETTLED, out -> {
+            writePaid(out, invoiceNo, deliveredCodes);
+            writeOrder(out, order);
+        });
+    }
+
+    static byte[] orderDelivered(String orderId) {
+        return encode(ORDER_DELIVERED, out -> out.writeUTF(orderId));
+    }
+
+    static byte[] invoiceStatus(String invoiceNo, InvoiceStatus status) {
+        return encode(INVOICE_STATUS, out -> {
+            out.writeUTF(invoiceNo);
+            out.writeUTF(status.name());
+        });
+    }
+
+    static byte[] invoiceEvicted(String invoiceNo) {
+        return encode(INVOICE_EVICTED, out -> out.writeUTF(invoiceNo));
+    }
+
+    private long loadSnapshot(InMemoryOrderRepository store) {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotFile, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int bodyLength = mapped.limit() - Long.BYTES;
+            CRC32C crc = new CRC32C();
+            if (bodyLength > 0) {
+                crc.update(mapped.slice(0, bodyLength));
+            }
+            if (bodyLength <= 0 || mapped.getLong(bodyLength) != crc.getValue()) {
+                throw new IllegalStateException("Order snapshot checksum mismatch in " + snapshotFile);
+            }
+            DataInput in = new ByteBufferInput(mapped.slice(0, bodyLength));
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IllegalStateException("Unrecognised order snapshot format in " + snapshotFile);
+            }
+            long marker = in.readLong();
+            int invoices = 0;
+            int orders = 0;
+            byte type;
+            while ((type = in.readByte()) != SNAPSHOT_END) {
+                switch (type) {
+                    case INVOICE_CREATED -> {
+                        store.restoreInvoice(readInvoice(in));
+                        invoices++;
+                    }
+                    case ORDER_CREATED -> {
+                        store.restoreOrder(readOrder(in));
+                        orders++;
+                    }
+                    case DELIVERY_PENDING -> store.restorePendingDelivery(in.readUTF());
+                    default -> throw new IllegalStateException("Unknown snapshot record type " + type);
+                }
+            }
+            int invoiceCount = invoices;
+            int orderCount = orders;
+            LOGGER.log(Level.INFO, () -> String.format("Loaded order snapshot with %d invoices and %d orders", invoiceCount, orderCount));
+            return marker;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read order snapshot " + snapshotFile, e);
+        }
+    }
+
+    private static void apply(InMemoryOrderRepository store, ByteBuffer payload) {
+        DataInput in = new ByteBufferInput(payload);
+        try {
+            byte type = in.readByte();
+            switch (type) {
+                case INVOICE_CREATED -> store.restoreInvoice(readInvoice(in));
+                case ORDER_CREATED -> store.restoreOrder(readOrder(in));
+                case INVOICE_PAID -> {
+                    String invoiceNo = in.readUTF();
+                    store.restorePaid(invoiceNo, readPaidCodes(in));
+                }
+                case INVOICE_SETTLED -> {
+                    String invoiceNo = in.readUTF();
+                    store.restorePaid(invoiceNo, readPaidCodes(in));
+                    OrderStore.Order order = readOrder(in);
+                    store.restoreOrder(order);
+                    store.restorePendingDelivery(order.getId());
+                }
+                case ORDER_DELIVERED -> store.restoreDelivered(in.readUTF());
+                case INVOICE_CANCELLED -> store.restoreStatus(in.readUTF(), InvoiceStatus.CANCELLED);
+                case INVOICE_STATUS -> store.restoreStatus(in.readUTF(), InvoiceStatus.valueOf(in.readUTF()));
+                case INVOICE_EVICTED -> store.restoreEvicted(in.readUTF());
+                default -> throw new IllegalStateException("Unknown journal record type " + type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt order journal record", e);
+        }
+    }
+
+    private static void writePaid(DataOutput out, String invoiceNo, Map<ProductKey, List<String>> deliveredCodes) throws IOException {
+        out.writeUTF(invoiceNo);
+        out.writeInt(deliveredCodes.size());
+        for (Map.Entry<ProductKey, List<String>> entry : deliveredCodes.entrySet()) {
+            writeKey(out, entry.getKey());
+            writeCodes(out, entry.getValue());
+        }
+    }
+
+    private static Map<ProductKey, List<String>> readPaidCodes(DataInput in) throws IOException {
+        int count = in.readInt();
+        Map<ProductKey, List<String>> codes = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            codes.put(readKey(in), readCodes(in));
+        }
+        return codes;
+    }
+
+    private static void writeInvoice(DataOutput out, OrderStore.Invoice invoice) throws IOException {
+        out.writeUTF(invoice.getInvoiceNo());
+        writeContact(out, invoice.getContact(), invoice.getDeliveryPrefs());
+        out.writeLong(invoice.getTotalMinor());
+        out.writeUTF(invoice.getCurrency().name());
+        out.writeUTF(invoice.getStatus().name());
+        writeInstant(out, invoice.getCreated());
+        out.writeBoolean(invoice.getCheckoutUrl() != null);
+        if (invoice.getCheckoutUrl() != null) {
+            out.writeUTF(invoice.getCheckoutUrl());
+        }
+        List<OrderStore.InvoiceLine> lines = invoice.getLines();
+        out.writeInt(lines.size());
+        for (OrderStore.InvoiceLine line : lines) {
+            writeKey(out, line.getKey());
+            out.writeInt(line.getQuantity());
+            out.writeLong(line.getTotalMinor());
+            out.writeUTF(line.getCurrency().name());
+            writeCodes(out, line.getDeliveredCodes());
+        }
+    }
+
+    private static OrderStore.Invoice readInvoice(DataInput in) throws IOException {
+        String invoiceNo = in.readUTF();
+        Contact contact = new Contact(in.readUTF(), in.readUTF());
+        DeliveryPrefs prefs = readPrefs(in);
+        long totalMinor = in.readLong();
+        Currency currency = Currency.valueOf(in.readUTF());
+        InvoiceStatus status = InvoiceStatus.valueOf(in.readUTF());
+        Instant created = readInstant(in);
+        String checkoutUrl = in.readBoolean() ? in.readUTF() : null;
+        int count = in.readInt();
+        List<OrderStore.InvoiceLine> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ProductKey key = readKey(in);
+            int quantity = in.readInt();
+            long lineTotal = in.readLong();
+            Currency lineCurrency = Currency.valueOf(in.readUTF());
+            lines.add(new OrderStore.InvoiceLine(key, quantity, lineTotal, lineCurrency, readCodes(in)));
+        }
+        return new OrderStore.Invoice(invoiceNo, contact, prefs, totalMinor, currency, status, created, checkoutUrl, lines);
+    }
+
+    static void writeOrder(DataOutput out, OrderStore.Order order) throws IOException {
+        out.writeUTF(order.getId());
+        writeContact(out, order.getContact(), order.getDeliveryPrefs());
+        out.writeLong(order.getTotalMinor());
+        out.writeUTF(order.getCurrency().name());
+        writeInstant(out, order.getCreated());
+        out.writeInt(order.getLines().size());
+        for (OrderStore.OrderLine line : order.getLines()) {
+            writeKey(out, line.getKey());
+            out.writeInt(line.getQuantity());
+            out.writeLong(line.getTotalMinor());
+            out.writeUTF(line.getCurrency().name());
+            writeCodes(out, line.getCodes());
+        }
+    }
+
+    static OrderStore.Order readOrder(DataInput in) throws IOException {
+        String id = in.readUTF();
+        Contact contact = new Contact(in.readUTF(), in.readUTF());
+        DeliveryPrefs prefs = readPrefs(in);
+        long totalMinor = in.readLong();
+        Currency currency = Currency.valueOf(in.readUTF());
+        Instant created = readInstant(in);
+        int count = in.readInt();
+        List<OrderStore.OrderLine> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ProductKey key = readKey(in);
+            int quantity = in.readInt();
+            long lineTotal = in.readLong();
+            Currency lineCurrency = Currency.valueOf(in.readUTF());
+            lines.add(new OrderStore.OrderLine(key, quantity, lineTotal, lineCurrency, readCodes(in)));
+        }
+        return new OrderStore.Order(id, contact, prefs, totalMinor, currency, created, lines);
+    }
+
+    private static void writeContact(DataOutput out, Contact contact, DeliveryPrefs prefs) throws IOException {
+        out.writeUTF(contact.email());
+        out.writeUTF(contact.msisdn());
+        out.writeByte((prefs.byEmail() ? 1 : 0) | (prefs.bySms() ? 2 : 0));
+    }
+
+    private static DeliveryPrefs readPrefs(DataInput in) throws IOException {
+        return PREFS[in.readByte() & 3];
+    }
+
+    private static void writeKey(DataOutput out, ProductKey key) throws IOException {
+        out.writeUTF(key.family().name());
+        out.writeUTF(key.sku());
+    }
+
+    private static ProductKey readKey(DataInput in) throws IOException {
+        return new ProductKey(ProductFamily.valueOf(in.readUTF()), in.readUTF());
+    }
+
+    private static void writeCodes(DataOutput out, List<String> codes) throws IOException {
+        out.writeInt(codes.size());
+        for (String code : codes) {
+            out.writeUTF(code);
+        }
+    }
+
+    private static List<String> readCodes(DataInput in) throws IOException {
+        int count = in.readInt();
+        List<String> codes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            codes.add(in.readUTF());
+        }
+        return codes;
+    }
+
+    private static void writeInstant(DataOutput out, Instant instant) throws IOException {
+        out.writeLong(instant.getEpochSecond());
+        out.writeInt(instant.getNano());
+    }
+
+    private static Instant readInstant(DataInput in) throws IOException {
+        long seconds = in.readLong();
+        return Instant.ofEpochSecond(seconds, in.readInt());
+    }
+
+    private static byte[] encode(byte type, RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+
+        void write(DataOutput out) throws IOException;
+    }
+}
@@ -0,0 +1,76 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Storage backend behind {@link OrderStore}. The store validates input and assigns identifiers;
+ * a repository only persists and looks up invoices and orders.
+ */
+public interface OrderRepository extends AutoCloseable {
+
+    /**
+     * Stores a new invoice, failing with {@link IllegalArgumentException} when the number is taken.
+     */
+    void saveInvoice(OrderStore.Invoice invoice);
+
+    void saveOrder(OrderStore.Order order);
+
+    Optional<OrderStore.Invoice> findInvoice(String invoiceNo);
+
+    List<OrderStore.Invoice> findInvoicesByStatus(InvoiceStatus status);
+
+    Optional<OrderStore.Order> findOrder(String orderId);
+
+    /**
+     * Returns up to {@code limit} orders whose normalized email or msisdn equals the given key, newest
+     * first, starting after {@code after} (or from the newest when {@code null}). Blank keys match nothing.
+     */
+    List<OrderStore.Order> findOrdersByContact(String emailKey, String msisdnKey, OrderCursor after, int limit);
+
+    /**
+     * Number of orders {@link #findOrdersByContact} would return without a limit.
+     */
+    int countOrdersByContact(String emailKey, String msisdnKey);
+
+    /**
+     * Atomically moves the invoice from {@code expected} to {@code next}. Returns {@code false} without
+     * blocking when the invoice is missing or no longer in {@code expected}.
+     */
+    boolean transition(String invoiceNo, InvoiceStatus expected, InvoiceStatus next);
+
+    /**
+     * Moves a FULFILLING invoice to PAID and records the codes delivered for each line.
+     */
+    boolean markPaid(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes);
+
+    /**
+     * Moves a FULFILLING invoice to PAID, records its delivered codes, saves {@code order} and queues the
+     * order for delivery, all or nothing. The queued entry is the delivery outbox: it stays in
+     * {@link #findPendingDeliveries} until {@link #markDelivered} removes it.
+     */
+    boolean settle(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes, OrderStore.Order order);
+
+    /**
+     * Order ids still waiting for their PINs to be delivered, oldest first.
+     */
+    List<String> findPendingDeliveries();
+
+    void markDelivered(String orderId);
+
+    /**
+     * Drops a CANCELLED invoice from memory-resident backends. Backends that do not hold invoices on
+     * the heap keep the row and return {@code false}.
+     */
+    default boolean evictInvoice(String invoiceNo) {
+        return false;
+    }
+
+    @Override
+    default void close() {
+    }
+}
@@ -5,13 +5,20 @@ import com.theplutushome.veristore.model.Contact;
 import com.theplutushome.veristore.model.Currency;
 import com.theplutushome.veristore.model.DeliveryPrefs;
 import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.util.HashedWheelTimer;
+import com.theplutushome.veristore.util.Tracer;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Instance;
+import jakarta.inject.Inject;
 
 import java.io.Serial;
 import java.io.Serializable;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
-import java.time.Year;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -19,7 +26,13 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 @ApplicationScoped
 public class OrderStore implements Serializable {
@@ -27,10 +40,101 @@ public class OrderStore implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
 
-    private final Map<String, Order> ordersById = new ConcurrentHashMap<>();
-    private final Map<String, Invoice> invoicesByNo = new ConcurrentHashMap<>();
-    private final AtomicInteger orderSequence = new AtomicInteger();
-    private final AtomicInteger invoiceSequence = new AtomicInteger();
+    private static final Logger LOGGER = Logger.getLogger(OrderStore.class.getName());
+    private static final String BACKEND = System.getProperty("veristore.store.backend", "memory");
+    private static final String STORE_DIR = System.getProperty("veristore.store.dir");
+    private static final int SEGMENT_BYTES = Integer.getInteger("veristore.store.segmentMb", 64) << 20;
+    private static final long SNAPSHOT_INTERVAL_SECONDS = Long.getLong("veristore.store.snapshotSeconds", 300);
+    private static final long COLD_AFTER_HOURS = Long.getLong("veristore.store.coldAfterHours", 24 * 30);
+    private static final String COLD_DIR = System.getProperty("veristore.store.coldDir");
+    private static final int COLD_CACHE_SIZE = Integer.getInteger("veristore.store.coldCacheSize", 1024);
+    private static final long TIERING_INTERVAL_SECONDS = Long.getLong("veristore.store.tieringSeconds", 900);
+    private static final String NODE_ID_PROPERTY = System.getProperty("veristore.node.id");
+    private static final int NODE_ID = Integer.getInteger("veristore.node.id", 0);
+    private static final long INVOICE_TTL_MINUTES = Long.getLong("veristore.invoice.ttlMinutes", 24 * 60);
+    private static final long INVOICE_GRACE_MINUTES = Long.getLong("veristore.invoice.graceMinutes", 60);
+    private static final int FEED_CAPACITY = Integer.getInteger("veristore.feed.capacity", 8192);
+
+    private static final Map<ProductKey, ProductKey> PRODUCT_KEYS = new ConcurrentHashMap<>();
+
+    private transient OrderRepository repository;
+    private transient IdGenerator ids;
+    private transient InvoiceExpiry expiry;
+    private transient OrderEventFeed events;
+    private final transient List<Consumer<String>> cancellationListeners = new CopyOnWriteArrayList<>();
+
+    @Inject
+    private Instance<JpaOrderRepository> jpaRepository;
+
+    public OrderStore() {
+        this(new InMemoryOrderRepository());
+    }
+
+    OrderStore(OrderRepository repository) {
+        this(repository, new OrderEventFeed(FEED_CAPACITY));
+    }
+
+    OrderStore(OrderRepository repository, OrderEventFeed events) {
+        this.repository = Objects.requireNonNull(repository, "repository");
+        this.events = Objects.requireNonNull(events, "events");
+        this.ids = new IdGenerator(NODE_ID);
+    }
+
+    @PostConstruct
+    void init() {
+        if ("jpa".equalsIgnoreCase(BACKEND)) {
+            checkSharedBackendIdentity(NODE_ID_PROPERTY, STORE_DIR);
+        }
+        if (STORE_DIR != null && !STORE_DIR.isBlank()) {
+            ids = new IdGenerator(NODE_ID, Path.of(STORE_DIR, "ids-" + NODE_ID + ".hwm"));
+        }
+        if ("jpa".equalsIgnoreCase(BACKEND)) {
+            repository = jpaRepository.get();
+        } else if (STORE_DIR != null && !STORE_DIR.isBlank()) {
+            InMemoryOrderRepository inMemory = new InMemoryOrderRepository();
+            if (COLD_AFTER_HOURS > 0) {
+                Path coldDir = COLD_DIR == null || COLD_DIR.isBlank() ? Path.of(STORE_DIR, "cold") : Path.of(COLD_DIR);
+                inMemory.openColdTier(coldDir, Duration.ofHours(COLD_AFTER_HOURS), COLD_CACHE_SIZE, TIERING_INTERVAL_SECONDS);
+            }
+            inMemory.openJournal(Path.of(STORE_DIR), SEGMENT_BYTES, SNAPSHOT_INTERVAL_SECONDS);
+            repository = inMemory;
+        }
+        if (INVOICE_TTL_MINUTES > 0) {
+            startExpiry(new HashedWheelTimer("invoice-expiry", 1, TimeUnit.SECONDS, 4096),
+                    Duration.ofMinutes(INVOICE_TTL_MINUTES), Duration.ofMinutes(INVOICE_GRACE_MINUTES));
+        }
+        LOGGER.log(Level.INFO, () -> "Order store backed by " + repository.getClass().getSimpleName());
+    }
+
+    /**
+     * Nodes sharing one database must each have their own node id and a persisted id high-water mark,
+     * or two of them, or one restarted onto a slower clock, can issue the same order id.
+     */
+    static void checkSharedBackendIdentity(String nodeId, String storeDir) {
+        if (nodeId == null || nodeId.isBlank()) {
+            throw new IllegalStateException("veristore.store.backend=jpa requires a distinct veristore.node.id per node");
+        }
+        if (storeDir == null || storeDir.isBlank()) {
+            throw new IllegalStateException("veristore.store.backend=jpa requires veristore.store.dir for the node's id high-water mark");
+        }
+    }
+
+    void startExpiry(HashedWheelTimer timer, Duration ttl, Duration grace) {
+        InvoiceExpiry started = new InvoiceExpiry(repository, timer, ttl, grace,
+                this::cancelled);
+        started.resume();
+        expiry = started;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (expiry != null) {
+            expiry.close();
+        }
+        events.close();
+        repository.close();
+        ids.close();
+    }
 
     public String createOrder(ProductKey key,
                               int quantity,
@@ -46,6 +150,13 @@ public class OrderStore implements Serializable {
     public String createOrder(List<OrderLine> lines,
                               Contact contact,
                               DeliveryPrefs deliveryPrefs) {
+        Order order = newOrder(lines, contact, deliveryPrefs);
+        repository.saveOrder(order);
+        events.publish(OrderEventFeed.ORDER_CREATED, order.getId());
+        return order.getId();
+    }
+
+    private Order newOrder(List<OrderLine> lines, Contact contact, DeliveryPrefs deliveryPrefs) {
         Objects.requireNonNull(lines, "lines");
         Objects.requireNonNull(contact, "contact");
         Objects.requireNonNull(deliveryPrefs, "deliveryPrefs");
@@ -54,10 +165,7 @@ public class OrderStore implements Serializable {
         }
         Currency currency = ensureCommonCurrency(lines.stream().map(OrderLine::getCurrency).toList());
         long totalMinor = lines.stream().mapToLong(OrderLine::getTotalMinor).sum();
-        String id = nextOrderId();
-        Order order = new Order(id, contact, deliveryPrefs, totalMinor, currency, Instant.now(), lines);
-        ordersById.put(id, order);
-        return id;
+        return new Order(nextOrderId(), contact, deliveryPrefs, totalMinor, currency, Instant.now(), lines);
     }
 
     public String createInvoice(ProductKey key,
@@ -83,93 +191,233 @@ public class OrderStore implements Serializable {
         if (lines.isEmpty()) {
             throw new IllegalArgumentException("lines must not be empty");
         }
-        Currency currency = ensureCommonCurrency(lines.stream().map(InvoiceLine::getCurrency).toList());
-        long totalMinor = lines.stream().mapToLong(InvoiceLine::getTotalMinor).sum();
-        String number = invoiceNo == null || invoiceNo.isBlank() ? nextInvoiceNo() : invoiceNo.trim();
-        if (invoicesByNo.containsKey(number)) {
-            throw new IllegalArgumentException("Invoice already exists: " + number);
+        try (Tracer.Span span = Tracer.child("orderStore.createInvoice")) {
+            Currency currency = ensureCommonCurrency(lines.stream().map(InvoiceLine::getCurrency).toList());
+            long totalMinor = lines.stream().mapToLong(InvoiceLine::getTotalMinor).sum();
+            String number = invoiceNo == null || invoiceNo.isBlank() ? nextInvoiceNo() : invoiceNo.trim();
+            Invoice invoice = new Invoice(number, contact, deliveryPrefs, totalMinor, currency, InvoiceStatus.PENDING, Instant.now(), checkoutUrl, lines);
+            repository.saveInvoice(invoice);
+            events.publish(OrderEventFeed.INVOICE_CREATED, number);
+            if (expiry != null) {
+                expiry.track(invoice);
+            }
+            return number;
         }
-        Invoice invoice = new Invoice(number, contact, deliveryPrefs, totalMinor, currency, InvoiceStatus.PENDING, Instant.now(), checkoutUrl, lines);
-        invoicesByNo.put(number, invoice);
-        return number;
+    }
+
+    /**
+     * Live feed of invoice and order changes from the moment of subscription. Subscribers that fall
+     * more than {@code veristore.feed.capacity} events behind are failed rather than slowing writers.
+     */
+    public Flow.Publisher<OrderEvent> events() {
+        return events;
+    }
+
+    /**
+     * Calls {@code listener} with the invoice number each time an invoice is cancelled or expires, on
+     * the cancelling thread. Unlike {@link #events()} it never drops one, so work that must follow
+     * every cancellation belongs here. Listeners should be quick.
+     */
+    public void onInvoiceCancelled(Consumer<String> listener) {
+        cancellationListeners.add(Objects.requireNonNull(listener, "listener"));
     }
 
     public Optional<Invoice> findInvoice(String invoiceNo) {
         if (invoiceNo == null) {
             return Optional.empty();
         }
-        return Optional.ofNullable(invoicesByNo.get(invoiceNo));
+        return repository.findInvoice(invoiceNo);
     }
 
     public Optional<Order> findOrder(String orderId) {
         if (orderId == null) {
             return Optional.empty();
         }
-        return Optional.ofNullable(ordersById.get(orderId));
+        return repository.findOrder(orderId);
     }
 
     public List<Order> findOrdersByContact(Contact contact) {
         Objects.requireNonNull(contact, "contact");
-        List<Order> matches = new ArrayList<>();
-        for (Order order : ordersById.values()) {
-            if (matches(contact, order.getContact())) {
-                matches.add(order);
-            }
+        return repository.findOrdersByContact(normalize(contact.email()), normalize(contact.msisdn()), null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns one page of a contact's history, newest first. Pass the previous page's
+     * {@link OrderPage#continuation()} to fetch the next one; {@code null} starts from the newest order.
+     */
+    public OrderPage findOrdersByContact(Contact contact, String continuation, int pageSize) {
+        Objects.requireNonNull(contact, "contact");
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        OrderCursor after = continuation == null || continuation.isEmpty() ? null : OrderCursor.parse(continuation);
+        List<Order> orders = repository.findOrdersByContact(
+                normalize(contact.email()), normalize(contact.msisdn()), after, pageSize + 1);
+        if (orders.size() <= pageSize) {
+            return new OrderPage(orders, null);
         }
-        matches.sort((a, b) -> b.getCreated().compareTo(a.getCreated()));
-        return List.copyOf(matches);
+        List<Order> page = orders.subList(0, pageSize);
+        return new OrderPage(List.copyOf(page), OrderCursor.after(page.get(pageSize - 1)).token());
     }
 
-    public Optional<Invoice> markInvoicePaid(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes) {
+    public int countOrdersByContact(Contact contact) {
+        Objects.requireNonNull(contact, "contact");
+        return repository.countOrdersByContact(normalize(contact.email()), normalize(contact.msisdn()));
+    }
+
+    /**
+     * Claims the invoice for fulfillment. Exactly one concurrent caller gets {@code true}; everyone
+     * else, and any call on a paid or cancelled invoice, gets {@code false} without waiting. An
+     * invoice that expired unpaid is reinstated first if it is still within its grace period.
+     */
+    public boolean beginFulfillment(String invoiceNo) {
+        if (invoiceNo == null) {
+            return false;
+        }
+        boolean claimed = repository.transition(invoiceNo, InvoiceStatus.PENDING, InvoiceStatus.FULFILLING)
+                || repository.transition(invoiceNo, InvoiceStatus.FAILED, InvoiceStatus.FULFILLING)
+                || (expiry != null && expiry.reinstate(invoiceNo)
+                    && repository.transition(invoiceNo, InvoiceStatus.PENDING, InvoiceStatus.FULFILLING));
+        // The expiry stays armed: it skips a FULFILLING invoice, and one that ends up FAILED is re-tracked.
+        return claimed;
+    }
+
+    /**
+     * Settles a claimed invoice as paid. Only the caller that won {@link #beginFulfillment} may call this.
+     */
+    public boolean markInvoicePaid(String invoiceNo, Map<ProductKey, List<String>> deliveredCodes) {
         Objects.requireNonNull(deliveredCodes, "deliveredCodes");
-        return findInvoice(invoiceNo).map(invoice -> {
-            synchronized (invoice) {
-                if (invoice.getStatus() != InvoiceStatus.PAID) {
-                    invoice.setStatus(InvoiceStatus.PAID);
-                    invoice.setDeliveredCodes(deliveredCodes);
-                }
+        if (invoiceNo == null) {
+            return false;
+        }
+        try (Tracer.Span span = Tracer.child("orderStore.markInvoicePaid")) {
+            if (!repository.markPaid(invoiceNo, deliveredCodes)) {
+                span.fail();
+                return false;
+            }
+            if (expiry != null) {
+                expiry.settled(invoiceNo);
             }
-            return invoice;
-        });
+            events.publish(OrderEventFeed.INVOICE_PAID, invoiceNo);
+            return true;
+        }
     }
 
-    public Optional<Invoice> markInvoiceCancelled(String invoiceNo) {
-        return findInvoice(invoiceNo).map(invoice -> {
-            synchronized (invoice) {
-                invoice.setStatus(InvoiceStatus.CANCELLED);
+    /**
+     * Settles a claimed invoice as paid and creates its order in one repository write, which also puts
+     * the order in the delivery outbox. Returns the order id, or {@code null} if the invoice was not
+     * FULFILLING. Only the caller that won {@link #beginFulfillment} may call this.
+     */
+    public String settleInvoice(String invoiceNo,
+                                Map<ProductKey, List<String>> deliveredCodes,
+                                List<OrderLine> lines,
+                                Contact contact,
+                                DeliveryPrefs deliveryPrefs) {
+        Objects.requireNonNull(invoiceNo, "invoiceNo");
+        Objects.requireNonNull(deliveredCodes, "deliveredCodes");
+        try (Tracer.Span span = Tracer.child("orderStore.settleInvoice")) {
+            Order order = newOrder(lines, contact, deliveryPrefs);
+            if (!repository.settle(invoiceNo, deliveredCodes, order)) {
+                span.fail();
+                return null;
+            }
+            if (expiry != null) {
+                expiry.settled(invoiceNo);
             }
-            return invoice;
-        });
+            events.publish(OrderEventFeed.INVOICE_PAID, invoiceNo);
+            events.publish(OrderEventFeed.ORDER_CREATED, order.getId());
+            return order.getId();
+        }
+    }
+
+    /**
+     * Orders whose PINs still have to be delivered, oldest first.
+     */
+    public List<String> pendingDeliveries() {
+        return repository.findPendingDeliveries();
+    }
+
+    public void markDelivered(String orderId) {
+        Objects.requireNonNull(orderId, "orderId");
+        repository.markDelivered(orderId);
     }
 
-    private boolean matches(Contact query, Contact stored) {
-        if (stored == null) {
+    public boolean markInvoiceFailed(String invoiceNo) {
+        if (invoiceNo == null) {
+            return false;
+        }
+        if (!repository.transition(invoiceNo, InvoiceStatus.FULFILLING, InvoiceStatus.FAILED)) {
             return false;
         }
-        boolean emailMatch = equalsIgnoreCaseAndWhitespace(query.email(), stored.email());
-        boolean phoneMatch = equalsIgnoreCaseAndWhitespace(query.msisdn(), stored.msisdn());
-        return emailMatch || phoneMatch;
+        // A failed invoice expires like an unpaid one unless a retry settles it first.
+        if (expiry != null) {
+            repository.findInvoice(invoiceNo).ifPresent(expiry::track);
+        }
+        return true;
     }
 
-    private boolean equalsIgnoreCaseAndWhitespace(String left, String right) {
-        if (left == null || right == null) {
+    public boolean markInvoiceCancelled(String invoiceNo) {
+        if (invoiceNo == null) {
             return false;
         }
-        return normalize(left).equals(normalize(right));
+        if (!repository.transition(invoiceNo, InvoiceStatus.PENDING, InvoiceStatus.CANCELLED)
+                && !repository.transition(invoiceNo, InvoiceStatus.FAILED, InvoiceStatus.CANCELLED)) {
+            return false;
+        }
+        cancelled(invoiceNo);
+        return true;
     }
 
-    private String normalize(String value) {
-        return value == null ? "" : value.replaceAll("\\s+", "").toLowerCase();
+    private void cancelled(String invoiceNo) {
+        for (Consumer<String> listener : cancellationListeners) {
+            try {
+                listener.accept(invoiceNo);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Cancellation listener failed for invoice " + invoiceNo, e);
+            }
+        }
+        events.publish(OrderEventFeed.INVOICE_CANCELLED, invoiceNo);
+    }
+
+    // Every line of a product shares one key instance instead of carrying its own record and sku string.
+    static ProductKey intern(ProductKey key) {
+        ProductKey existing = PRODUCT_KEYS.putIfAbsent(key, key);
+        return existing == null ? key : existing;
+    }
+
+    static String normalize(String value) {
+        if (value == null || value.isEmpty()) {
+            return "";
+        }
+        if (isNormalized(value)) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (!Character.isWhitespace(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNormalized(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c) || Character.toLowerCase(c) != c) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private String nextOrderId() {
-        int sequence = orderSequence.incrementAndGet();
-        return String.format("ORD-%d-%05d", Year.now().getValue(), sequence);
+        return ids.next("ORD-");
     }
 
     private String nextInvoiceNo() {
-        long millis = System.currentTimeMillis();
-        return "INV-" + millis;
+        return ids.next("INV-");
     }
 
     private Currency ensureCommonCurrency(List<Currency> currencies) {
@@ -184,6 +432,19 @@ public class OrderStore implements Serializable {
         return first;
     }
 
+    /**
+     * A page of order history; {@code continuation} is {@code null} on the last page.
+     */
+    public record OrderPage(List<Order> orders, String continuation) implements Serializable {
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+
+        public boolean hasMore() {
+            return continuation != null;
+        }
+    }
+
     public static final class Order implements Serializable {
 
         @Serial
@@ -260,7 +521,7 @@ public class OrderStore implements Serializable {
         private final String invoiceNo;
         private final Contact contact;
         private final DeliveryPrefs deliveryPrefs;
-        private InvoiceStatus status;
+        private final AtomicReference<InvoiceStatus> status;
         private final String checkoutUrl;
         private final Instant created;
         private final long totalMinor;
@@ -279,7 +540,7 @@ public class OrderStore implements Serializable {
             this.invoiceNo = Objects.requireNonNull(invoiceNo, "invoiceNo");
             this.contact = Objects.requireNonNull(contact, "contact");
             this.deliveryPrefs = Objects.requireNonNull(deliveryPrefs, "deliveryPrefs");
-            this.status = Objects.requireNonNull(status, "status");
+            this.status = new AtomicReference<>(Objects.requireNonNull(status, "status"));
             this.created = Objects.requireNonNull(created, "created");
             this.checkoutUrl = checkoutUrl;
             this.totalMinor = totalMinor;
@@ -308,11 +569,15 @@ public class OrderStore implements Serializable {
         }
 
         public InvoiceStatus getStatus() {
-            return status;
+            return status.get();
         }
 
         void setStatus(InvoiceStatus status) {
-            this.status = Objects.requireNonNull(status, "status");
+            this.status.set(Objects.requireNonNull(status, "status"));
+        }
+
+        boolean compareAndSetStatus(InvoiceStatus expected, InvoiceStatus next) {
+            return status.compareAndSet(expected, next);
         }
 
         public Instant getCreated() {
@@ -355,21 +620,21 @@ public class OrderStore implements Serializable {
         private final int quantity;
         private final long totalMinor;
         private final Currency currency;
-        private final List<String> codes;
+        private final byte[] codes;
 
         public OrderLine(ProductKey key,
                          int quantity,
                          long totalMinor,
                          Currency currency,
                          List<String> codes) {
-            this.key = Objects.requireNonNull(key, "key");
+            this.key = intern(Objects.requireNonNull(key, "key"));
             if (quantity <= 0) {
                 throw new IllegalArgumentException("quantity must be positive");
             }
             this.quantity = quantity;
             this.totalMinor = totalMinor;
             this.currency = Objects.requireNonNull(currency, "currency");
-            this.codes = List.copyOf(Objects.requireNonNull(codes, "codes"));
+            this.codes = PackedCodes.pack(List.copyOf(Objects.requireNonNull(codes, "codes")));
         }
 
         public ProductKey getKey() {
@@ -388,8 +653,11 @@ public class OrderStore implements Serializable {
             return currency;
         }
 
+        /**
+         * Read-only view that decodes each code when it is accessed.
+         */
         public List<String> getCodes() {
-            return codes;
+            return PackedCodes.view(codes);
         }
     }
 
@@ -402,21 +670,21 @@ public class OrderStore implements Serializable {
         private final int quantity;
         private final long totalMinor;
         private final Currency currency;
-        private List<String> deliveredCodes;
+        private volatile byte[] deliveredCodes;
 
         public InvoiceLine(ProductKey key,
                            int quantity,
                            long totalMinor,
                            Currency currency,
                            List<String> deliveredCodes) {
-            this.key = Objects.requireNonNull(key, "key");
+            this.key = intern(Objects.requireNonNull(key, "key"));
             if (quantity <= 0) {
                 throw new IllegalArgumentException("quantity must be positive");
             }
             this.quantity = quantity;
             this.totalMinor = totalMinor;
             this.currency = Objects.requireNonNull(currency, "currency");
-            this.deliveredCodes = List.copyOf(Objects.requireNonNull(deliveredCodes, "deliveredCodes"));
+            this.deliveredCodes = PackedCodes.pack(List.copyOf(Objects.requireNonNull(deliveredCodes, "deliveredCodes")));
         }
 
         public ProductKey getKey() {
@@ -436,11 +704,11 @@ public class OrderStore implements Serializable {
         }
 
         public List<String> getDeliveredCodes() {
-            return deliveredCodes;
+            return PackedCodes.view(deliveredCodes);
         }
 
         void setDeliveredCodes(List<String> deliveredCodes) {
-            this.deliveredCodes = List.copyOf(Objects.requireNonNull(deliveredCodes, "deliveredCodes"));
+            this.deliveredCodes = PackedCodes.pack(List.copyOf(Objects.requireNonNull(deliveredCodes, "deliveredCodes")));
         }
     }
 }
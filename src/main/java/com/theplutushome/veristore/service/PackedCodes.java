@@ -0,0 +1,248 @@
+package com.theplutushome.veristore.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Packs a line's PIN codes into one {@code byte[]}: every character is stored as an index into the
+ * smallest fixed-width alphabet that covers the whole batch (5 bits for vault PINs, 4 bits for numeric
+ * "SERIAL - PIN" codes, 6 bits for general alphanumerics), with a UTF-8 fallback for anything else.
+ * When all codes have the same length it is stored once, otherwise each code has a varint length.
+ * <p>
+ * Layout: {@code [alphabet][varint count][varint fixedLength + 1, or 0][varint lengths...][payload]}.
+ */
+final class PackedCodes {
+
+    private static final String[] ALPHABETS = {
+        "ABCDEFGHJKLMNPQRSTUVWXYZ23456789",
+        "0123456789 -./:#",
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz -",
+    };
+    private static final int[] BITS = {5, 4, 6};
+    private static final int UTF8 = ALPHABETS.length;
+    private static final byte[][] INDEX = new byte[ALPHABETS.length][128];
+
+    static {
+        for (int a = 0; a < ALPHABETS.length; a++) {
+            Arrays.fill(INDEX[a], (byte) -1);
+            for (int i = 0; i < ALPHABETS[a].length(); i++) {
+                INDEX[a][ALPHABETS[a].charAt(i)] = (byte) i;
+            }
+        }
+    }
+
+    private PackedCodes() {
+    }
+
+    static byte[] pack(List<String> codes) {
+        int alphabet = chooseAlphabet(codes);
+        int count = codes.size();
+        int fixedLength = count == 0 ? 0 : lengthOf(codes.get(0), alphabet);
+        for (int i = 1; i < count && fixedLength >= 0; i++) {
+            if (lengthOf(codes.get(i), alphabet) != fixedLength) {
+                fixedLength = -1;
+            }
+        }
+        long payloadBits = 0;
+        int headerBytes = 1 + varintSize(count) + varintSize(fixedLength + 1);
+        byte[][] utf8 = alphabet == UTF8 ? new byte[count][] : null;
+        for (int i = 0; i < count; i++) {
+            String code = codes.get(i);
+            int length;
+            if (utf8 != null) {
+                utf8[i] = code.getBytes(StandardCharsets.UTF_8);
+                length = utf8[i].length;
+                payloadBits += 8L * length;
+            } else {
+                length = code.length();
+                payloadBits += (long) BITS[alphabet] * length;
+            }
+            if (fixedLength < 0) {
+                headerBytes += varintSize(length);
+            }
+        }
+        byte[] packed = new byte[Math.toIntExact(headerBytes + (payloadBits + 7) / 8)];
+        int pos = 0;
+        packed[pos++] = (byte) alphabet;
+        pos = writeVarint(packed, pos, count);
+        pos = writeVarint(packed, pos, fixedLength < 0 ? 0 : fixedLength + 1);
+        if (fixedLength < 0) {
+            for (int i = 0; i < count; i++) {
+                pos = writeVarint(packed, pos, utf8 != null ? utf8[i].length : codes.get(i).length());
+            }
+        }
+        if (utf8 != null) {
+            for (byte[] bytes : utf8) {
+                System.arraycopy(bytes, 0, packed, pos, bytes.length);
+                pos += bytes.length;
+            }
+            return packed;
+        }
+        long bit = (long) pos * 8;
+        int width = BITS[alphabet];
+        byte[] index = INDEX[alphabet];
+        for (String code : codes) {
+            for (int c = 0; c < code.length(); c++) {
+                writeBits(packed, bit, width, index[code.charAt(c)]);
+                bit += width;
+            }
+        }
+        return packed;
+    }
+
+    static int count(byte[] packed) {
+        return readVarint(packed, new int[]{1});
+    }
+
+    /**
+     * Read-only list decoding each code on access; nothing is materialized up front.
+     */
+    static List<String> view(byte[] packed) {
+        return new View(packed);
+    }
+
+    private static int chooseAlphabet(List<String> codes) {
+        for (int a = 0; a < ALPHABETS.length; a++) {
+            if (covers(codes, INDEX[a])) {
+                return a;
+            }
+        }
+        return UTF8;
+    }
+
+    private static boolean covers(List<String> codes, byte[] index) {
+        for (String code : codes) {
+            for (int c = 0; c < code.length(); c++) {
+                char ch = code.charAt(c);
+                if (ch >= 128 || index[ch] < 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int lengthOf(String code, int alphabet) {
+        return alphabet == UTF8 ? code.getBytes(StandardCharsets.UTF_8).length : code.length();
+    }
+
+    private static void writeBits(byte[] target, long bit, int width, int value) {
+        for (int i = width - 1; i >= 0; i--, bit++) {
+            if (((value >>> i) & 1) != 0) {
+                target[(int) (bit >>> 3)] |= (byte) (0x80 >>> (bit & 7));
+            }
+        }
+    }
+
+    private static int readBits(byte[] source, long bit, int width) {
+        int value = 0;
+        for (int i = 0; i < width; i++, bit++) {
+            value = (value << 1) | ((source[(int) (bit >>> 3)] >>> (7 - (bit & 7))) & 1);
+        }
+        return value;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] target, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            target[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        target[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static int readVarint(byte[] source, int[] pos) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = source[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static final class View extends AbstractList<String> implements RandomAccess {
+
+        private final byte[] packed;
+        private final int alphabet;
+        private final int size;
+        private final int fixedLength;
+        private final int lengthsStart;
+        private final int payloadStart;
+        private int[] offsets;
+
+        View(byte[] packed) {
+            this.packed = packed;
+            this.alphabet = packed[0];
+            int[] pos = {1};
+            this.size = readVarint(packed, pos);
+            this.fixedLength = readVarint(packed, pos) - 1;
+            this.lengthsStart = pos[0];
+            if (fixedLength < 0) {
+                for (int i = 0; i < size; i++) {
+                    readVarint(packed, pos);
+                }
+            }
+            this.payloadStart = pos[0];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public String get(int i) {
+            if (i < 0 || i >= size) {
+                throw new IndexOutOfBoundsException(i);
+            }
+            int start;
+            int length;
+            if (fixedLength >= 0) {
+                start = i * fixedLength;
+                length = fixedLength;
+            } else {
+                int[] table = offsets();
+                start = table[i];
+                length = table[i + 1] - start;
+            }
+            if (alphabet == UTF8) {
+                return new String(packed, payloadStart + start, length, StandardCharsets.UTF_8);
+            }
+            int width = BITS[alphabet];
+            String chars = ALPHABETS[alphabet];
+            long bit = (long) payloadStart * 8 + (long) start * width;
+            byte[] decoded = new byte[length];
+            for (int c = 0; c < length; c++, bit += width) {
+                decoded[c] = (byte) chars.charAt(readBits(packed, bit, width));
+            }
+            return new String(decoded, StandardCharsets.ISO_8859_1);
+        }
+
+        private int[] offsets() {
+            int[] table = offsets;
+            if (table == null) {
+                table = new int[size + 1];
+                int[] pos = {lengthsStart};
+                for (int i = 0; i < size; i++) {
+                    table[i + 1] = table[i] + readVarint(packed, pos);
+                }
+                offsets = table;
+            }
+            return table;
+        }
+    }
+}
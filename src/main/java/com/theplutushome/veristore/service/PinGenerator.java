@@ -0,0 +1,76 @@
+package com.theplutushome.veristore.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DrbgParameters;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates vault PINs in bulk. Each thread owns a DRBG seeded from the system {@link SecureRandom},
+ * draws random bytes a block at a time and cuts them into 5-bit indexes into the 32-character
+ * alphabet; since 32 is a power of two every index is equally likely, with no rejection needed.
+ */
+final class PinGenerator {
+
+    static final int CODE_LENGTH = OffHeapPinRing.CODE_LENGTH;
+    private static final byte[] ALPHABET = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789".getBytes(StandardCharsets.US_ASCII);
+    // 14 indexes of 5 bits fit in 9 bytes; the two spare bits are dropped.
+    private static final int BYTES_PER_CODE = (CODE_LENGTH * 5 + 7) / 8;
+    private static final int CODES_PER_BLOCK = 512;
+    private static final SecureRandom SEEDER = new SecureRandom();
+    private static final ThreadLocal<PinGenerator> LOCAL = ThreadLocal.withInitial(PinGenerator::new);
+
+    private final SecureRandom drbg;
+    private final byte[] block = new byte[CODES_PER_BLOCK * BYTES_PER_CODE];
+    private int position = block.length;
+
+    private PinGenerator() {
+        try {
+            byte[] personalization;
+            synchronized (SEEDER) {
+                personalization = SEEDER.generateSeed(32);
+            }
+            drbg = SecureRandom.getInstance("DRBG",
+                    DrbgParameters.instantiation(256, DrbgParameters.Capability.RESEED_ONLY, personalization));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("DRBG is not available", e);
+        }
+    }
+
+    static String next() {
+        return LOCAL.get().code();
+    }
+
+    static List<String> next(int count) {
+        PinGenerator generator = LOCAL.get();
+        List<String> codes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            codes.add(generator.code());
+        }
+        return codes;
+    }
+
+    private String code() {
+        if (position == block.length) {
+            drbg.nextBytes(block);
+            position = 0;
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (block[position + i] & 0xFF);
+        }
+        int spare = block[position + 8] & 0xFF;
+        position += BYTES_PER_CODE;
+        byte[] code = new byte[CODE_LENGTH];
+        for (int i = 0; i < 12; i++) {
+            code[i] = ALPHABET[(int) (bits >>> (59 - 5 * i)) & 31];
+        }
+        // The 64-bit word leaves 4 bits over; the ninth byte supplies the rest of the last two indexes.
+        int tail = (int) (bits & 0xF) << 8 | spare;
+        code[12] = ALPHABET[(tail >>> 7) & 31];
+        code[13] = ALPHABET[(tail >>> 2) & 31];
+        return new String(code, StandardCharsets.ISO_8859_1);
+    }
+}
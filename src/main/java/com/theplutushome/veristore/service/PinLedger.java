@@ -0,0 +1,544 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+import com.theplutushome.veristore.service.journal.ByteBufferInput;
+import com.theplutushome.veristore.service.journal.MappedJournal;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Durable PIN inventory for {@link PinVault}. Each SKU's codes live in a memory-mapped file of fixed
+ * {@value OffHeapPinRing#CODE_LENGTH}-byte slots and are consumed strictly in slot order, so a take is
+ * just a range of slot offsets. A {@link MappedJournal} ledger records how far each SKU has been stocked
+ * and every range taken, keyed by the invoice it was taken for.
+ * <p>
+ * Stock slots are forced before the ledger makes them visible, and a take returns only after its
+ * ledger record is durable, so after a crash no handed-out code is handed out again. A retried take
+ * for the same invoice and SKU returns the codes recorded the first time instead of consuming new ones.
+ * <p>
+ * Once the ledger has grown by a segment since the last {@link #checkpoint}, the next one writes every
+ * SKU's stock and take positions and the open reservations to a checkpoint file and drops the journal
+ * segments it covers; {@link #open} loads it and replays only the tail. Mutations hold the read side
+ * of {@link #gate} while they update state and append their record, so a checkpoint sees both or neither.
+ */
+final class PinLedger implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(PinLedger.class.getName());
+
+    static final byte STOCKED = 1;
+    static final byte TAKEN = 2;
+    static final byte SETTLED = 3;
+    static final byte RELEASED = 4;
+
+    private static final int CODE_LENGTH = OffHeapPinRing.CODE_LENGTH;
+    private static final int CODES_PER_REGION = 1 << 20;
+    private static final byte CHECKPOINT_END = 0;
+    private static final int CHECKPOINT_MAGIC = 0x56504C43; // "VPLC"
+    private static final int CHECKPOINT_VERSION = 1;
+
+    private final Path directory;
+    private final Path checkpointFile;
+    private final MappedJournal journal;
+    private final int segmentSize;
+    private final Map<ProductKey, Stock> stocks = new ConcurrentHashMap<>();
+    private final Map<String, Map<ProductKey, Range>> reservations = new ConcurrentHashMap<>();
+    private final ReadWriteLock gate = new ReentrantReadWriteLock();
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    private volatile long checkpointPosition;
+
+    private PinLedger(Path directory, MappedJournal journal, int segmentSize) {
+        this.directory = directory;
+        this.checkpointFile = directory.resolve("pin-ledger.checkpoint");
+        this.journal = journal;
+        this.segmentSize = segmentSize;
+    }
+
+    static PinLedger open(Path directory, int segmentSize) {
+        PinLedger ledger = new PinLedger(directory, MappedJournal.open(directory, "pin-ledger", segmentSize), segmentSize);
+        long started = System.nanoTime();
+        long from = ledger.loadCheckpoint();
+        int[] replayed = {0};
+        ledger.journal.replay(from, (position, payload) -> {
+            ledger.apply(new ByteBufferInput(payload));
+            replayed[0]++;
+        });
+        ledger.checkpointPosition = from;
+        LOGGER.log(Level.INFO, "Recovered PIN ledger for {0} SKUs, replaying {1} records, in {2} ms",
+                new Object[]{ledger.stocks.size(), replayed[0], (System.nanoTime() - started) / 1_000_000});
+        return ledger;
+    }
+
+    Set<ProductKey> keys() {
+        return stocks.keySet();
+    }
+
+    int available(ProductKey key) {
+        Stock stock = stocks.get(key);
+        return stock == null ? 0 : (int) Math.min(Integer.MAX_VALUE, stock.stocked - stock.head);
+    }
+
+    /**
+     * Appends codes to the SKU's stock. They become available to {@link #take} once both the slots and
+     * the ledger record saying they exist are on disk.
+     */
+    void stock(ProductKey key, List<String> codes) {
+        if (codes.isEmpty()) {
+            return;
+        }
+        Stock stock = stock(key);
+        stock.refillLock.lock();
+        try {
+            long from = stock.stocked;
+            for (int i = 0; i < codes.size(); i++) {
+                stock.write(from + i, codes.get(i));
+            }
+            stock.force(from, from + codes.size());
+            long to = from + codes.size();
+            gate.readLock().lock();
+            try {
+                journal.appendAndSync(encode(STOCKED, out -> {
+                    writeKey(out, key);
+                    out.writeLong(to);
+                }));
+                stock.stocked = to;
+            } finally {
+                gate.readLock().unlock();
+            }
+        } finally {
+            stock.refillLock.unlock();
+        }
+    }
+
+    /**
+     * Takes {@code quantity} codes for {@code invoiceNo}, or returns the codes already taken for it.
+     * Returns empty when the SKU holds fewer than {@code quantity} codes. A {@code null} invoice number
+     * takes codes without recording who they went to.
+     */
+    Optional<List<String>> take(String invoiceNo, ProductKey key, int quantity) {
+        Stock stock = stock(key);
+        Range range;
+        long position;
+        stock.takeLock.lock();
+        try {
+            Range previous = invoiceNo == null ? null : reservations.getOrDefault(invoiceNo, Map.of()).get(key);
+            if (previous != null) {
+                if (previous.count != quantity) {
+                    throw new IllegalStateException("Invoice " + invoiceNo + " already took " + previous.count
+                            + " codes for " + key + ", not " + quantity);
+                }
+                range = previous;
+                position = -1;
+            } else {
+                if (stock.stocked - stock.head < quantity) {
+                    return Optional.empty();
+                }
+                range = new Range(stock.head, quantity);
+                gate.readLock().lock();
+                try {
+                    stock.head += quantity;
+                    position = journal.append(encode(TAKEN, out -> {
+                        out.writeUTF(invoiceNo == null ? "" : invoiceNo);
+                        writeKey(out, key);
+                        out.writeLong(range.from);
+                        out.writeInt(range.count);
+                    }));
+                    if (invoiceNo != null) {
+                        reservations.computeIfAbsent(invoiceNo, k -> new ConcurrentHashMap<>()).put(key, range);
+                    }
+                } finally {
+                    gate.readLock().unlock();
+                }
+            }
+        } finally {
+            stock.takeLock.unlock();
+        }
+        if (position >= 0) {
+            // Outside the lock, so concurrent takes share one fsync.
+            journal.sync(position);
+        }
+        List<String> codes = new ArrayList<>(range.count);
+        for (int i = 0; i < range.count; i++) {
+            codes.add(stock.read(range.from + i));
+        }
+        return Optional.of(codes);
+    }
+
+    /**
+     * Forgets the codes reserved for an invoice once they are safely recorded on it. The record is
+     * not synced: losing it only means a retry would see the same codes again.
+     */
+    void settle(String invoiceNo) {
+        gate.readLock().lock();
+        try {
+            if (reservations.remove(invoiceNo) != null) {
+                journal.append(encode(SETTLED, out -> out.writeUTF(invoiceNo)));
+            }
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Puts the codes reserved for an invoice back into stock, for one SKU or, with a {@code null} key,
+     * all of them. The release record is made durable first: a crash before the codes are restocked
+     * loses them, but can never hand them out twice.
+     */
+    void release(String invoiceNo, ProductKey key) {
+        Map<ProductKey, Range> taken = reservations.get(invoiceNo);
+        if (taken == null) {
+            return;
+        }
+        Map<ProductKey, Range> released = new HashMap<>();
+        long position = -1;
+        gate.readLock().lock();
+        try {
+            for (ProductKey candidate : List.copyOf(taken.keySet())) {
+                Range range;
+                if ((key == null || candidate.equals(key)) && (range = taken.remove(candidate)) != null) {
+                    released.put(candidate, range);
+                    position = journal.append(encode(RELEASED, out -> {
+                        out.writeUTF(invoiceNo);
+                        writeKey(out, candidate);
+                    }));
+                }
+            }
+            if (taken.isEmpty()) {
+                reservations.remove(invoiceNo, taken);
+            }
+        } finally {
+            gate.readLock().unlock();
+        }
+        if (position >= 0) {
+            journal.sync(position);
+        }
+        released.forEach((releasedKey, range) -> {
+            Stock stock = stock(releasedKey);
+            List<String> codes = new ArrayList<>(range.count);
+            for (int i = 0; i < range.count; i++) {
+                codes.add(stock.read(range.from + i));
+            }
+            stock(releasedKey, codes);
+        });
+    }
+
+    /**
+     * Checkpoints once the journal has grown by a segment since the last checkpoint.
+     */
+    void checkpointIfDue() {
+        if (journal.position() - checkpointPosition >= segmentSize) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Writes stock positions and open reservations to the checkpoint file, then drops the journal
+     * segments it covers. Records past the checkpoint may not be durable yet; recovering their effect
+     * from the checkpoint can only lose codes, never hand one out twice.
+     */
+    void checkpoint() {
+        checkpointLock.lock();
+        try {
+            long marker;
+            Map<ProductKey, long[]> positions = new HashMap<>();
+            Map<String, Map<ProductKey, Range>> open = new HashMap<>();
+            gate.writeLock().lock();
+            try {
+                marker = journal.position();
+                stocks.forEach((key, stock) -> positions.put(key, new long[]{stock.stocked, stock.head}));
+                reservations.forEach((invoiceNo, taken) -> open.put(invoiceNo, Map.copyOf(taken)));
+            } finally {
+                gate.writeLock().unlock();
+            }
+            if (marker == checkpointPosition) {
+                return;
+            }
+            writeCheckpoint(marker, positions, open);
+            checkpointPosition = marker;
+            journal.truncateBefore(marker);
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            checkpoint();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to checkpoint the PIN ledger; the next start replays its journal", e);
+        }
+        journal.close();
+        for (Stock stock : stocks.values()) {
+            stock.close();
+        }
+    }
+
+    private Stock stock(ProductKey key) {
+        return stocks.computeIfAbsent(key, k -> new Stock(directory.resolve(fileName(k))));
+    }
+
+    private void apply(DataInput in) {
+        try {
+            byte type = in.readByte();
+            switch (type) {
+                case STOCKED -> {
+                    Stock stock = stock(readKey(in));
+                    stock.stocked = Math.max(stock.stocked, in.readLong());
+                }
+                case TAKEN -> {
+                    String invoiceNo = in.readUTF();
+                    ProductKey key = readKey(in);
+                    Range range = new Range(in.readLong(), in.readInt());
+                    Stock stock = stock(key);
+                    stock.head = Math.max(stock.head, range.from + range.count);
+                    if (!invoiceNo.isEmpty()) {
+                        reservations.computeIfAbsent(invoiceNo, k -> new ConcurrentHashMap<>()).put(key, range);
+                    }
+                }
+                case SETTLED -> reservations.remove(in.readUTF());
+                case RELEASED -> {
+                    String invoiceNo = in.readUTF();
+                    ProductKey key = readKey(in);
+                    Map<ProductKey, Range> taken = reservations.get(invoiceNo);
+                    if (taken != null && taken.remove(key) != null && taken.isEmpty()) {
+                        reservations.remove(invoiceNo);
+                    }
+                }
+                default -> throw new IllegalStateException("Unknown PIN ledger record type " + type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt PIN ledger record", e);
+        }
+    }
+
+    private void writeCheckpoint(long marker, Map<ProductKey, long[]> positions, Map<String, Map<ProductKey, Range>> open) {
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(file, new CRC32C());
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked, 1 << 16));
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeInt(CHECKPOINT_VERSION);
+            out.writeLong(marker);
+            for (Map.Entry<ProductKey, long[]> position : positions.entrySet()) {
+                out.writeByte(STOCKED);
+                writeKey(out, position.getKey());
+                out.writeLong(position.getValue()[0]);
+                out.writeLong(position.getValue()[1]);
+            }
+            for (Map.Entry<String, Map<ProductKey, Range>> reservation : open.entrySet()) {
+                for (Map.Entry<ProductKey, Range> taken : reservation.getValue().entrySet()) {
+                    out.writeByte(TAKEN);
+                    out.writeUTF(reservation.getKey());
+                    writeKey(out, taken.getKey());
+                    out.writeLong(taken.getValue().from);
+                    out.writeInt(taken.getValue().count);
+                }
+            }
+            out.writeByte(CHECKPOINT_END);
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getChannel().force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to write PIN ledger checkpoint", e);
+        }
+        try {
+            Files.move(temp, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to publish PIN ledger checkpoint", e);
+        }
+    }
+
+    private long loadCheckpoint() {
+        if (!Files.exists(checkpointFile)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(checkpointFile, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int bodyLength = mapped.limit() - Long.BYTES;
+            CRC32C crc = new CRC32C();
+            if (bodyLength > 0) {
+                crc.update(mapped.slice(0, bodyLength));
+            }
+            if (bodyLength <= 0 || mapped.getLong(bodyLength) != crc.getValue()) {
+                throw new IllegalStateException("PIN ledger checkpoint checksum mismatch in " + checkpointFile);
+            }
+            DataInput in = new ByteBufferInput(mapped.slice(0, bodyLength));
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+                throw new IllegalStateException("Unrecognised PIN ledger checkpoint format in " + checkpointFile);
+            }
+            long marker = in.readLong();
+            byte type;
+            while ((type = in.readByte()) != CHECKPOINT_END) {
+                switch (type) {
+                    case STOCKED -> {
+                        Stock stock = stock(readKey(in));
+                        stock.stocked = in.readLong();
+                        stock.head = in.readLong();
+                    }
+                    case TAKEN -> {
+                        String invoiceNo = in.readUTF();
+                        ProductKey key = readKey(in);
+                        reservations.computeIfAbsent(invoiceNo, k -> new ConcurrentHashMap<>())
+                                .put(key, new Range(in.readLong(), in.readInt()));
+                    }
+                    default -> throw new IllegalStateException("Unknown PIN ledger checkpoint record type " + type);
+                }
+            }
+            return marker;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to read PIN ledger checkpoint " + checkpointFile, e);
+        }
+    }
+
+    private static String fileName(ProductKey key) {
+        return (key.family().name() + "-" + key.sku()).replaceAll("[^A-Za-z0-9_-]", "_") + ".pins";
+    }
+
+    private static void writeKey(DataOutput out, ProductKey key) throws IOException {
+        out.writeUTF(key.family().name());
+        out.writeUTF(key.sku());
+    }
+
+    private static ProductKey readKey(DataInput in) throws IOException {
+        return OrderStore.intern(new ProductKey(ProductFamily.valueOf(in.readUTF()), in.readUTF()));
+    }
+
+    private static byte[] encode(byte type, RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+
+        void write(DataOutput out) throws IOException;
+    }
+
+    private record Range(long from, int count) {
+    }
+
+    /**
+     * One SKU's slot file, mapped in regions of {@value #CODES_PER_REGION} codes as it grows. Takes and
+     * refills use separate locks: refills only write slots at or past {@code stocked}, which takes
+     * never read until {@code stocked} is advanced.
+     */
+    private static final class Stock {
+
+        private final Path path;
+        private final ReentrantLock takeLock = new ReentrantLock();
+        private final ReentrantLock refillLock = new ReentrantLock();
+        private volatile MappedByteBuffer[] regions = new MappedByteBuffer[0];
+        private FileChannel channel;
+        private volatile long stocked;
+        private volatile long head;
+
+        Stock(Path path) {
+            this.path = path;
+        }
+
+        void write(long index, String code) {
+            if (code.length() != CODE_LENGTH) {
+                throw new IllegalArgumentException("codes must be " + CODE_LENGTH + " characters");
+            }
+            MappedByteBuffer region = region(index);
+            int offset = offset(index);
+            for (int i = 0; i < CODE_LENGTH; i++) {
+                region.put(offset + i, (byte) code.charAt(i));
+            }
+        }
+
+        String read(long index) {
+            byte[] code = new byte[CODE_LENGTH];
+            region(index).get(offset(index), code);
+            return new String(code, StandardCharsets.US_ASCII);
+        }
+
+        void force(long from, long to) {
+            for (long index = from; index < to; ) {
+                long regionEnd = Math.min(to, (index / CODES_PER_REGION + 1) * CODES_PER_REGION);
+                region(index).force(offset(index), (int) (regionEnd - index) * CODE_LENGTH);
+                index = regionEnd;
+            }
+        }
+
+        private MappedByteBuffer region(long index) {
+            int number = (int) (index / CODES_PER_REGION);
+            MappedByteBuffer[] mapped = regions;
+            return number < mapped.length ? mapped[number] : map(number);
+        }
+
+        private synchronized MappedByteBuffer map(int number) {
+            MappedByteBuffer[] mapped = regions;
+            if (number < mapped.length) {
+                return mapped[number];
+            }
+            try {
+                if (channel == null) {
+                    Files.createDirectories(path.getParent());
+                    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                }
+                MappedByteBuffer[] grown = Arrays.copyOf(mapped, number + 1);
+                for (int i = mapped.length; i <= number; i++) {
+                    long bytes = (long) CODES_PER_REGION * CODE_LENGTH;
+                    grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * bytes, bytes);
+                }
+                regions = grown;
+                return grown[number];
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unable to map PIN stock " + path, e);
+            }
+        }
+
+        private static int offset(long index) {
+            return (int) (index % CODES_PER_REGION) * CODE_LENGTH;
+        }
+
+        synchronized void close() {
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to close PIN stock " + path, e);
+            }
+        }
+    }
+}
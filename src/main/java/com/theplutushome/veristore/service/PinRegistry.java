@@ -0,0 +1,437 @@
+package com.theplutushome.veristore.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Every PIN the vault has ever issued, so a freshly generated code that collides with an old one can
+ * be discarded. Lookups first consult a blocked Bloom filter (one 64-byte block per code, one bit in
+ * each of its eight words), sized to a power of two of at least {@value #BLOOM_BITS_PER_CODE} bits
+ * per code at the table's full load, which answers "never seen" for almost every new code after
+ * touching a single cache line. Only probable hits fall through to the exact set: an open-addressing
+ * table of 16-byte slots holding each code packed into 70 bits.
+ * <p>
+ * Both live in memory-mapped files sized for {@code capacity} codes and are only forced at
+ * checkpoints. Durability between checkpoints comes from a sequential log of newly registered codes,
+ * forced once per {@link #register} batch and replayed into the table and filter on open; a
+ * checkpoint forces both, then empties the log. A batch that would fill the table past three quarters,
+ * or a reopen with a larger capacity, rebuilds both into new files at least twice the size; the meta
+ * file switches to them in one write, so a crash mid-rebuild leaves the old ones in use.
+ */
+final class PinRegistry implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(PinRegistry.class.getName());
+    private static final byte[] INDEX = new byte[128];
+    private static final int SLOT_BYTES = 16;
+    private static final int BLOCK_LONGS = 8;
+    private static final int BLOOM_BITS_PER_CODE = 12;
+    private static final long MAGIC = 0x5650494E52454731L; // "VPINREG1"
+    private static final long REGION_BYTES = 1L << 30;
+    private static final int META_BYTES = 4096;
+    private static final long CHECKPOINT_LOG_BYTES = 64L << 20;
+
+    static {
+        Arrays.fill(INDEX, (byte) -1);
+        String alphabet = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789";
+        for (int i = 0; i < alphabet.length(); i++) {
+            INDEX[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final Path directory;
+    private final MappedByteBuffer meta;
+    private final FileChannel log;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long slots;
+    private long blocks;
+    private long generation;
+    private MappedByteBuffer[] table;
+    private MappedByteBuffer[] bloom;
+    private long count;
+
+    private PinRegistry(Path directory, long capacity) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        this.meta = map("issued.meta", META_BYTES, 1)[0];
+        long configuredSlots = Long.highestOneBit(Math.max(2, capacity) * 2 - 1) * 2;
+        if (meta.getLong(0) == MAGIC) {
+            this.slots = meta.getLong(8);
+            this.count = meta.getLong(16);
+            // Registries written before the block count was recorded used the rounded-down size.
+            long recorded = meta.getLong(32);
+            this.blocks = recorded != 0 ? recorded
+                    : Long.highestOneBit(Math.max(1, slots / 2 * BLOOM_BITS_PER_CODE / (BLOCK_LONGS * 64)));
+            this.generation = meta.getLong(40);
+        } else {
+            this.slots = configuredSlots;
+            this.count = 0;
+            this.blocks = bloomBlocks(slots);
+        }
+        deleteOtherGenerations();
+        this.table = map(tableFile(generation), slots * SLOT_BYTES, regions(slots * SLOT_BYTES));
+        this.bloom = map(bloomFile(generation), blocks * BLOCK_LONGS * 8, regions(blocks * BLOCK_LONGS * 8));
+        meta.putLong(8, slots);
+        meta.putLong(16, count);
+        meta.putLong(32, blocks);
+        meta.putLong(40, generation);
+        meta.putLong(0, MAGIC);
+        meta.force();
+        this.log = FileChannel.open(directory.resolve("issued.log"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        replayLog();
+        if (configuredSlots > slots) {
+            rebuild(configuredSlots);
+        }
+    }
+
+    /**
+     * @param capacity number of codes the registry is sized for; a registry reopened with a larger
+     *                 capacity is rebuilt to fit it, one reopened with a smaller capacity keeps its size
+     */
+    static PinRegistry open(Path directory, long capacity) {
+        try {
+            return new PinRegistry(directory, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open PIN registry in " + directory, e);
+        }
+    }
+
+    long size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records the codes that have never been issued and returns them; codes seen before are dropped.
+     */
+    List<String> register(List<String> codes) {
+        List<String> fresh = new ArrayList<>(codes.size());
+        lock.lock();
+        try {
+            if (count + codes.size() > maxCodes(slots)) {
+                long grown = slots * 2;
+                while (count + codes.size() > maxCodes(grown)) {
+                    grown *= 2;
+                }
+                rebuild(grown);
+            }
+            ByteBuffer entries = ByteBuffer.allocate(codes.size() * SLOT_BYTES);
+            for (String code : codes) {
+                long hi = high(code);
+                long lo = low(code);
+                if (add(hi, lo)) {
+                    entries.putLong(hi).putLong(lo);
+                    fresh.add(code);
+                    count++;
+                }
+            }
+            if (!fresh.isEmpty()) {
+                entries.flip();
+                while (entries.hasRemaining()) {
+                    log.write(entries, log.size());
+                }
+                log.force(false);
+                if (log.size() >= CHECKPOINT_LOG_BYTES) {
+                    checkpoint();
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to record issued PINs", e);
+        } finally {
+            lock.unlock();
+        }
+        return fresh;
+    }
+
+    boolean contains(String code) {
+        long hi = high(code);
+        long lo = low(code);
+        long hash = mix(lo ^ (hi * 0x9E3779B97F4A7C15L));
+        lock.lock();
+        try {
+            return mightContain(hash) && tableContains(hash, hi, lo);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            checkpoint();
+            log.close();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to close PIN registry", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean mightContain(long hash) {
+        long block = hash >>> 32 & (blocks - 1);
+        long bits = mix(hash + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            long bit = 1L << (bits >>> (6 * i) & 63);
+            if ((word(block, i) & bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void bloomAdd(long hash) {
+        long block = hash >>> 32 & (blocks - 1);
+        long bits = mix(hash + 0x9E3779B97F4A7C15L);
+        for (int i = 0; i < BLOCK_LONGS; i++) {
+            long offset = (block * BLOCK_LONGS + i) * 8;
+            MappedByteBuffer region = bloom[(int) (offset / REGION_BYTES)];
+            int at = (int) (offset % REGION_BYTES);
+            region.putLong(at, region.getLong(at) | 1L << (bits >>> (6 * i) & 63));
+        }
+    }
+
+    private long word(long block, int index) {
+        long offset = (block * BLOCK_LONGS + index) * 8;
+        return bloom[(int) (offset / REGION_BYTES)].getLong((int) (offset % REGION_BYTES));
+    }
+
+    private boolean tableContains(long hash, long hi, long lo) {
+        for (long slot = hash & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+            long offset = slot * SLOT_BYTES;
+            MappedByteBuffer region = table[(int) (offset / REGION_BYTES)];
+            int at = (int) (offset % REGION_BYTES);
+            long storedHi = region.getLong(at);
+            if (storedHi == 0) {
+                return false;
+            }
+            if (storedHi == hi && region.getLong(at + 8) == lo) {
+                return true;
+            }
+        }
+    }
+
+    private void tableInsert(long hash, long hi, long lo) {
+        for (long slot = hash & (slots - 1); ; slot = (slot + 1) & (slots - 1)) {
+            long offset = slot * SLOT_BYTES;
+            MappedByteBuffer region = table[(int) (offset / REGION_BYTES)];
+            int at = (int) (offset % REGION_BYTES);
+            if (region.getLong(at) == 0) {
+                region.putLong(at + 8, lo);
+                region.putLong(at, hi);
+                return;
+            }
+        }
+    }
+
+    private boolean add(long hi, long lo) {
+        long hash = mix(lo ^ (hi * 0x9E3779B97F4A7C15L));
+        if (mightContain(hash) && tableContains(hash, hi, lo)) {
+            return false;
+        }
+        tableInsert(hash, hi, lo);
+        bloomAdd(hash);
+        return true;
+    }
+
+    /**
+     * Every logged code was new when it was logged, so each one past the checkpointed count is counted,
+     * even if the mapped table already held it when the process died.
+     */
+    private void replayLog() throws IOException {
+        long length = log.size() / SLOT_BYTES * SLOT_BYTES;
+        long counted = Math.min(meta.getLong(24), length);
+        if (length == 0) {
+            return;
+        }
+        long started = System.nanoTime();
+        ByteBuffer entries = ByteBuffer.allocate(1 << 16);
+        for (long position = 0; position < length; ) {
+            entries.clear().limit((int) Math.min(entries.capacity(), length - position));
+            while (entries.hasRemaining()) {
+                position += log.read(entries, position);
+            }
+            entries.flip();
+            for (long entry = position - entries.remaining(); entries.hasRemaining(); entry += SLOT_BYTES) {
+                add(entries.getLong(), entries.getLong());
+                if (entry >= counted) {
+                    count++;
+                }
+            }
+        }
+        LOGGER.log(Level.INFO, "Replayed {0} issued PINs since the last registry checkpoint in {1} ms",
+                new Object[]{length / SLOT_BYTES, (System.nanoTime() - started) / 1_000_000});
+        checkpoint();
+    }
+
+    private void checkpoint() throws IOException {
+        for (MappedByteBuffer region : table) {
+            region.force();
+        }
+        for (MappedByteBuffer region : bloom) {
+            region.force();
+        }
+        // Record how much of the log the count already covers, in case we die before emptying it.
+        meta.putLong(16, count);
+        meta.putLong(24, log.size());
+        meta.force();
+        log.truncate(0);
+        log.force(false);
+        meta.putLong(24, 0);
+        meta.force();
+    }
+
+    /**
+     * Rehashes every code into a fresh table and filter of {@code newSlots} slots under the next
+     * generation's file names, forces them, then points the meta file at them and deletes the old ones.
+     * The log is checkpointed first, so it never holds codes the new files lack.
+     */
+    private void rebuild(long newSlots) throws IOException {
+        long started = System.nanoTime();
+        checkpoint();
+        long oldSlots = slots;
+        MappedByteBuffer[] oldTable = table;
+        long newGeneration = generation + 1;
+        slots = newSlots;
+        blocks = bloomBlocks(newSlots);
+        table = map(tableFile(newGeneration), slots * SLOT_BYTES, regions(slots * SLOT_BYTES));
+        bloom = map(bloomFile(newGeneration), blocks * BLOCK_LONGS * 8, regions(blocks * BLOCK_LONGS * 8));
+        for (long slot = 0; slot < oldSlots; slot++) {
+            long offset = slot * SLOT_BYTES;
+            MappedByteBuffer region = oldTable[(int) (offset / REGION_BYTES)];
+            int at = (int) (offset % REGION_BYTES);
+            long hi = region.getLong(at);
+            if (hi != 0) {
+                long lo = region.getLong(at + 8);
+                long hash = mix(lo ^ (hi * 0x9E3779B97F4A7C15L));
+                tableInsert(hash, hi, lo);
+                bloomAdd(hash);
+            }
+        }
+        for (MappedByteBuffer region : table) {
+            region.force();
+        }
+        for (MappedByteBuffer region : bloom) {
+            region.force();
+        }
+        generation = newGeneration;
+        meta.putLong(8, slots);
+        meta.putLong(32, blocks);
+        meta.putLong(40, generation);
+        meta.force();
+        deleteOtherGenerations();
+        LOGGER.log(Level.INFO, "Rebuilt the PIN registry from {0} to {1} slots for {2} codes in {3} ms",
+                new Object[]{oldSlots, slots, count, (System.nanoTime() - started) / 1_000_000});
+    }
+
+    /**
+     * Files of an older generation, or of a newer one a crash cut short, are never mapped again.
+     */
+    private void deleteOtherGenerations() throws IOException {
+        Set<String> current = Set.of(tableFile(generation), bloomFile(generation));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "issued.{table,bloom}*")) {
+            for (Path file : files) {
+                if (!current.contains(file.getFileName().toString())) {
+                    try {
+                        Files.delete(file);
+                    } catch (IOException e) {
+                        // Still mapped on some platforms; the next open removes it.
+                        LOGGER.log(Level.FINE, "Unable to delete stale PIN registry file " + file, e);
+                    }
+                }
+            }
+        }
+    }
+
+    // Registries from before rebuilds existed use the unsuffixed names as generation 0.
+    private static String tableFile(long generation) {
+        return generation == 0 ? "issued.table" : "issued.table." + generation;
+    }
+
+    private static String bloomFile(long generation) {
+        return generation == 0 ? "issued.bloom" : "issued.bloom." + generation;
+    }
+
+    // Past three-quarters full, linear probing degrades quickly.
+    private static long maxCodes(long slots) {
+        return slots * 3 / 4;
+    }
+
+    private static long bloomBlocks(long slots) {
+        return ceilingPowerOfTwo(Math.max(1, maxCodes(slots) * BLOOM_BITS_PER_CODE / (BLOCK_LONGS * 64)));
+    }
+
+    private static int regions(long bytes) {
+        return (int) Math.max(1, bytes / REGION_BYTES);
+    }
+
+    private static long ceilingPowerOfTwo(long value) {
+        return value <= 1 ? 1 : Long.highestOneBit(value - 1) << 1;
+    }
+
+    // A mapping stays valid once its channel is closed.
+    private MappedByteBuffer[] map(String name, long bytes, int regions) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(name),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer[] mapped = new MappedByteBuffer[regions];
+            long regionBytes = bytes / regions;
+            for (int i = 0; i < regions; i++) {
+                mapped[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * regionBytes, regionBytes);
+            }
+            return mapped;
+        }
+    }
+
+    // Twelve 5-bit indexes in the low word, the last two plus a marker bit (so no code packs to 0) in the high word.
+    private static long low(String code) {
+        long value = 0;
+        for (int i = 0; i < 12; i++) {
+            value = value << 5 | index(code, i);
+        }
+        return value;
+    }
+
+    private static long high(String code) {
+        if (code.length() != PinGenerator.CODE_LENGTH) {
+            throw new IllegalArgumentException("codes must be " + PinGenerator.CODE_LENGTH + " characters");
+        }
+        return 1L << 10 | index(code, 12) << 5 | index(code, 13);
+    }
+
+    private static long index(String code, int position) {
+        char c = code.charAt(position);
+        int index = c < 128 ? INDEX[c] : -1;
+        if (index < 0) {
+            throw new IllegalArgumentException("Code contains a character outside the PIN alphabet");
+        }
+        return index;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -5,80 +5,544 @@ import com.theplutushome.veristore.model.catalog.ProductFamily;
 import com.theplutushome.veristore.model.catalog.ProductKey;
 import com.theplutushome.veristore.model.catalog.VerificationSku;
 
+import com.theplutushome.veristore.util.HashedWheelTimer;
+import com.theplutushome.veristore.util.LatencyHistogram;
+
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 
 import java.io.Serial;
 import java.io.Serializable;
-import java.security.SecureRandom;
-import java.util.ArrayDeque;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Deque;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
+/**
+ * Pre-generated PINs per SKU, topped up in the background. With {@code veristore.vault.dir} set, stock
+ * lives in a crash-safe {@link PinLedger} and every generated PIN is checked against the
+ * {@link PinRegistry} of all PINs issued from that directory. Without it, stock is held in memory and
+ * no PIN is checked against earlier ones: uniqueness then rests on the 70-bit code space alone.
+ */
 @ApplicationScoped
 public class PinVault implements Serializable {
 
     @Serial
     private static final long serialVersionUID = 1L;
 
-    private static final int SEED_QUANTITY = 10;
-    private static final char[] ALLOWED = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789".toCharArray();
+    private static final Logger LOGGER = Logger.getLogger(PinVault.class.getName());
+    private static final int LOW_WATERMARK = Integer.getInteger("veristore.vault.lowWatermark", 64);
+    private static final int HIGH_WATERMARK = Integer.getInteger("veristore.vault.highWatermark", 512);
+    private static final long REPLENISH_INTERVAL_MILLIS = Long.getLong("veristore.vault.replenishMillis", 1000);
+    private static final long BUFFER_SECONDS = Long.getLong("veristore.vault.bufferSeconds", 30);
+    private static final int OFF_HEAP_SLOTS = Integer.getInteger("veristore.vault.offHeapSlots", 0);
+    private static final int FILL_BATCH = 256;
+    private static final String VAULT_DIR = System.getProperty("veristore.vault.dir");
+    private static final int LEDGER_SEGMENT_BYTES = Integer.getInteger("veristore.vault.ledgerSegmentMb", 16) << 20;
+    private static final long REGISTRY_CAPACITY = Long.getLong("veristore.vault.registryCapacity", 1L << 24);
+    private static final long RESERVATION_MINUTES = Long.getLong("veristore.vault.reservationMinutes", 25 * 60);
+
+    private final transient Map<ProductKey, Shelf> stock = new ConcurrentHashMap<>();
+    private final int offHeapSlots;
+    private final transient LongAdder inlineGenerated = new LongAdder();
+    private transient ScheduledExecutorService replenisher;
+    private transient PinLedger ledger;
+    private transient PinRegistry registry;
+    private transient HashedWheelTimer reservationTimer;
+    private transient Duration reservationTtl;
+
+    public PinVault() {
+        this(OFF_HEAP_SLOTS);
+    }
 
-    private final Map<ProductKey, Deque<String>> stock = new ConcurrentHashMap<>();
-    private final SecureRandom random = new SecureRandom();
+    /**
+     * @param offHeapSlots per-SKU capacity of an off-heap {@link OffHeapPinRing}, or 0 to keep stock on the heap
+     */
+    PinVault(int offHeapSlots) {
+        this.offHeapSlots = offHeapSlots;
+    }
 
     @PostConstruct
     void init() {
+        if (VAULT_DIR != null && !VAULT_DIR.isBlank()) {
+            openLedger(Path.of(VAULT_DIR));
+        }
         for (VerificationSku sku : VerificationSku.values()) {
-            ProductKey key = new ProductKey(ProductFamily.VERIFICATION, sku.sku);
-            stock.putIfAbsent(key, new ArrayDeque<>());
-            ensure(key, SEED_QUANTITY);
+            ensure(new ProductKey(ProductFamily.VERIFICATION, sku.sku), LOW_WATERMARK);
         }
         for (EnrollmentSku sku : EnrollmentSku.values()) {
             if (!sku.active) {
                 continue;
             }
-            ProductKey key = new ProductKey(ProductFamily.ENROLLMENT, sku.sku);
-            stock.putIfAbsent(key, new ArrayDeque<>());
-            ensure(key, SEED_QUANTITY);
+            ensure(new ProductKey(ProductFamily.ENROLLMENT, sku.sku), LOW_WATERMARK);
         }
+        startReplenisher(REPLENISH_INTERVAL_MILLIS);
+        if (RESERVATION_MINUTES > 0) {
+            startReservationExpiry(new HashedWheelTimer("pin-reservations", 1, TimeUnit.SECONDS, 4096),
+                    Duration.ofMinutes(RESERVATION_MINUTES));
+        }
+    }
+
+    /**
+     * Keeps stock in a crash-safe {@link PinLedger} under {@code directory} instead of in memory.
+     */
+    void openLedger(Path directory) {
+        openLedger(directory, REGISTRY_CAPACITY);
+    }
+
+    /**
+     * Also checks every generated PIN against a {@link PinRegistry} of all PINs issued from this
+     * directory, sized for {@code registryCapacity} codes.
+     */
+    void openLedger(Path directory, long registryCapacity) {
+        registry = PinRegistry.open(directory.resolve("issued"), registryCapacity);
+        ledger = PinLedger.open(directory, LEDGER_SEGMENT_BYTES);
+    }
+
+    /**
+     * Releases reservations that are neither committed nor released within {@code ttl}.
+     */
+    void startReservationExpiry(HashedWheelTimer timer, Duration ttl) {
+        reservationTtl = ttl;
+        reservationTimer = timer;
+    }
+
+    void startReplenisher(long intervalMillis) {
+        replenisher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pin-replenisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replenisher.scheduleWithFixedDelay(this::sweep, 0, intervalMillis, TimeUnit.MILLISECONDS);
     }
 
-    public synchronized List<String> take(ProductKey key, int quantity) {
+    @PreDestroy
+    void shutdown() {
+        if (replenisher != null) {
+            replenisher.shutdownNow();
+        }
+        if (reservationTimer != null) {
+            reservationTimer.close();
+        }
+        if (ledger != null) {
+            ledger.close();
+        }
+        if (registry != null) {
+            registry.close();
+        }
+    }
+
+    public List<String> take(ProductKey key, int quantity) {
+        return take(null, key, quantity);
+    }
+
+    /**
+     * Takes PINs on behalf of an invoice. With a ledger, retrying the take for the same invoice and
+     * SKU, even after a restart, returns the same PINs until the invoice is {@link #settle settled}.
+     */
+    public List<String> take(String invoiceNo, ProductKey key, int quantity) {
         if (quantity <= 0) {
             throw new IllegalArgumentException("quantity must be positive");
         }
-        Deque<String> deque = stock.computeIfAbsent(key, k -> new ArrayDeque<>());
-        while (deque.size() < quantity) {
-            deque.addLast(generateCode());
+        Shelf shelf = shelf(key);
+        shelf.taken.add(quantity);
+        return takeUncounted(invoiceNo, shelf, quantity);
+    }
+
+    // Reservations take through here, so their PINs count as taken once, when committed.
+    private List<String> takeUncounted(String invoiceNo, Shelf shelf, int quantity) {
+        long started = System.nanoTime();
+        try {
+            return ledger != null ? takeFromLedger(invoiceNo, shelf, quantity) : takeFromShelf(shelf, quantity);
+        } finally {
+            shelf.takeLatency.record(System.nanoTime() - started);
         }
+    }
+
+    private List<String> takeFromShelf(Shelf shelf, int quantity) {
         List<String> pins = new ArrayList<>(quantity);
-        for (int i = 0; i < quantity; i++) {
-            pins.add(deque.removeFirst());
+        String pin;
+        while (pins.size() < quantity && (pin = shelf.poll()) != null) {
+            pins.add(pin);
+        }
+        int missing = quantity - pins.size();
+        if (missing > 0) {
+            // Only an empty shelf costs the buyer generation time; the codes are unique to this caller.
+            countInline(shelf, missing);
+            pins.addAll(PinGenerator.next(missing));
+        }
+        if (shelf.size() < shelf.low) {
+            requestRefill(shelf);
         }
         return pins;
     }
 
+    /**
+     * Sets PINs aside for an invoice when it is created, so paying it only has to {@link #commit} them.
+     * Stock that runs short is generated here rather than on the payment path. Reserving again for
+     * the same invoice and SKU is a no-op.
+     */
+    public void reserve(String invoiceNo, ProductKey key, int quantity) {
+        Objects.requireNonNull(invoiceNo, "invoiceNo");
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("quantity must be positive");
+        }
+        Shelf shelf = shelf(key);
+        if (shelf.reservations.containsKey(invoiceNo)) {
+            return;
+        }
+        // The ledger records the take against the invoice itself; in memory the PINs ride on the reservation.
+        List<String> pins = takeUncounted(invoiceNo, shelf, quantity);
+        Reservation reservation = new Reservation(ledger != null ? null : pins, quantity);
+        if (shelf.reservations.putIfAbsent(invoiceNo, reservation) != null) {
+            if (reservation.pins != null) {
+                shelf.restock(pins);
+            }
+            return;
+        }
+        HashedWheelTimer timer = reservationTimer;
+        if (timer != null) {
+            reservation.timeout = timer.schedule(() -> expire(invoiceNo, shelf, reservation),
+                    reservationTtl.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Hands over the PINs reserved for the invoice, or takes fresh ones if the reservation has expired,
+     * was released or never existed.
+     */
+    public List<String> commit(String invoiceNo, ProductKey key, int quantity) {
+        Objects.requireNonNull(invoiceNo, "invoiceNo");
+        Shelf shelf = shelf(key);
+        Reservation reservation = shelf.reservations.remove(invoiceNo);
+        if (reservation != null) {
+            reservation.cancelTimeout();
+            if (reservation.pins != null) {
+                if (reservation.quantity == quantity) {
+                    shelf.taken.add(quantity);
+                    return reservation.pins;
+                }
+                shelf.restock(reservation.pins);
+            }
+        }
+        return take(invoiceNo, key, quantity);
+    }
+
+    /**
+     * Returns the PINs reserved for a cancelled or expired invoice to stock.
+     */
+    public void release(String invoiceNo) {
+        Objects.requireNonNull(invoiceNo, "invoiceNo");
+        for (Shelf shelf : stock.values()) {
+            Reservation reservation = shelf.reservations.remove(invoiceNo);
+            if (reservation != null) {
+                reservation.cancelTimeout();
+                if (reservation.pins != null) {
+                    shelf.restock(reservation.pins);
+                }
+            }
+        }
+        if (ledger != null) {
+            ledger.release(invoiceNo, null);
+        }
+    }
+
+    // Only if the reservation is still the one the timer was armed for; a commit may have raced it.
+    private void expire(String invoiceNo, Shelf shelf, Reservation reservation) {
+        if (!shelf.reservations.remove(invoiceNo, reservation)) {
+            return;
+        }
+        LOGGER.log(Level.FINE, "PIN reservation for invoice {0} expired", invoiceNo);
+        if (reservation.pins != null) {
+            shelf.restock(reservation.pins);
+        } else {
+            ledger.release(invoiceNo, shelf.key);
+        }
+    }
+
+    /**
+     * Releases the ledger's hold on the PINs taken for an invoice once they are recorded on it.
+     */
+    public void settle(String invoiceNo) {
+        if (ledger != null && invoiceNo != null) {
+            ledger.settle(invoiceNo);
+        }
+    }
+
     public void ensure(ProductKey key, int minimum) {
         if (minimum <= 0) {
             return;
         }
-        synchronized (this) {
-            Deque<String> deque = stock.computeIfAbsent(key, k -> new ArrayDeque<>());
-            while (deque.size() < minimum) {
-                deque.addLast(generateCode());
+        fill(shelf(key), minimum);
+    }
+
+    /**
+     * Number of PINs {@link #take} had to generate on the caller's thread because the shelf was empty.
+     */
+    public long inlineGenerated() {
+        return inlineGenerated.sum();
+    }
+
+    int stocked(ProductKey key) {
+        return available(shelf(key));
+    }
+
+    /**
+     * Point-in-time view of every shelf, for telemetry.
+     */
+    public List<StockLevel> stockLevels() {
+        List<StockLevel> levels = new ArrayList<>(stock.size());
+        for (Shelf shelf : stock.values()) {
+            levels.add(new StockLevel(shelf.key, available(shelf), shelf.low, shelf.high, shelf.ratePerSecond,
+                    shelf.taken.sum(), shelf.inline.sum(), shelf.reservations.size(), shelf.takeLatency.snapshot()));
+        }
+        levels.sort(Comparator.comparing((StockLevel level) -> level.key().family()).thenComparing(level -> level.key().sku()));
+        return levels;
+    }
+
+    private void countInline(Shelf shelf, int count) {
+        inlineGenerated.add(count);
+        shelf.inline.add(count);
+    }
+
+    private List<String> takeFromLedger(String invoiceNo, Shelf shelf, int quantity) {
+        Optional<List<String>> pins;
+        while ((pins = ledger.take(invoiceNo, shelf.key, quantity)).isEmpty()) {
+            int missing = Math.max(1, quantity - ledger.available(shelf.key));
+            countInline(shelf, missing);
+            ledger.stock(shelf.key, uniqueCodes(missing));
+        }
+        if (available(shelf) < shelf.low) {
+            requestRefill(shelf);
+        }
+        return pins.get();
+    }
+
+    private List<String> uniqueCodes(int count) {
+        List<String> codes = registry.register(PinGenerator.next(count));
+        while (codes.size() < count) {
+            int duplicates = count - codes.size();
+            LOGGER.log(Level.FINE, "Discarded {0} previously issued PINs", duplicates);
+            codes.addAll(registry.register(PinGenerator.next(duplicates)));
+        }
+        return codes;
+    }
+
+    private int available(Shelf shelf) {
+        return ledger != null ? ledger.available(shelf.key) : shelf.size();
+    }
+
+    private Shelf shelf(ProductKey key) {
+        Objects.requireNonNull(key, "key");
+        return stock.computeIfAbsent(key, k -> new Shelf(k, ledger != null ? 0 : offHeapSlots));
+    }
+
+    private void requestRefill(Shelf shelf) {
+        ScheduledExecutorService executor = replenisher;
+        if (executor == null || !shelf.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> refill(shelf));
+        } catch (RejectedExecutionException e) {
+            shelf.refilling.set(false);
+        }
+    }
+
+    private void sweep() {
+        try {
+            for (Shelf shelf : stock.values()) {
+                shelf.adapt(REPLENISH_INTERVAL_MILLIS);
+                if (available(shelf) < shelf.low && shelf.refilling.compareAndSet(false, true)) {
+                    refill(shelf);
+                }
             }
+            if (ledger != null) {
+                ledger.checkpointIfDue();
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "PIN replenishment sweep failed", e);
         }
     }
 
-    private String generateCode() {
-        char[] buffer = new char[14];
-        for (int i = 0; i < buffer.length; i++) {
-            buffer[i] = ALLOWED[random.nextInt(ALLOWED.length)];
+    private void refill(Shelf shelf) {
+        try {
+            fill(shelf, shelf.high);
+        } finally {
+            shelf.refilling.set(false);
+        }
+    }
+
+    private void fill(Shelf shelf, int target) {
+        if (ledger != null) {
+            int missing = target - ledger.available(shelf.key);
+            if (missing > 0) {
+                ledger.stock(shelf.key, uniqueCodes(missing));
+            }
+            return;
+        }
+        int reserved;
+        while ((reserved = shelf.reserveBelow(target, FILL_BATCH)) > 0) {
+            if (!shelf.addGenerated(PinGenerator.next(reserved))) {
+                LOGGER.log(Level.FINE, "Off-heap ring for {0} is full; refill stopped early", shelf.key);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Lock-free stock for one SKU. {@code size} counts reserved slots, so it may briefly run ahead of
+     * the queue while a topped-up code is still being generated; takers simply find the queue empty.
+     * The watermarks follow the SKU's take rate so that a busy SKU keeps about
+     * {@code veristore.vault.bufferSeconds} of demand on hand, capped by the off-heap ring if there is one.
+     * Returned PINs the ring has no room for wait on the heap and are handed out first.
+     */
+    private static final class Shelf {
+
+        final ProductKey key;
+        final Map<String, Reservation> reservations = new ConcurrentHashMap<>();
+        private final Queue<String> pins;
+        private final OffHeapPinRing ring;
+        private final Queue<String> overflow;
+        private final int capacity;
+        private final AtomicInteger size = new AtomicInteger();
+        final LongAdder taken = new LongAdder();
+        final LongAdder inline = new LongAdder();
+        final LatencyHistogram takeLatency = new LatencyHistogram();
+        final AtomicBoolean refilling = new AtomicBoolean();
+        volatile int low;
+        volatile int high;
+        volatile double ratePerSecond;
+        private long lastTaken;
+
+        Shelf(ProductKey key, int offHeapSlots) {
+            this.key = key;
+            if (offHeapSlots > 0) {
+                this.pins = null;
+                this.ring = new OffHeapPinRing(offHeapSlots);
+                this.overflow = new ConcurrentLinkedQueue<>();
+                this.capacity = offHeapSlots;
+            } else {
+                this.pins = new ConcurrentLinkedQueue<>();
+                this.ring = null;
+                this.overflow = null;
+                this.capacity = Integer.MAX_VALUE;
+            }
+            this.low = Math.min(LOW_WATERMARK, capacity);
+            this.high = Math.min(HIGH_WATERMARK, capacity);
+        }
+
+        // Called from the replenisher thread only.
+        void adapt(long intervalMillis) {
+            long total = taken.sum();
+            double observed = (total - lastTaken) * 1000.0 / intervalMillis;
+            lastTaken = total;
+            ratePerSecond = ratePerSecond * 0.8 + observed * 0.2;
+            int target = (int) Math.min(Integer.MAX_VALUE / 2, Math.ceil(ratePerSecond * BUFFER_SECONDS));
+            high = Math.min(capacity, Math.max(HIGH_WATERMARK, target));
+            low = Math.min(high, Math.max(LOW_WATERMARK, high / 4));
+        }
+
+        int size() {
+            return size.get();
+        }
+
+        String poll() {
+            String pin = ring == null ? pins.poll() : Optional.ofNullable(overflow.poll()).orElseGet(ring::poll);
+            if (pin != null) {
+                size.decrementAndGet();
+            }
+            return pin;
+        }
+
+        /**
+         * Reserves up to {@code batch} slots without taking the count past {@code minimum}; returns how many.
+         */
+        int reserveBelow(int minimum, int batch) {
+            minimum = Math.min(minimum, capacity);
+            int current;
+            int reserved;
+            do {
+                current = size.get();
+                reserved = Math.min(batch, minimum - current);
+                if (reserved <= 0) {
+                    return 0;
+                }
+            } while (!size.compareAndSet(current, current + reserved));
+            return reserved;
+        }
+
+        void restock(List<String> returned) {
+            size.addAndGet(returned.size());
+            for (String pin : returned) {
+                if (ring == null) {
+                    pins.add(pin);
+                } else if (!ring.offer(pin)) {
+                    overflow.add(pin);
+                }
+            }
+        }
+
+        /**
+         * Fills slots taken with {@link #reserveBelow}. Returns {@code false} once the ring is full,
+         * giving back the slots of the codes that did not fit; those codes were never handed out.
+         */
+        boolean addGenerated(List<String> generated) {
+            for (int i = 0; i < generated.size(); i++) {
+                if (ring == null) {
+                    pins.add(generated.get(i));
+                } else if (!ring.offer(generated.get(i))) {
+                    size.addAndGet(i - generated.size());
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param takeRatePerSecond smoothed rate the watermarks are derived from, refreshed by the replenisher
+     * @param inlineGenerated   PINs generated on the caller's thread because the shelf was empty
+     * @param reservations      invoices currently holding PINs from this shelf
+     */
+    public record StockLevel(ProductKey key, int available, int lowWatermark, int highWatermark,
+                             double takeRatePerSecond, long taken, long inlineGenerated, int reservations,
+                             LatencyHistogram.Snapshot takeLatency) {
+    }
+
+    private static final class Reservation {
+
+        final List<String> pins;
+        final int quantity;
+        volatile HashedWheelTimer.Timeout timeout;
+
+        Reservation(List<String> pins, int quantity) {
+            this.pins = pins;
+            this.quantity = quantity;
+        }
+
+        void cancelTimeout() {
+            HashedWheelTimer.Timeout scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel();
+            }
         }
-        return new String(buffer);
     }
 }
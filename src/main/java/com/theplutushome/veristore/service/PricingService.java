@@ -5,6 +5,7 @@ import com.theplutushome.veristore.model.catalog.ProductKey;
 import com.theplutushome.veristore.model.catalog.VerificationSku;
 import com.theplutushome.veristore.model.Currency;
 import com.theplutushome.veristore.model.Price;
+import com.theplutushome.veristore.util.Tracer;
 
 import jakarta.enterprise.context.ApplicationScoped;
 import java.io.Serial;
@@ -23,12 +24,14 @@ public class PricingService implements Serializable {
         if (key == null) {
             throw new IllegalArgumentException("key must not be null");
         }
-        return switch (key.family()) {
-            case VERIFICATION -> VerificationSku.bySku(key.sku())
-                .orElseThrow(() -> new IllegalArgumentException("Unknown verification SKU: " + key.sku()))
-                .price();
-            case ENROLLMENT -> fetchEnrollmentPrice(key.sku());
-        };
+        try (Tracer.Span span = Tracer.child("pricing.get")) {
+            return switch (key.family()) {
+                case VERIFICATION -> VerificationSku.bySku(key.sku())
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown verification SKU: " + key.sku()))
+                    .price();
+                case ENROLLMENT -> fetchEnrollmentPrice(key.sku());
+            };
+        }
     }
 
     private Price fetchEnrollmentPrice(String sku) {
@@ -10,6 +10,7 @@ import com.theplutushome.veristore.model.SubServiceRecord;
 import com.theplutushome.veristore.model.TransactionRecord;
 import com.theplutushome.veristore.payload.request.TransactionRequest;
 import com.theplutushome.veristore.payload.response.ApiResponse;
+import com.theplutushome.veristore.util.Tracer;
 import jakarta.ejb.Stateless;
 import java.io.IOException;
 import java.util.Collections;
@@ -30,6 +31,7 @@ public class AtlasService {
     private static final String GET_SERVICE_INFO_URL = BASE_URL + "/payment/usage/service_types/subcategory/subservice/";
     private static final String CREATE_TRANSACTION_URL = BASE_URL + "/transaction/create";
     private static final String CONFIRM_TRANSACTION_URL = BASE_URL + "/transaction/confirmed/";
+    private static final String CANCEL_TRANSACTION_URL = BASE_URL + "/transaction/cancel/";
 
     private final ObjectMapper om = new ObjectMapper();
     private final UnirestInstance instance = Unirest.spawnInstance();
@@ -100,6 +102,7 @@ public class AtlasService {
      * Creates a new transaction record.
      */
     public TransactionRecord createTransaction(TransactionRequest transaction) {
+        Tracer.Span span = Tracer.child("atlas.createTransaction");
         try {
             HttpResponse<String> response = instance.post(CREATE_TRANSACTION_URL)
                     .header("Authorization", "Bearer " + AUTH_TOKEN)
@@ -111,9 +114,12 @@ public class AtlasService {
             return apiResponse.getData();
 
         } catch (Exception e) {
+            span.fail();
             System.err.println("Error creating transaction for: " + transaction.getServiceId());
             e.printStackTrace();
             return null;
+        } finally {
+            span.close();
         }
     }
 
@@ -121,6 +127,7 @@ public class AtlasService {
      * Confirms a transaction and retrieves associated PIN records.
      */
     public List<PinRecord> confirmTransaction(String transactionId) {
+        Tracer.Span span = Tracer.child("atlas.confirmTransaction");
         try {
             HttpResponse<String> response = instance.get(CONFIRM_TRANSACTION_URL + transactionId)
                     .header("Authorization", "Bearer " + AUTH_TOKEN)
@@ -130,9 +137,36 @@ public class AtlasService {
             return apiResponse.getData() == null ? Collections.emptyList() : apiResponse.getData();
 
         } catch (Exception e) {
+            span.fail();
             System.err.println("Error confirming transaction for: " + transactionId);
             e.printStackTrace();
             return Collections.emptyList();
+        } finally {
+            span.close();
+        }
+    }
+
+    /**
+     * Cancels a transaction whose PINs will not be delivered, through its cancel URL when Atlas gave one.
+     */
+    public boolean cancelTransaction(String transactionId, String cancelUrl) {
+        Tracer.Span span = Tracer.child("atlas.cancelTransaction");
+        try {
+            String url = cancelUrl == null || cancelUrl.isBlank() ? CANCEL_TRANSACTION_URL + transactionId : cancelUrl;
+            HttpResponse<String> response = instance.get(url)
+                    .header("Authorization", "Bearer " + AUTH_TOKEN)
+                    .asString();
+
+            parseResponse(response, Object.class);
+            return true;
+
+        } catch (Exception e) {
+            span.fail();
+            System.err.println("Error cancelling transaction: " + transactionId);
+            e.printStackTrace();
+            return false;
+        } finally {
+            span.close();
         }
     }
 }
@@ -4,6 +4,8 @@
  */
 package com.theplutushome.veristore.service.email;
 
+import com.theplutushome.veristore.util.Tracer;
+
 import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
@@ -169,13 +171,19 @@ public class EmailService implements Serializable {
         if (sanitized.isEmpty()) {
             return false;
         }
-        String subject = String.format("Your Veristore PINs for %s", reference);
-        String htmlBody = buildPinsHtmlBody(reference, sanitized);
-        if (sendEmailAsHtml(subject, recipient, htmlBody)) {
-            return true;
+        try (Tracer.Span span = Tracer.child("email.sendPinsEmail")) {
+            String subject = String.format("Your Veristore PINs for %s", reference);
+            String htmlBody = buildPinsHtmlBody(reference, sanitized);
+            if (sendEmailAsHtml(subject, recipient, htmlBody)) {
+                return true;
+            }
+            String textBody = buildPinsTextBody(reference, sanitized);
+            boolean sent = sendEmailAsText(subject, recipient, textBody);
+            if (!sent) {
+                span.fail();
+            }
+            return sent;
         }
-        String textBody = buildPinsTextBody(reference, sanitized);
-        return sendEmailAsText(subject, recipient, textBody);
     }
 
     private String buildPinsHtmlBody(String reference, Map<String, List<String>> pinsByProduct) {
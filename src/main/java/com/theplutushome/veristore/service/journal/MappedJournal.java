@@ -0,0 +1,393 @@
+package com.theplutushome.veristore.service.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only record journal stored in fixed-size memory-mapped segment files.
+ * <p>
+ * Each record is framed as {@code [int length][int crc32c][payload]}. Appends are serialized and copied
+ * straight into the mapped segment; durability is provided by a background flusher that forces
+ * every pending byte in one call, so concurrent writers waiting in {@link #sync(long)} share a single
+ * fsync (group commit). Positions are global: {@code segmentIndex * segmentSize + offset}.
+ */
+public final class MappedJournal implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(MappedJournal.class.getName());
+    private static final int HEADER_BYTES = 8;
+
+    private final Path directory;
+    private final String prefix;
+    private final int segmentSize;
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final Object syncMonitor = new Object();
+    private final Thread flusher;
+
+    private Segment active;
+    private volatile long writePosition;
+    private long durablePosition;
+    private long requestedPosition;
+    private IOException flushFailure;
+    private volatile boolean closed;
+
+    private MappedJournal(Path directory, String prefix, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        for (long index : existingSegmentIndexes()) {
+            segments.put(index, Segment.map(segmentPath(index), index, segmentSize));
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, Segment.map(segmentPath(0), 0, segmentSize));
+        }
+        active = segments.lastEntry().getValue();
+        int tail = recoverTail(active);
+        writePosition = active.index * segmentSize + tail;
+        durablePosition = writePosition;
+        requestedPosition = writePosition;
+        flusher = new Thread(this::flushLoop, "journal-flusher-" + prefix);
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public static MappedJournal open(Path directory, String prefix, int segmentSize) {
+        Objects.requireNonNull(directory, "directory");
+        Objects.requireNonNull(prefix, "prefix");
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("segmentSize must be at least 4096 bytes");
+        }
+        try {
+            return new MappedJournal(directory, prefix, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to open journal " + prefix + " in " + directory, e);
+        }
+    }
+
+    /**
+     * Appends a record and returns the journal position just past it. The record is visible to
+     * {@link #replay} immediately but only durable once {@link #sync(long)} returns for that position.
+     */
+    public long append(byte[] payload) {
+        Objects.requireNonNull(payload, "payload");
+        int frame = HEADER_BYTES + payload.length;
+        if (payload.length == 0 || frame > segmentSize) {
+            throw new IllegalArgumentException("Record size " + payload.length + " does not fit a journal segment");
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(payload, 0, payload.length);
+        appendLock.lock();
+        try {
+            ensureOpen();
+            int offset = (int) (writePosition - active.index * segmentSize);
+            if (offset + frame > segmentSize) {
+                // Remaining bytes stay zeroed, which readers treat as "continue in the next segment".
+                active = rollSegment(active.index + 1);
+                offset = 0;
+            }
+            MappedByteBuffer buffer = active.buffer;
+            buffer.put(offset + HEADER_BYTES, payload, 0, payload.length);
+            buffer.putInt(offset + 4, (int) crc.getValue());
+            buffer.putInt(offset, payload.length);
+            writePosition = active.index * segmentSize + offset + frame;
+            return writePosition;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Blocks until every record up to {@code position} has been forced to storage.
+     */
+    public void sync(long position) {
+        synchronized (syncMonitor) {
+            if (position > requestedPosition) {
+                requestedPosition = position;
+                syncMonitor.notifyAll();
+            }
+            boolean interrupted = false;
+            while (durablePosition < position) {
+                if (flushFailure != null) {
+                    throw new UncheckedIOException("Journal flush failed", flushFailure);
+                }
+                if (closed) {
+                    throw new IllegalStateException("Journal closed before position " + position + " became durable");
+                }
+                try {
+                    syncMonitor.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public long appendAndSync(byte[] payload) {
+        long position = append(payload);
+        sync(position);
+        return position;
+    }
+
+    public long position() {
+        return writePosition;
+    }
+
+    /**
+     * Streams every intact record starting at {@code fromPosition} and returns the position after the last one.
+     */
+    public long replay(long fromPosition, RecordConsumer consumer) {
+        Objects.requireNonNull(consumer, "consumer");
+        long end = writePosition;
+        long position = Math.max(fromPosition, segments.firstKey() * segmentSize);
+        while (position < end) {
+            long index = position / segmentSize;
+            Segment segment = segments.get(index);
+            if (segment == null) {
+                position = (index + 1) * segmentSize;
+                continue;
+            }
+            ByteBuffer view = segment.buffer.duplicate();
+            int offset = (int) (position - index * segmentSize);
+            int limit = (int) Math.min(segmentSize, end - index * segmentSize);
+            while (offset + HEADER_BYTES <= limit) {
+                int length = view.getInt(offset);
+                if (length <= 0 || offset + HEADER_BYTES + length > limit) {
+                    break;
+                }
+                ByteBuffer payload = view.slice(offset + HEADER_BYTES, length).asReadOnlyBuffer();
+                if (checksum(payload) != view.getInt(offset + 4)) {
+                    break;
+                }
+                offset += HEADER_BYTES + length;
+                consumer.accept(index * segmentSize + offset, payload);
+            }
+            position = index * segmentSize + offset;
+            if (position < end) {
+                position = (index + 1) * segmentSize;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Deletes segments that lie entirely before {@code position}, typically after a snapshot covered them.
+     */
+    public void truncateBefore(long position) {
+        long keepFrom = position / segmentSize;
+        appendLock.lock();
+        try {
+            for (Map.Entry<Long, Segment> entry : new ArrayList<>(segments.headMap(keepFrom, false).entrySet())) {
+                if (entry.getValue() == active) {
+                    continue;
+                }
+                segments.remove(entry.getKey());
+                entry.getValue().close();
+                Files.deleteIfExists(entry.getValue().path);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to delete truncated journal segment", e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        sync(writePosition);
+        appendLock.lock();
+        try {
+            closed = true;
+            synchronized (syncMonitor) {
+                syncMonitor.notifyAll();
+            }
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+        try {
+            flusher.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long target;
+            synchronized (syncMonitor) {
+                while (!closed && requestedPosition <= durablePosition) {
+                    try {
+                        syncMonitor.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            // Everything written so far rides along with this force, not just what was requested.
+            target = writePosition;
+            long from;
+            synchronized (syncMonitor) {
+                from = durablePosition;
+            }
+            try {
+                force(from, target);
+                synchronized (syncMonitor) {
+                    durablePosition = Math.max(durablePosition, target);
+                    syncMonitor.notifyAll();
+                }
+            } catch (IOException | RuntimeException e) {
+                synchronized (syncMonitor) {
+                    flushFailure = e instanceof IOException io ? io : new IOException(e);
+                    syncMonitor.notifyAll();
+                }
+                LOGGER.log(Level.SEVERE, "Journal flush failed", e);
+                return;
+            }
+        }
+    }
+
+    private void force(long from, long to) throws IOException {
+        for (long index = from / segmentSize; index * segmentSize < to; index++) {
+            Segment segment = segments.get(index);
+            if (segment == null) {
+                continue;
+            }
+            int start = (int) Math.max(0, from - index * segmentSize);
+            int end = (int) Math.min(segmentSize, to - index * segmentSize);
+            if (end > start) {
+                segment.buffer.force(start, end - start);
+            }
+        }
+    }
+
+    private Segment rollSegment(long index) {
+        try {
+            Segment segment = Segment.map(segmentPath(index), index, segmentSize);
+            segments.put(index, segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to create journal segment " + index, e);
+        }
+    }
+
+    private int recoverTail(Segment segment) {
+        ByteBuffer view = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segmentSize) {
+            int length = view.getInt(offset);
+            if (length <= 0 || offset + HEADER_BYTES + length > segmentSize) {
+                break;
+            }
+            if (checksum(view.slice(offset + HEADER_BYTES, length)) != view.getInt(offset + 4)) {
+                break;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        if (offset + HEADER_BYTES <= segmentSize && view.getInt(offset) != 0) {
+            // A torn record sits at the tail; clear it so later appends cannot be misread.
+            LOGGER.log(Level.WARNING, "Discarding torn journal record in {0} at offset {1}", new Object[]{segment.path, offset});
+            for (int i = offset; i < segmentSize; i++) {
+                view.put(i, (byte) 0);
+            }
+            segment.buffer.force();
+        }
+        return offset;
+    }
+
+    private List<Long> existingSegmentIndexes() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(prefix + "-") && name.endsWith(".log"))
+                    .map(name -> Long.parseLong(name.substring(prefix.length() + 1, name.length() - 4)))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path segmentPath(long index) {
+        StringBuilder name = new StringBuilder(prefix).append('-');
+        String digits = Long.toString(index);
+        for (int i = digits.length(); i < 12; i++) {
+            name.append('0');
+        }
+        return directory.resolve(name.append(digits).append(".log").toString());
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("Journal " + prefix + " is closed");
+        }
+    }
+
+    private static int checksum(ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+
+        void accept(long positionAfter, ByteBuffer payload);
+    }
+
+    private static final class Segment {
+
+        private final Path path;
+        private final long index;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(Path path, long index, FileChannel channel, MappedByteBuffer buffer) {
+            this.path = path;
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment map(Path path, long index, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new Segment(path, index, channel, buffer);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to close journal segment " + path, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.theplutushome.veristore.service.payment;
+
+import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+import com.theplutushome.veristore.service.OrderStore;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Redeems a settlement file's worth of pay-later invoices. Invoices are grouped by the SKU of their first
+ * line so each product's vault shelf and Atlas calls are worked through together, and redeemed on at most
+ * {@code veristore.bulkRedeem.parallelism} threads shared by every running batch. Results are handed to
+ * the caller's sink on the caller's thread as each invoice finishes.
+ */
+@ApplicationScoped
+public class BulkRedemption implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(BulkRedemption.class.getName());
+    private static final int PARALLELISM = Integer.getInteger("veristore.bulkRedeem.parallelism", 8);
+    private static final int MAX_INVOICES = Integer.getInteger("veristore.bulkRedeem.maxInvoices", 50_000);
+
+    @Inject
+    private OrderStore orderStore;
+
+    @Inject
+    private PaymentService paymentService;
+
+    private transient Redeemer redeemer;
+    private transient ExecutorService workers;
+    private transient int parallelism;
+    private transient int maxInvoices;
+
+    public BulkRedemption() {
+    }
+
+    BulkRedemption(OrderStore orderStore, Redeemer redeemer, int parallelism, int maxInvoices) {
+        this.orderStore = Objects.requireNonNull(orderStore, "orderStore");
+        start(redeemer, parallelism, maxInvoices);
+    }
+
+    @PostConstruct
+    void init() {
+        start(paymentService::redeemInvoice, PARALLELISM, MAX_INVOICES);
+    }
+
+    private void start(Redeemer redeemer, int parallelism, int maxInvoices) {
+        if (parallelism <= 0 || maxInvoices <= 0) {
+            throw new IllegalArgumentException("parallelism and maxInvoices must be positive");
+        }
+        this.redeemer = Objects.requireNonNull(redeemer, "redeemer");
+        this.parallelism = parallelism;
+        this.maxInvoices = maxInvoices;
+        AtomicInteger threads = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "bulk-redeem-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.workers = executor;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads invoice numbers, one per entry, and groups them by SKU. Blank entries and entries starting
+     * with {@code #} are skipped and repeats are redeemed once.
+     *
+     * @throws IllegalArgumentException if there are more than {@code veristore.bulkRedeem.maxInvoices}
+     */
+    public Batch prepare(Iterator<String> invoiceNos) {
+        Objects.requireNonNull(invoiceNos, "invoiceNos");
+        Set<String> distinct = new LinkedHashSet<>();
+        while (invoiceNos.hasNext()) {
+            String invoiceNo = invoiceNos.next();
+            if (invoiceNo == null) {
+                continue;
+            }
+            invoiceNo = invoiceNo.trim();
+            if (invoiceNo.isEmpty() || invoiceNo.startsWith("#")) {
+                continue;
+            }
+            if (distinct.add(invoiceNo) && distinct.size() > maxInvoices) {
+                throw new IllegalArgumentException("At most " + maxInvoices + " invoices can be redeemed at once");
+            }
+        }
+        List<Result> unknown = new ArrayList<>();
+        Map<ProductKey, List<String>> bySku = new LinkedHashMap<>();
+        for (String invoiceNo : distinct) {
+            Optional<OrderStore.Invoice> invoice = orderStore.findInvoice(invoiceNo);
+            if (invoice.isEmpty() || invoice.get().getLines().isEmpty()) {
+                unknown.add(new Result(invoiceNo, null, Outcome.NOT_FOUND, null, 0, null));
+            } else {
+                ProductKey key = invoice.get().getLines().get(0).getKey();
+                bySku.computeIfAbsent(key, k -> new ArrayList<>()).add(invoiceNo);
+            }
+        }
+        List<Work> work = new ArrayList<>(distinct.size() - unknown.size());
+        bySku.forEach((key, group) -> group.forEach(invoiceNo -> work.add(new Work(invoiceNo, key))));
+        return new Batch(Collections.unmodifiableList(unknown), Collections.unmodifiableList(work));
+    }
+
+    /**
+     * Redeems every invoice in the batch and passes each result to {@code sink}. If the sink throws, for
+     * instance because the client went away, invoices not yet started are skipped and the exception is
+     * rethrown once the ones already running have finished.
+     */
+    public void run(Batch batch, Consumer<Result> sink) throws InterruptedException {
+        Objects.requireNonNull(batch, "batch");
+        Objects.requireNonNull(sink, "sink");
+        batch.unknown.forEach(sink);
+        Queue<Work> pending = new ConcurrentLinkedQueue<>(batch.work);
+        BlockingQueue<Result> finished = new LinkedBlockingQueue<>();
+        AtomicBoolean abandoned = new AtomicBoolean();
+        int pullers = Math.min(parallelism, batch.work.size());
+        for (int i = 0; i < pullers; i++) {
+            workers.execute(() -> {
+                try {
+                    Work next;
+                    while (!abandoned.get() && (next = pending.poll()) != null) {
+                        finished.add(redeemOne(next));
+                    }
+                } finally {
+                    finished.add(Result.DONE);
+                }
+            });
+        }
+        RuntimeException failure = null;
+        int exited = 0;
+        while (exited < pullers) {
+            Result result;
+            try {
+                result = finished.take();
+            } catch (InterruptedException e) {
+                abandoned.set(true);
+                throw e;
+            }
+            if (result == Result.DONE) {
+                exited++;
+            } else if (failure == null) {
+                try {
+                    sink.accept(result);
+                } catch (RuntimeException e) {
+                    abandoned.set(true);
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            LOGGER.log(Level.WARNING, "Bulk redemption abandoned with {0} invoices not started", pending.size());
+            throw failure;
+        }
+    }
+
+    private Result redeemOne(Work work) {
+        long started = System.nanoTime();
+        String invoiceNo = work.invoiceNo;
+        String sku = work.key.sku();
+        try {
+            InvoiceStatus before = status(invoiceNo);
+            if (before == null) {
+                return new Result(invoiceNo, sku, Outcome.NOT_FOUND, null, elapsedMillis(started), null);
+            }
+            if (before == InvoiceStatus.PAID || before == InvoiceStatus.CANCELLED) {
+                Outcome outcome = before == InvoiceStatus.PAID ? Outcome.ALREADY_PAID : Outcome.CANCELLED;
+                return new Result(invoiceNo, sku, outcome, before, elapsedMillis(started), null);
+            }
+            boolean redeemed = redeemer.redeem(invoiceNo);
+            InvoiceStatus after = status(invoiceNo);
+            Outcome outcome;
+            if (redeemed) {
+                outcome = Outcome.REDEEMED;
+            } else if (after == InvoiceStatus.FULFILLING) {
+                outcome = Outcome.IN_PROGRESS;
+            } else if (after == InvoiceStatus.CANCELLED) {
+                outcome = Outcome.CANCELLED;
+            } else if (after == InvoiceStatus.PAID) {
+                outcome = Outcome.ALREADY_PAID;
+            } else {
+                outcome = Outcome.FAILED;
+            }
+            return new Result(invoiceNo, sku, outcome, after, elapsedMillis(started), null);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Bulk redemption of invoice " + invoiceNo + " failed", e);
+            return new Result(invoiceNo, sku, Outcome.FAILED, status(invoiceNo), elapsedMillis(started), e.getMessage());
+        }
+    }
+
+    private InvoiceStatus status(String invoiceNo) {
+        return orderStore.findInvoice(invoiceNo).map(OrderStore.Invoice::getStatus).orElse(null);
+    }
+
+    private static long elapsedMillis(long started) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    @FunctionalInterface
+    interface Redeemer {
+
+        boolean redeem(String invoiceNo);
+    }
+
+    public enum Outcome {
+        REDEEMED,
+        ALREADY_PAID,
+        /** Another fulfillment of the invoice was running; it may still succeed. */
+        IN_PROGRESS,
+        CANCELLED,
+        NOT_FOUND,
+        FAILED
+    }
+
+    /**
+     * @param sku the SKU the invoice was grouped under, or {@code null} if it was not found
+     * @param status the invoice's status once redemption finished
+     */
+    public record Result(String invoiceNo, String sku, Outcome outcome, InvoiceStatus status, long millis,
+                         String error) {
+
+        // Marks a worker running out of invoices; never handed to a sink.
+        private static final Result DONE = new Result("", null, Outcome.FAILED, null, 0, null);
+    }
+
+    /**
+     * Invoices read by {@link #prepare}, grouped and ready to {@link #run}.
+     */
+    public static final class Batch {
+
+        private final List<Result> unknown;
+        private final List<Work> work;
+
+        private Batch(List<Result> unknown, List<Work> work) {
+            this.unknown = unknown;
+            this.work = work;
+        }
+
+        public int size() {
+            return unknown.size() + work.size();
+        }
+    }
+
+    private record Work(String invoiceNo, ProductKey key) {
+    }
+}
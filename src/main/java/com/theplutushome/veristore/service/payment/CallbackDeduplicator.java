@@ -0,0 +1,156 @@
+package com.theplutushome.veristore.service.payment;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Remembers how each gateway callback was handled, keyed by invoice number and gateway event id, so a
+ * retried or duplicated callback gets the first outcome back from one hash lookup instead of reaching
+ * {@link PaymentService} again. Concurrent duplicates wait for the first one to finish. Outcomes are kept
+ * for {@code veristore.callbacks.dedupeSeconds} and at most {@code veristore.callbacks.dedupeEntries} are
+ * kept, oldest evicted first. Failures and {@link Outcome#RETRY_LATER} are not remembered.
+ */
+@ApplicationScoped
+public class CallbackDeduplicator implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final long WINDOW_SECONDS = Long.getLong("veristore.callbacks.dedupeSeconds", 300);
+    private static final int MAX_ENTRIES = Integer.getInteger("veristore.callbacks.dedupeEntries", 100_000);
+
+    private final transient Map<Key, Entry> outcomes = new ConcurrentHashMap<>();
+    // Every entry ever added, oldest first, including ones already dropped from the map; it bounds both.
+    private final transient Queue<Entry> arrivals = new ConcurrentLinkedQueue<>();
+    private final transient AtomicInteger arrived = new AtomicInteger();
+    private final transient LongAdder duplicates = new LongAdder();
+    private final long windowNanos;
+    private final int maxEntries;
+
+    public CallbackDeduplicator() {
+        this(Duration.ofSeconds(WINDOW_SECONDS), MAX_ENTRIES);
+    }
+
+    CallbackDeduplicator(Duration window, int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.windowNanos = window.toNanos();
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Runs {@code handler} for the first callback with this invoice number and event id, and returns its
+     * recorded outcome for every duplicate that arrives within the window.
+     *
+     * @param eventId the gateway's id for the event, or {@code null} if it sends none
+     */
+    public Outcome process(String invoiceNo, String eventId, Supplier<Outcome> handler) {
+        Objects.requireNonNull(invoiceNo, "invoiceNo");
+        Objects.requireNonNull(handler, "handler");
+        Key key = new Key(invoiceNo, eventId == null ? "" : eventId);
+        while (true) {
+            long now = System.nanoTime();
+            Entry existing = outcomes.get(key);
+            if (existing != null) {
+                if (now - existing.arrivedAt < windowNanos) {
+                    duplicates.increment();
+                    return await(existing);
+                }
+                outcomes.remove(key, existing);
+                continue;
+            }
+            Entry entry = new Entry(key, now);
+            if (outcomes.putIfAbsent(key, entry) != null) {
+                continue;
+            }
+            arrivals.add(entry);
+            arrived.incrementAndGet();
+            evict(now);
+            Outcome outcome;
+            try {
+                outcome = Objects.requireNonNull(handler.get(), "outcome");
+            } catch (RuntimeException | Error e) {
+                outcomes.remove(key, entry);
+                entry.outcome.completeExceptionally(e);
+                throw e;
+            }
+            if (outcome == Outcome.RETRY_LATER) {
+                outcomes.remove(key, entry);
+            }
+            entry.outcome.complete(outcome);
+            return outcome;
+        }
+    }
+
+    /**
+     * Callbacks answered from the cache since startup.
+     */
+    public long duplicates() {
+        return duplicates.sum();
+    }
+
+    int size() {
+        return outcomes.size();
+    }
+
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = arrivals.peek()) != null
+                && (now - oldest.arrivedAt >= windowNanos || arrived.get() > maxEntries)) {
+            Entry evicted = arrivals.poll();
+            if (evicted != null) {
+                arrived.decrementAndGet();
+                outcomes.remove(evicted.key, evicted);
+            }
+        }
+    }
+
+    private static Outcome await(Entry entry) {
+        try {
+            return entry.outcome.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    public enum Outcome {
+        /** Fulfillment was queued; the gateway need not call again. */
+        ACCEPTED,
+        FULFILLED,
+        NOT_FULFILLED,
+        /** Could not be handled now; not remembered, so the gateway's retry is processed afresh. */
+        RETRY_LATER
+    }
+
+    private record Key(String invoiceNo, String eventId) {
+    }
+
+    private static final class Entry {
+
+        final Key key;
+        final long arrivedAt;
+        final CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+
+        Entry(Key key, long arrivedAt) {
+            this.key = key;
+            this.arrivedAt = arrivedAt;
+        }
+    }
+}
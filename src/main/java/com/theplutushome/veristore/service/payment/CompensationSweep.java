@@ -0,0 +1,107 @@
+package com.theplutushome.veristore.service.payment;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compensates the open sagas of abandoned invoices. {@link PaymentService} runs {@link #sweep()}
+ * periodically, so a cancellation the order feed dropped, or one whose compensation failed, is still
+ * cancelled at Atlas; the feed only gets there sooner. An invoice whose compensation fails is skipped
+ * by later sweeps for an exponentially growing delay, capped at {@code maxBackoff}.
+ */
+final class CompensationSweep {
+
+    private static final Logger LOGGER = Logger.getLogger(CompensationSweep.class.getName());
+
+    private final FulfillmentSaga saga;
+    private final Predicate<String> abandoned;
+    private final FulfillmentSaga.Compensator compensator;
+    private final long backoffNanos;
+    private final long maxBackoffNanos;
+    private final Map<String, Retry> retries = new ConcurrentHashMap<>();
+    // Invoices being compensated right now, so the feed and a sweep never cancel the same steps twice.
+    private final Set<String> running = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param abandoned whether the invoice with this number will never be paid
+     * @param backoff delay before an invoice whose compensation failed is tried again, doubled per failure
+     */
+    CompensationSweep(FulfillmentSaga saga, Predicate<String> abandoned, FulfillmentSaga.Compensator compensator,
+                      Duration backoff, Duration maxBackoff) {
+        this.saga = Objects.requireNonNull(saga, "saga");
+        this.abandoned = Objects.requireNonNull(abandoned, "abandoned");
+        this.compensator = Objects.requireNonNull(compensator, "compensator");
+        if (backoff.isNegative() || maxBackoff.compareTo(backoff) < 0) {
+            throw new IllegalArgumentException("backoff must be non-negative and at most maxBackoff");
+        }
+        this.backoffNanos = backoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+    }
+
+    /**
+     * Compensates every open saga whose invoice is abandoned and not backing off; returns how many
+     * were fully compensated.
+     */
+    int sweep() {
+        int compensated = 0;
+        long now = System.nanoTime();
+        for (String invoiceNo : saga.openSagas().keySet()) {
+            Retry retry = retries.get(invoiceNo);
+            if (retry != null && now - retry.notBefore() < 0) {
+                continue;
+            }
+            try {
+                if (abandoned.test(invoiceNo) && compensate(invoiceNo)) {
+                    compensated++;
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Unable to check whether invoice " + invoiceNo + " was abandoned", e);
+            }
+        }
+        retries.keySet().removeIf(invoiceNo -> saga.steps(invoiceNo).isEmpty());
+        saga.compactIfDue();
+        return compensated;
+    }
+
+    /**
+     * Cancels the invoice's open Atlas transactions unless another thread already is. Returns
+     * {@code true} once nothing is left to cancel.
+     */
+    boolean compensate(String invoiceNo) {
+        if (!running.add(invoiceNo)) {
+            return false;
+        }
+        try {
+            if (saga.compensate(invoiceNo, compensator)) {
+                retries.remove(invoiceNo);
+                return true;
+            }
+            Retry retry = retries.compute(invoiceNo, (key, previous) -> {
+                int attempts = previous == null ? 1 : previous.attempts() + 1;
+                return new Retry(attempts, System.nanoTime() + delay(attempts));
+            });
+            LOGGER.log(Level.WARNING, "Some Atlas transactions of invoice {0} are still open after {1} attempts; retrying in {2} s",
+                    new Object[]{invoiceNo, retry.attempts(), TimeUnit.NANOSECONDS.toSeconds(delay(retry.attempts()))});
+            return false;
+        } finally {
+            running.remove(invoiceNo);
+        }
+    }
+
+    private long delay(int attempts) {
+        return Math.min(maxBackoffNanos, backoffNanos << Math.min(20, attempts - 1));
+    }
+
+    /**
+     * Failed attempts so far, and the {@link System#nanoTime()} before which the invoice is not tried again.
+     */
+    private record Retry(int attempts, long notBefore) {
+    }
+}
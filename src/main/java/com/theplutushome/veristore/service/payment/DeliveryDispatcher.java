@@ -0,0 +1,213 @@
+package com.theplutushome.veristore.service.payment;
+
+import com.theplutushome.veristore.service.OrderStore;
+import com.theplutushome.veristore.service.email.EmailService;
+import com.theplutushome.veristore.util.HashedWheelTimer;
+import com.theplutushome.veristore.util.Tracer;
+import com.theplutushome.veristore.util.VariantDescriptions;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends PINs for orders in the delivery outbox. {@link OrderStore#settleInvoice} puts an order there
+ * in the same write that marks its invoice paid; this dispatcher sends it on its own threads and takes
+ * it out only once sending succeeds, so slow or failing SMTP never holds up fulfillment. Failed sends
+ * are retried with backoff; an order that exhausts {@code veristore.delivery.maxAttempts} stays in the
+ * outbox and is tried again on the next start.
+ */
+@ApplicationScoped
+public class DeliveryDispatcher implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(DeliveryDispatcher.class.getName());
+    private static final int WORKERS = Integer.getInteger("veristore.delivery.workers", 2);
+    private static final int MAX_ATTEMPTS = Integer.getInteger("veristore.delivery.maxAttempts", 8);
+    private static final long RETRY_MILLIS = Long.getLong("veristore.delivery.retryMillis", 5000);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    @Inject
+    private OrderStore orderStore;
+
+    @Inject
+    private EmailService emailService;
+
+    private final transient Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private transient Sender sender;
+    private transient ExecutorService workers;
+    private transient HashedWheelTimer retryTimer;
+    private transient int maxAttempts;
+    private transient Duration retryDelay;
+
+    public DeliveryDispatcher() {
+    }
+
+    DeliveryDispatcher(OrderStore orderStore) {
+        this.orderStore = Objects.requireNonNull(orderStore, "orderStore");
+    }
+
+    @PostConstruct
+    void init() {
+        start(this::send, WORKERS, MAX_ATTEMPTS, Duration.ofMillis(RETRY_MILLIS));
+    }
+
+    void start(Sender sender, int workerCount, int maxAttempts, Duration retryDelay) {
+        if (workerCount <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("workers and maxAttempts must be positive");
+        }
+        this.sender = Objects.requireNonNull(sender, "sender");
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = Objects.requireNonNull(retryDelay, "retryDelay");
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "pin-delivery-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.retryTimer = new HashedWheelTimer("pin-delivery-retry", 100, TimeUnit.MILLISECONDS, 1024);
+        List<String> pending = orderStore.pendingDeliveries();
+        if (!pending.isEmpty()) {
+            LOGGER.log(Level.INFO, "Resuming delivery of {0} orders from the outbox", pending.size());
+        }
+        pending.forEach(this::dispatch);
+    }
+
+    /**
+     * Starts delivering a settled order. Orders already being delivered are left alone.
+     */
+    public void dispatch(String orderId) {
+        Objects.requireNonNull(orderId, "orderId");
+        if (inFlight.add(orderId)) {
+            execute(new Delivery(orderId, Tracer.current()));
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (retryTimer != null) {
+            retryTimer.close();
+        }
+    }
+
+    private void execute(Delivery delivery) {
+        try {
+            workers.execute(() -> run(delivery));
+        } catch (RejectedExecutionException e) {
+            // Shutting down; the order is still in the outbox for the next start.
+            inFlight.remove(delivery.orderId);
+        }
+    }
+
+    private void run(Delivery delivery) {
+        delivery.attempts++;
+        Optional<OrderStore.Order> order = orderStore.findOrder(delivery.orderId);
+        if (order.isEmpty()) {
+            LOGGER.log(Level.WARNING, "Dropping delivery of unknown order {0}", delivery.orderId);
+            orderStore.markDelivered(delivery.orderId);
+            inFlight.remove(delivery.orderId);
+            return;
+        }
+        boolean sent;
+        // Attached to the fulfillment's trace, so delivery shows up as one of its stages.
+        try (Tracer.Scope scope = Tracer.attach(delivery.trace); Tracer.Span span = Tracer.start("delivery.send")) {
+            try {
+                sent = sender.send(order.get());
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Delivery attempt " + delivery.attempts + " for order " + delivery.orderId + " failed", e);
+                sent = false;
+            }
+            if (!sent) {
+                span.fail();
+            }
+        }
+        if (sent) {
+            orderStore.markDelivered(delivery.orderId);
+            inFlight.remove(delivery.orderId);
+        } else if (delivery.attempts >= maxAttempts) {
+            LOGGER.log(Level.SEVERE, "Giving up on delivering order {0} after {1} attempts; it stays in the outbox",
+                    new Object[]{delivery.orderId, delivery.attempts});
+            inFlight.remove(delivery.orderId);
+        } else {
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, retryDelay.toMillis() << Math.min(20, delivery.attempts - 1));
+            retryTimer.schedule(() -> execute(delivery), backoff, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private boolean send(OrderStore.Order order) {
+        Map<String, List<String>> codesByProduct = new LinkedHashMap<>();
+        for (OrderStore.OrderLine line : order.getLines()) {
+            if (line.getCodes().isEmpty()) {
+                continue;
+            }
+            String description = VariantDescriptions.describe(line.getKey().family(), line.getKey().sku());
+            codesByProduct.computeIfAbsent(description, key -> new ArrayList<>())
+                    .addAll(line.getCodes());
+        }
+        if (codesByProduct.isEmpty()) {
+            return true;
+        }
+        String email = order.getContact().email();
+        String msisdn = order.getContact().msisdn();
+        if (order.getDeliveryPrefs().bySms() && msisdn != null && !msisdn.isBlank()) {
+            LOGGER.log(Level.INFO, () -> "SMS delivery pending implementation for " + msisdn);
+        }
+        if (order.getDeliveryPrefs().byEmail() && email != null && !email.isBlank()) {
+            boolean sent = emailService.sendPinsEmail(email, order.getId(), codesByProduct);
+            if (!sent) {
+                LOGGER.log(Level.WARNING, () -> "Failed to send PIN email to " + email);
+            }
+            return sent;
+        }
+        return true;
+    }
+
+    /**
+     * Sends one order's PINs; {@code false} or an exception means try again later.
+     */
+    @FunctionalInterface
+    interface Sender {
+
+        boolean send(OrderStore.Order order);
+    }
+
+    // Touched by one worker at a time; the executor and timer hand-offs publish its fields.
+    private static final class Delivery {
+
+        final String orderId;
+        final Tracer.Context trace;
+        int attempts;
+
+        Delivery(String orderId, Tracer.Context trace) {
+            this.orderId = orderId;
+            this.trace = trace;
+        }
+    }
+}
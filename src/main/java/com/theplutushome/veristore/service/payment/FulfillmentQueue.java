@@ -0,0 +1,462 @@
+package com.theplutushome.veristore.service.payment;
+
+import com.theplutushome.veristore.service.journal.ByteBufferInput;
+import com.theplutushome.veristore.service.journal.MappedJournal;
+import com.theplutushome.veristore.util.HashedWheelTimer;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs payment-callback fulfillment off the request thread. A callback is acknowledged once its job
+ * is recorded in a {@link MappedJournal} under {@code veristore.fulfillment.dir}, or under
+ * {@code veristore.store.dir} when only the order store is durable, and a fixed pool of workers then
+ * fulfills it. Failed attempts are retried with exponential backoff; a job that still fails after
+ * {@code veristore.fulfillment.maxAttempts} is dead-lettered for an operator, and a later callback for
+ * the invoice queues it again. Jobs still unfinished when the process stops are replayed on the next
+ * start. Each time the journal grows by a segment it is compacted: unfinished jobs and the statuses still
+ * retained are rewritten at its tail and the segments before are dropped.
+ */
+@ApplicationScoped
+public class FulfillmentQueue implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(FulfillmentQueue.class.getName());
+    private static final String QUEUE_DIR = System.getProperty("veristore.fulfillment.dir");
+    private static final String STORE_DIR = System.getProperty("veristore.store.dir");
+    private static final int SEGMENT_BYTES = Integer.getInteger("veristore.fulfillment.segmentMb", 4) << 20;
+    private static final int WORKERS = Integer.getInteger("veristore.fulfillment.workers", 4);
+    private static final int CAPACITY = Integer.getInteger("veristore.fulfillment.capacity", 1024);
+    private static final int MAX_ATTEMPTS = Integer.getInteger("veristore.fulfillment.maxAttempts", 5);
+    private static final long RETRY_MILLIS = Long.getLong("veristore.fulfillment.retryMillis", 2000);
+    private static final long STATUS_RETENTION_MINUTES = Long.getLong("veristore.fulfillment.statusRetentionMinutes", 24 * 60);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final byte ENQUEUED = 1;
+    private static final byte FINISHED = 2;
+
+    @Inject
+    private PaymentService paymentService;
+
+    private final transient Map<String, Status> statuses = new ConcurrentHashMap<>();
+    private final transient AtomicInteger outstanding = new AtomicInteger();
+    private transient Fulfiller fulfiller;
+    private transient ExecutorService workers;
+    private transient HashedWheelTimer retryTimer;
+    // Jobs change state and append their record under the read lock; compaction takes the write lock.
+    private final transient ReadWriteLock gate = new ReentrantReadWriteLock();
+    private transient MappedJournal journal;
+    private transient int segmentSize;
+    private transient volatile long compactedAt;
+    private transient volatile long compactedSize;
+    private transient int capacity;
+    private transient int maxAttempts;
+    private transient Duration retryDelay;
+    private transient Duration retention;
+    private transient volatile boolean closed;
+
+    @PostConstruct
+    void init() {
+        start(journalDirectory(QUEUE_DIR, STORE_DIR), paymentService::fulfillQueued, WORKERS, CAPACITY, MAX_ATTEMPTS,
+                Duration.ofMillis(RETRY_MILLIS), Duration.ofMinutes(STATUS_RETENTION_MINUTES));
+    }
+
+    /**
+     * The queue directory if set, otherwise a {@code fulfillment} directory beside a durable order
+     * store, so an acknowledged callback survives a restart whenever its invoice does.
+     */
+    static Path journalDirectory(String queueDir, String storeDir) {
+        if (queueDir != null && !queueDir.isBlank()) {
+            return Path.of(queueDir);
+        }
+        return storeDir == null || storeDir.isBlank() ? null : Path.of(storeDir, "fulfillment");
+    }
+
+    /**
+     * @param directory journal directory, or {@code null} to keep jobs in memory only
+     * @param capacity  unfinished jobs accepted before {@link #enqueue} starts turning callbacks away
+     */
+    void start(Path directory, Fulfiller fulfiller, int workerCount, int capacity, int maxAttempts,
+               Duration retryDelay, Duration retention) {
+        start(directory, fulfiller, workerCount, capacity, maxAttempts, retryDelay, retention, SEGMENT_BYTES);
+    }
+
+    void start(Path directory, Fulfiller fulfiller, int workerCount, int capacity, int maxAttempts,
+               Duration retryDelay, Duration retention, int segmentSize) {
+        if (workerCount <= 0 || capacity <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("workers, capacity and maxAttempts must be positive");
+        }
+        this.segmentSize = segmentSize;
+        this.fulfiller = Objects.requireNonNull(fulfiller, "fulfiller");
+        this.capacity = capacity;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = Objects.requireNonNull(retryDelay, "retryDelay");
+        this.retention = Objects.requireNonNull(retention, "retention");
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "fulfillment-worker-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.retryTimer = new HashedWheelTimer("fulfillment-retry", 100, TimeUnit.MILLISECONDS, 1024);
+        if (directory != null) {
+            recover(directory);
+        }
+    }
+
+    /**
+     * Queues fulfillment of the invoice and returns once the job is durable. Returns {@code true} if
+     * the job is queued, already in progress or already fulfilled, and {@code false} if the queue is
+     * full and the caller should try again later.
+     */
+    public boolean enqueue(String invoiceNo) {
+        Objects.requireNonNull(invoiceNo, "invoiceNo");
+        if (closed) {
+            throw new IllegalStateException("Fulfillment queue is shut down");
+        }
+        Status queued = new Status(invoiceNo, State.QUEUED, 0, null, Instant.now());
+        while (true) {
+            Status current = statuses.get(invoiceNo);
+            if (current != null && (!current.state().isFinal() || current.state() == State.FULFILLED)) {
+                return true;
+            }
+            if (!reserveSlot()) {
+                LOGGER.log(Level.WARNING, "Fulfillment queue is full; turning away callback for invoice {0}", invoiceNo);
+                return false;
+            }
+            boolean claimed = current == null
+                    ? statuses.putIfAbsent(invoiceNo, queued) == null
+                    : statuses.replace(invoiceNo, current, queued);
+            if (claimed) {
+                break;
+            }
+            outstanding.decrementAndGet();
+        }
+        try {
+            long position;
+            gate.readLock().lock();
+            try {
+                position = journal == null ? -1 : journal.append(encode(ENQUEUED, out -> out.writeUTF(invoiceNo)));
+            } finally {
+                gate.readLock().unlock();
+            }
+            if (position >= 0) {
+                journal.sync(position);
+            }
+        } catch (RuntimeException e) {
+            statuses.remove(invoiceNo, queued);
+            outstanding.decrementAndGet();
+            throw e;
+        }
+        submit(new Job(invoiceNo));
+        return true;
+    }
+
+    public Optional<Status> status(String invoiceNo) {
+        return invoiceNo == null ? Optional.empty() : Optional.ofNullable(statuses.get(invoiceNo));
+    }
+
+    public List<Status> deadLetters() {
+        List<Status> dead = new ArrayList<>();
+        for (Status status : statuses.values()) {
+            if (status.state() == State.DEAD_LETTERED) {
+                dead.add(status);
+            }
+        }
+        return dead;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        closed = true;
+        if (workers != null) {
+            workers.shutdownNow();
+            try {
+                workers.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (retryTimer != null) {
+            retryTimer.close();
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private boolean reserveSlot() {
+        int current;
+        do {
+            current = outstanding.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!outstanding.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void submit(Job job) {
+        try {
+            workers.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            // Only after shutdown; the journal still holds the job for the next start.
+            LOGGER.log(Level.FINE, "Fulfillment of invoice {0} left for the next start", job.invoiceNo);
+        }
+    }
+
+    private void run(Job job) {
+        if (closed) {
+            return;
+        }
+        job.attempts++;
+        statuses.put(job.invoiceNo, new Status(job.invoiceNo, State.RUNNING, job.attempts, job.lastError, Instant.now()));
+        Outcome outcome;
+        try {
+            outcome = fulfiller.fulfill(job.invoiceNo);
+            if (outcome == Outcome.BUSY) {
+                job.lastError = "Invoice is being fulfilled elsewhere";
+            }
+        } catch (RuntimeException e) {
+            outcome = Outcome.BUSY;
+            job.lastError = e.getMessage() != null ? e.getMessage() : e.toString();
+            LOGGER.log(Level.WARNING, "Fulfillment attempt " + job.attempts + " for invoice " + job.invoiceNo + " failed", e);
+        }
+        if (closed) {
+            return;
+        }
+        switch (outcome) {
+            case FULFILLED -> finish(job, State.FULFILLED, null);
+            case REJECTED -> finish(job, State.REJECTED, "Invoice is unknown or no longer payable");
+            case BUSY -> {
+                if (job.attempts >= maxAttempts) {
+                    LOGGER.log(Level.SEVERE, "Dead-lettered fulfillment of invoice {0} after {1} attempts: {2}",
+                            new Object[]{job.invoiceNo, job.attempts, job.lastError});
+                    finish(job, State.DEAD_LETTERED, job.lastError);
+                } else {
+                    statuses.put(job.invoiceNo, new Status(job.invoiceNo, State.RETRYING, job.attempts, job.lastError, Instant.now()));
+                    long backoff = Math.min(MAX_BACKOFF_MILLIS, retryDelay.toMillis() << Math.min(20, job.attempts - 1));
+                    retryTimer.schedule(() -> submit(job), backoff, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    private void finish(Job job, State state, String error) {
+        Status finished = new Status(job.invoiceNo, state, job.attempts, error, Instant.now());
+        outstanding.decrementAndGet();
+        gate.readLock().lock();
+        try {
+            statuses.put(job.invoiceNo, finished);
+            if (journal != null) {
+                // Not synced: losing it only means the job runs once more, and fulfillment is idempotent.
+                journal.append(encodeFinished(finished));
+            }
+        } finally {
+            gate.readLock().unlock();
+        }
+        retryTimer.schedule(() -> statuses.remove(job.invoiceNo, finished), retention.toMillis(), TimeUnit.MILLISECONDS);
+        compactIfDue();
+    }
+
+    /**
+     * Replays the journal, then compacts it so the segments before are dropped.
+     */
+    private void recover(Path directory) {
+        MappedJournal opened = MappedJournal.open(directory, "fulfillment", segmentSize);
+        Map<String, Status> replayed = new LinkedHashMap<>();
+        opened.replay(0, (position, payload) -> apply(new ByteBufferInput(payload), replayed));
+        Instant cutoff = Instant.now().minus(retention);
+        List<String> pending = new ArrayList<>();
+        for (Status status : replayed.values()) {
+            if (!status.state().isFinal()) {
+                statuses.put(status.invoiceNo(), new Status(status.invoiceNo(), State.QUEUED, 0, null, Instant.now()));
+                pending.add(status.invoiceNo());
+            } else if (status.updatedAt().isAfter(cutoff)) {
+                statuses.put(status.invoiceNo(), status);
+                retryTimer.schedule(() -> statuses.remove(status.invoiceNo(), status),
+                        Duration.between(Instant.now(), status.updatedAt().plus(retention)).toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        journal = opened;
+        compact();
+        for (String invoiceNo : pending) {
+            outstanding.incrementAndGet();
+            submit(new Job(invoiceNo));
+        }
+        LOGGER.log(Level.INFO, "Fulfillment queue recovered {0} unfinished jobs from {1}", new Object[]{pending.size(), directory});
+    }
+
+    /**
+     * Compacts once the journal has grown by a segment, or by as much as the last compaction left
+     * behind if that is more, so retained statuses are not rewritten over and over.
+     */
+    void compactIfDue() {
+        if (journal != null && compactionDue()) {
+            gate.writeLock().lock();
+            try {
+                // Another caller may have compacted while this one waited for the lock.
+                if (compactionDue()) {
+                    compact();
+                }
+            } finally {
+                gate.writeLock().unlock();
+            }
+        }
+    }
+
+    private boolean compactionDue() {
+        return journal.position() - compactedAt >= Math.max(segmentSize, compactedSize);
+    }
+
+    /**
+     * Rewrites unfinished jobs and the finished statuses not yet past retention at the journal's tail,
+     * and drops the segments before. Callers hold the write lock, or own the journal outright during
+     * recovery.
+     */
+    private void compact() {
+        long marker = journal.position();
+        Instant cutoff = Instant.now().minus(retention);
+        for (Status status : statuses.values()) {
+            if (!status.state().isFinal()) {
+                journal.append(encode(ENQUEUED, out -> out.writeUTF(status.invoiceNo())));
+            } else if (status.updatedAt().isAfter(cutoff)) {
+                journal.append(encodeFinished(status));
+            }
+        }
+        journal.sync(journal.position());
+        journal.truncateBefore(marker);
+        compactedSize = journal.position() - marker;
+        compactedAt = journal.position();
+    }
+
+    private static void apply(DataInput in, Map<String, Status> replayed) {
+        try {
+            byte type = in.readByte();
+            String invoiceNo = in.readUTF();
+            switch (type) {
+                case ENQUEUED -> replayed.put(invoiceNo, new Status(invoiceNo, State.QUEUED, 0, null, Instant.now()));
+                case FINISHED -> {
+                    State state = State.values()[in.readByte()];
+                    int attempts = in.readInt();
+                    Instant at = Instant.ofEpochMilli(in.readLong());
+                    String error = in.readBoolean() ? in.readUTF() : null;
+                    replayed.put(invoiceNo, new Status(invoiceNo, state, attempts, error, at));
+                }
+                default -> throw new IllegalStateException("Unknown fulfillment journal record type " + type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt fulfillment journal record", e);
+        }
+    }
+
+    private static byte[] encodeFinished(Status status) {
+        return encode(FINISHED, out -> {
+            out.writeUTF(status.invoiceNo());
+            out.writeByte(status.state().ordinal());
+            out.writeInt(status.attempts());
+            out.writeLong(status.updatedAt().toEpochMilli());
+            out.writeBoolean(status.lastError() != null);
+            if (status.lastError() != null) {
+                String error = status.lastError();
+                out.writeUTF(error.length() > 1000 ? error.substring(0, 1000) : error);
+            }
+        });
+    }
+
+    private static byte[] encode(byte type, RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+
+        void write(DataOutput out) throws IOException;
+    }
+
+    /**
+     * One fulfillment attempt. Throwing counts as {@link Outcome#BUSY}.
+     */
+    @FunctionalInterface
+    interface Fulfiller {
+
+        Outcome fulfill(String invoiceNo);
+    }
+
+    enum Outcome {
+        FULFILLED,
+        /** The invoice is unknown or cannot be paid; retrying will not help. */
+        REJECTED,
+        /** Not fulfilled this time; try again later. */
+        BUSY
+    }
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        RETRYING,
+        FULFILLED,
+        REJECTED,
+        DEAD_LETTERED;
+
+        public boolean isFinal() {
+            return this == FULFILLED || this == REJECTED || this == DEAD_LETTERED;
+        }
+    }
+
+    public record Status(String invoiceNo, State state, int attempts, String lastError, Instant updatedAt) {
+    }
+
+    // Touched by one worker at a time; the executor and timer hand-offs publish its fields.
+    private static final class Job {
+
+        final String invoiceNo;
+        int attempts;
+        String lastError;
+
+        Job(String invoiceNo) {
+            this.invoiceNo = invoiceNo;
+        }
+    }
+}
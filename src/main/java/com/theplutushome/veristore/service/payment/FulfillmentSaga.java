@@ -0,0 +1,375 @@
+package com.theplutushome.veristore.service.payment;
+
+import com.theplutushome.veristore.service.journal.ByteBufferInput;
+import com.theplutushome.veristore.service.journal.MappedJournal;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serial;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the Atlas transaction created for each enrollment line of an invoice until the invoice is
+ * paid or abandoned. A retried fulfillment resumes at confirming the stored transaction instead of
+ * creating another one, and an abandoned invoice has its transactions cancelled. Steps are kept in a
+ * {@link MappedJournal} under {@code veristore.saga.dir}, or under {@code veristore.store.dir} when only
+ * the order store is durable, so both survive a restart. The journal is compacted each time it grows by
+ * a segment: open sagas are rewritten at its tail and the segments before are dropped.
+ */
+@ApplicationScoped
+public class FulfillmentSaga implements Serializable {
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = Logger.getLogger(FulfillmentSaga.class.getName());
+    private static final String SAGA_DIR = System.getProperty("veristore.saga.dir");
+    private static final String STORE_DIR = System.getProperty("veristore.store.dir");
+    private static final int SEGMENT_BYTES = Integer.getInteger("veristore.saga.segmentMb", 1) << 20;
+
+    private static final byte CREATED = 1;
+    private static final byte CONFIRMED = 2;
+    private static final byte COMPENSATED = 3;
+    private static final byte CLOSED = 4;
+
+    private final transient Map<String, Map<Integer, Step>> sagas = new ConcurrentHashMap<>();
+    // Lines whose Atlas transaction is being created right now; in memory only, as no attempt outlives the process.
+    private final transient Set<Line> creating = ConcurrentHashMap.newKeySet();
+    // Steps change state and append their record under the read lock; compaction takes the write lock.
+    private final transient ReadWriteLock gate = new ReentrantReadWriteLock();
+    private transient MappedJournal journal;
+    private transient int segmentSize;
+    private transient volatile long compactedAt;
+
+    @PostConstruct
+    void init() {
+        start(journalDirectory(SAGA_DIR, STORE_DIR));
+    }
+
+    /**
+     * The saga directory if set, otherwise a {@code saga} directory beside a durable order store, so
+     * a store that survives restarts never loses the transactions its invoices are waiting on.
+     */
+    static Path journalDirectory(String sagaDir, String storeDir) {
+        if (sagaDir != null && !sagaDir.isBlank()) {
+            return Path.of(sagaDir);
+        }
+        return storeDir == null || storeDir.isBlank() ? null : Path.of(storeDir, "saga");
+    }
+
+    /**
+     * @param directory journal directory, or {@code null} to keep steps in memory only
+     */
+    void start(Path directory) {
+        start(directory, SEGMENT_BYTES);
+    }
+
+    void start(Path directory, int segmentSize) {
+        this.segmentSize = segmentSize;
+        if (directory != null) {
+            recover(directory);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    /**
+     * The step recorded for an invoice line, if its Atlas transaction was already created.
+     */
+    public Optional<Step> step(String invoiceNo, int line) {
+        Map<Integer, Step> steps = sagas.get(invoiceNo);
+        return steps == null ? Optional.empty() : Optional.ofNullable(steps.get(line));
+    }
+
+    /**
+     * Steps of every invoice that was neither paid nor fully compensated, by invoice number.
+     */
+    public Map<String, List<Step>> openSagas() {
+        Map<String, List<Step>> open = new LinkedHashMap<>();
+        sagas.keySet().stream().sorted().forEach(invoiceNo -> open.put(invoiceNo, steps(invoiceNo)));
+        return open;
+    }
+
+    public List<Step> steps(String invoiceNo) {
+        Map<Integer, Step> steps = sagas.get(invoiceNo);
+        if (steps == null) {
+            return List.of();
+        }
+        List<Step> sorted = new ArrayList<>(steps.values());
+        sorted.sort(Comparator.comparingInt(Step::line));
+        return sorted;
+    }
+
+    /**
+     * Claims the creation of a line's Atlas transaction. Returns {@code false} while another attempt,
+     * such as one an abandoned fulfillment left running, is still waiting on Atlas for the same line;
+     * that attempt gives the claim up through {@link #created} or {@link #creationFailed}.
+     */
+    boolean claimCreation(String invoiceNo, int line) {
+        return creating.add(new Line(Objects.requireNonNull(invoiceNo, "invoiceNo"), line));
+    }
+
+    void creationFailed(String invoiceNo, int line) {
+        creating.remove(new Line(invoiceNo, line));
+    }
+
+    /**
+     * Records a created Atlas transaction and gives up the line's creation claim; returns once the
+     * record is durable, so a crash before confirming cannot lose the transaction id.
+     */
+    void created(String invoiceNo, int line, String transactionId, String cancelUrl) {
+        Objects.requireNonNull(invoiceNo, "invoiceNo");
+        Objects.requireNonNull(transactionId, "transactionId");
+        Step step = new Step(line, transactionId, cancelUrl, StepState.CREATED);
+        long position;
+        gate.readLock().lock();
+        try {
+            sagas.computeIfAbsent(invoiceNo, key -> new ConcurrentHashMap<>()).put(line, step);
+            position = journal == null ? -1 : journal.append(encodeCreated(invoiceNo, step));
+        } finally {
+            gate.readLock().unlock();
+        }
+        // Only now, so whoever claims the line next finds the step.
+        creating.remove(new Line(invoiceNo, line));
+        if (position >= 0) {
+            journal.sync(position);
+            compactIfDue();
+        }
+    }
+
+    void confirmed(String invoiceNo, int line) {
+        gate.readLock().lock();
+        try {
+            if (advance(invoiceNo, line, StepState.CONFIRMED) && journal != null) {
+                // Not synced: a lost record only means confirming the transaction again.
+                journal.append(encode(CONFIRMED, out -> {
+                    out.writeUTF(invoiceNo);
+                    out.writeInt(line);
+                }));
+            }
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    /**
+     * Forgets an invoice whose PINs were delivered; its transactions must not be cancelled.
+     */
+    void completed(String invoiceNo) {
+        gate.readLock().lock();
+        try {
+            if (sagas.remove(invoiceNo) != null && journal != null) {
+                journal.append(encode(CLOSED, out -> out.writeUTF(invoiceNo)));
+            }
+        } finally {
+            gate.readLock().unlock();
+        }
+        compactIfDue();
+    }
+
+    /**
+     * Cancels the Atlas transactions of an abandoned invoice. Steps the compensator fails to cancel are
+     * kept and tried again on the next call. Returns {@code true} once nothing is left to cancel.
+     */
+    boolean compensate(String invoiceNo, Compensator compensator) {
+        Objects.requireNonNull(compensator, "compensator");
+        boolean done = true;
+        for (Step step : steps(invoiceNo)) {
+            if (step.state() == StepState.COMPENSATED) {
+                continue;
+            }
+            boolean cancelled;
+            try {
+                cancelled = compensator.cancel(step);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Cancelling Atlas transaction " + step.transactionId()
+                        + " of invoice " + invoiceNo + " failed", e);
+                cancelled = false;
+            }
+            if (!cancelled) {
+                done = false;
+            } else {
+                long position = -1;
+                gate.readLock().lock();
+                try {
+                    if (advance(invoiceNo, step.line(), StepState.COMPENSATED) && journal != null) {
+                        position = journal.append(encode(COMPENSATED, out -> {
+                            out.writeUTF(invoiceNo);
+                            out.writeInt(step.line());
+                        }));
+                    }
+                } finally {
+                    gate.readLock().unlock();
+                }
+                if (position >= 0) {
+                    journal.sync(position);
+                }
+            }
+        }
+        if (done) {
+            completed(invoiceNo);
+            LOGGER.log(Level.INFO, "Compensated Atlas transactions of abandoned invoice {0}", invoiceNo);
+        }
+        return done;
+    }
+
+    private boolean advance(String invoiceNo, int line, StepState state) {
+        Map<Integer, Step> steps = sagas.get(invoiceNo);
+        if (steps == null) {
+            return false;
+        }
+        Step updated = steps.computeIfPresent(line, (key, step) -> step.state() == StepState.COMPENSATED
+                ? step
+                : new Step(step.line(), step.transactionId(), step.cancelUrl(), state));
+        return updated != null && updated.state() == state;
+    }
+
+    /**
+     * Replays the journal, then compacts it.
+     */
+    private void recover(Path directory) {
+        MappedJournal opened = MappedJournal.open(directory, "saga", segmentSize);
+        opened.replay(0, (position, payload) -> apply(new ByteBufferInput(payload)));
+        journal = opened;
+        compact();
+        LOGGER.log(Level.INFO, "Recovered {0} open fulfillment sagas from {1}", new Object[]{sagas.size(), directory});
+    }
+
+    void compactIfDue() {
+        if (journal != null && journal.position() - compactedAt >= segmentSize) {
+            gate.writeLock().lock();
+            try {
+                // Another caller may have compacted while this one waited for the lock.
+                if (journal.position() - compactedAt >= segmentSize) {
+                    compact();
+                }
+            } finally {
+                gate.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the open sagas at the journal's tail and drops the segments before. Open sagas are few,
+     * so holding off new steps while they are rewritten is cheap. Callers hold the write lock, or own
+     * the journal outright during recovery.
+     */
+    private void compact() {
+        long marker = journal.position();
+        sagas.forEach((invoiceNo, steps) -> steps.values().forEach(step -> {
+            journal.append(encodeCreated(invoiceNo, step));
+            if (step.state() != StepState.CREATED) {
+                byte type = step.state() == StepState.CONFIRMED ? CONFIRMED : COMPENSATED;
+                journal.append(encode(type, out -> {
+                    out.writeUTF(invoiceNo);
+                    out.writeInt(step.line());
+                }));
+            }
+        }));
+        journal.sync(journal.position());
+        journal.truncateBefore(marker);
+        compactedAt = marker;
+    }
+
+    private void apply(DataInput in) {
+        try {
+            byte type = in.readByte();
+            String invoiceNo = in.readUTF();
+            switch (type) {
+                case CREATED -> {
+                    int line = in.readInt();
+                    String transactionId = in.readUTF();
+                    String cancelUrl = in.readBoolean() ? in.readUTF() : null;
+                    sagas.computeIfAbsent(invoiceNo, key -> new ConcurrentHashMap<>())
+                            .put(line, new Step(line, transactionId, cancelUrl, StepState.CREATED));
+                }
+                case CONFIRMED -> advance(invoiceNo, in.readInt(), StepState.CONFIRMED);
+                case COMPENSATED -> advance(invoiceNo, in.readInt(), StepState.COMPENSATED);
+                case CLOSED -> sagas.remove(invoiceNo);
+                default -> throw new IllegalStateException("Unknown saga journal record type " + type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupt saga journal record", e);
+        }
+    }
+
+    private static byte[] encodeCreated(String invoiceNo, Step step) {
+        return encode(CREATED, out -> {
+            out.writeUTF(invoiceNo);
+            out.writeInt(step.line());
+            out.writeUTF(step.transactionId());
+            out.writeBoolean(step.cancelUrl() != null);
+            if (step.cancelUrl() != null) {
+                out.writeUTF(step.cancelUrl());
+            }
+        });
+    }
+
+    private static byte[] encode(byte type, RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter {
+
+        void write(DataOutput out) throws IOException;
+    }
+
+    /**
+     * Cancels one step's Atlas transaction; {@code false} or an exception means try again later.
+     */
+    @FunctionalInterface
+    interface Compensator {
+
+        boolean cancel(Step step);
+    }
+
+    public enum StepState {
+        CREATED,
+        CONFIRMED,
+        COMPENSATED
+    }
+
+    private record Line(String invoiceNo, int line) {
+    }
+
+    /**
+     * @param line index of the invoice line the transaction was created for
+     */
+    public record Step(int line, String transactionId, String cancelUrl, StepState state) {
+    }
+}
@@ -11,13 +11,14 @@ import com.theplutushome.veristore.model.DeliveryPrefs;
 import com.theplutushome.veristore.model.InvoiceStatus;
 import com.theplutushome.veristore.model.Price;
 import com.theplutushome.veristore.payload.request.TransactionRequest;
-import com.theplutushome.veristore.service.email.EmailService;
 import com.theplutushome.veristore.service.atlas.AtlasService;
 import com.theplutushome.veristore.service.OrderStore;
 import com.theplutushome.veristore.service.PinVault;
 import com.theplutushome.veristore.service.PricingService;
-import com.theplutushome.veristore.util.VariantDescriptions;
+import com.theplutushome.veristore.util.Tracer;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
@@ -25,15 +26,29 @@ import java.io.Serial;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -49,6 +64,11 @@ public class PaymentService implements Serializable {
     private static final String DEFAULT_PAYMENT_MODE = "ONLINE";
     private static final String DEFAULT_SOURCE = "MOBILE_APP";
     private static final String DEFAULT_TELLER = "Veristore";
+    private static final int LINE_PARALLELISM = Integer.getInteger("veristore.fulfillment.lineParallelism", 16);
+    private static final long LINE_DEADLINE_SECONDS = Long.getLong("veristore.fulfillment.lineDeadlineSeconds", 60);
+    private static final long LINE_DRAIN_SECONDS = Long.getLong("veristore.fulfillment.lineDrainSeconds", 30);
+    private static final long COMPENSATION_SWEEP_SECONDS = Long.getLong("veristore.saga.sweepSeconds", 60);
+    private static final Duration MAX_COMPENSATION_BACKOFF = Duration.ofHours(1);
 
     @Inject
     private PinVault pinVault;
@@ -63,7 +83,79 @@ public class PaymentService implements Serializable {
     private AtlasService atlasService;
 
     @Inject
-    private EmailService emailService;
+    private DeliveryDispatcher deliveryDispatcher;
+
+    @Inject
+    private FulfillmentSaga saga;
+
+    private transient ExecutorService lineFetcher;
+    private transient Duration lineDeadline;
+    private transient Duration lineDrain;
+    private transient CompensationSweep compensations;
+    private transient ScheduledExecutorService compensationSweeper;
+
+    public PaymentService() {
+    }
+
+    PaymentService(PinVault pinVault, PricingService pricingService, OrderStore orderStore, AtlasService atlasService,
+                   DeliveryDispatcher deliveryDispatcher, FulfillmentSaga saga) {
+        this.pinVault = Objects.requireNonNull(pinVault, "pinVault");
+        this.pricingService = Objects.requireNonNull(pricingService, "pricingService");
+        this.orderStore = Objects.requireNonNull(orderStore, "orderStore");
+        this.atlasService = Objects.requireNonNull(atlasService, "atlasService");
+        this.deliveryDispatcher = Objects.requireNonNull(deliveryDispatcher, "deliveryDispatcher");
+        this.saga = Objects.requireNonNull(saga, "saga");
+    }
+
+    @PostConstruct
+    void init() {
+        start(LINE_PARALLELISM, Duration.ofSeconds(LINE_DEADLINE_SECONDS), Duration.ofSeconds(LINE_DRAIN_SECONDS),
+                Duration.ofSeconds(COMPENSATION_SWEEP_SECONDS));
+    }
+
+    /**
+     * @param lineParallelism Atlas lines of one invoice fetched at once
+     * @param lineDeadline    how long an invoice waits for all of its Atlas lines
+     * @param lineDrain       how long an abandoned invoice waits for lines already talking to Atlas
+     * @param sweepInterval   time between compensation sweeps, and the first compensation backoff
+     */
+    void start(int lineParallelism, Duration lineDeadline, Duration lineDrain, Duration sweepInterval) {
+        if (lineParallelism <= 0) {
+            throw new IllegalArgumentException("lineParallelism must be positive");
+        }
+        this.lineDeadline = Objects.requireNonNull(lineDeadline, "lineDeadline");
+        this.lineDrain = Objects.requireNonNull(lineDrain, "lineDrain");
+        AtomicInteger threads = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(lineParallelism, lineParallelism, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "atlas-line-fetch-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        lineFetcher = executor;
+        compensations = new CompensationSweep(saga, this::abandoned,
+                step -> atlasService.cancelTransaction(step.transactionId(), step.cancelUrl()),
+                sweepInterval, MAX_COMPENSATION_BACKOFF);
+        compensationSweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "saga-compensation-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        orderStore.onInvoiceCancelled(this::abandonInvoice);
+        // The first sweep picks up cancellations that came in while stopped.
+        compensationSweeper.scheduleWithFixedDelay(this::sweepAbandonedSagas, 0, sweepInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (compensationSweeper != null) {
+            compensationSweeper.shutdownNow();
+        }
+        if (lineFetcher != null) {
+            lineFetcher.shutdownNow();
+        }
+    }
 
     public CheckoutInitiation payNow(ProductKey key, int quantity, Contact contact, DeliveryPrefs deliveryPrefs) {
         return payNow(List.of(new Purchase(key, quantity)), contact, deliveryPrefs);
@@ -90,16 +182,46 @@ public class PaymentService implements Serializable {
             return false;
         }
         OrderStore.Invoice invoice = invoiceOpt.get();
-        if (invoice.getStatus() == InvoiceStatus.CANCELLED) {
-            LOGGER.log(Level.WARNING, () -> "Invoice " + invoiceNo + " is cancelled");
-            return false;
-        }
-        if (invoice.getStatus() == InvoiceStatus.PAID) {
-            return true;
+        switch (invoice.getStatus()) {
+            case CANCELLED -> {
+                LOGGER.log(Level.WARNING, () -> "Invoice " + invoiceNo + " is cancelled");
+                return false;
+            }
+            case PAID -> {
+                return true;
+            }
+            case FULFILLING -> {
+                LOGGER.log(Level.INFO, () -> "Invoice " + invoiceNo + " is already being fulfilled");
+                return false;
+            }
+            default -> {
+            }
         }
 
         String orderId = fulfillInvoice(invoice);
-        return orderId != null && invoice.getStatus() == InvoiceStatus.PAID;
+        // Re-read the status: repository backends may hand out detached copies of the invoice.
+        return orderId != null && orderStore.findInvoice(invoiceNo)
+                .map(stored -> stored.getStatus() == InvoiceStatus.PAID)
+                .orElse(false);
+    }
+
+    /**
+     * Abandons an unpaid invoice and cancels any Atlas transactions created for it. Calling it again on
+     * a cancelled invoice retries compensation that did not finish.
+     */
+    public boolean cancelInvoice(String invoiceNo) {
+        Objects.requireNonNull(invoiceNo, "invoiceNo");
+        if (orderStore.markInvoiceCancelled(invoiceNo)) {
+            LOGGER.log(Level.INFO, () -> "Cancelled invoice " + invoiceNo);
+            return true;
+        }
+        boolean cancelled = orderStore.findInvoice(invoiceNo)
+                .map(invoice -> invoice.getStatus() == InvoiceStatus.CANCELLED)
+                .orElse(false);
+        if (cancelled) {
+            abandonInvoice(invoiceNo);
+        }
+        return cancelled;
     }
 
     public boolean processGatewayCallback(String invoiceNo) {
@@ -116,36 +238,201 @@ public class PaymentService implements Serializable {
         return orderId != null;
     }
 
+    /**
+     * One attempt by the {@link FulfillmentQueue}. Losing the claim to a concurrent fulfillment is
+     * reported as busy so the queue checks back, rather than as done.
+     */
+    FulfillmentQueue.Outcome fulfillQueued(String invoiceNo) {
+        Optional<OrderStore.Invoice> invoice = orderStore.findInvoice(invoiceNo);
+        if (invoice.isEmpty()) {
+            LOGGER.log(Level.WARNING, () -> "Received callback for unknown invoice " + invoiceNo);
+            return FulfillmentQueue.Outcome.REJECTED;
+        }
+        if (invoice.get().getStatus() != InvoiceStatus.PAID && fulfillInvoice(invoice.get()) != null) {
+            return FulfillmentQueue.Outcome.FULFILLED;
+        }
+        InvoiceStatus status = orderStore.findInvoice(invoiceNo).map(OrderStore.Invoice::getStatus).orElse(null);
+        if (status == InvoiceStatus.PAID) {
+            return FulfillmentQueue.Outcome.FULFILLED;
+        }
+        return status == null || status == InvoiceStatus.CANCELLED
+                ? FulfillmentQueue.Outcome.REJECTED
+                : FulfillmentQueue.Outcome.BUSY;
+    }
+
+    /**
+     * Fulfills the invoice if this caller wins the PENDING/FAILED to FULFILLING transition; returns
+     * {@code null} straight away otherwise. Remote calls run without holding any lock.
+     */
     private String fulfillInvoice(OrderStore.Invoice invoice) {
-        synchronized (invoice) {
-            if (invoice.getStatus() == InvoiceStatus.PAID) {
+        try (Tracer.Span span = Tracer.start("payment.fulfillInvoice")) {
+            String invoiceNo = invoice.getInvoiceNo();
+            if (!orderStore.beginFulfillment(invoiceNo)) {
                 return null;
             }
-            Map<ProductKey, List<String>> deliveredCodes = new LinkedHashMap<>();
-            List<OrderStore.OrderLine> orderLines = new ArrayList<>();
-            for (OrderStore.InvoiceLine line : invoice.getLines()) {
-                List<String> codes = resolveCodes(invoice, line);
-                deliveredCodes.put(line.getKey(), codes);
-                orderLines.add(new OrderStore.OrderLine(
-                        line.getKey(),
-                        line.getQuantity(),
-                        line.getTotalMinor(),
-                        line.getCurrency(),
-                        codes));
+            String orderId;
+            try {
+                Map<ProductKey, List<String>> deliveredCodes = new LinkedHashMap<>();
+                List<OrderStore.OrderLine> orderLines = new ArrayList<>();
+                List<List<String>> resolved = resolveAllCodes(invoice);
+                for (int i = 0; i < invoice.getLines().size(); i++) {
+                    OrderStore.InvoiceLine line = invoice.getLines().get(i);
+                    List<String> codes = resolved.get(i);
+                    deliveredCodes.put(line.getKey(), codes);
+                    orderLines.add(new OrderStore.OrderLine(
+                            line.getKey(),
+                            line.getQuantity(),
+                            line.getTotalMinor(),
+                            line.getCurrency(),
+                            codes));
+                }
+                orderId = orderStore.settleInvoice(invoiceNo, deliveredCodes, orderLines,
+                        invoice.getContact(), invoice.getDeliveryPrefs());
+                if (orderId == null) {
+                    throw new IllegalStateException("Invoice " + invoiceNo + " left FULFILLING while being fulfilled");
+                }
+            } catch (RuntimeException e) {
+                span.fail();
+                if (orderStore.markInvoiceFailed(invoiceNo)) {
+                    LOGGER.log(Level.SEVERE, "Fulfillment of invoice " + invoiceNo + " failed", e);
+                }
+                throw e;
             }
-            orderStore.markInvoicePaid(invoice.getInvoiceNo(), deliveredCodes);
-            String orderId = orderStore.createOrder(orderLines, invoice.getContact(), invoice.getDeliveryPrefs());
-            deliver(orderId, invoice.getContact(), invoice.getDeliveryPrefs(), orderLines);
-            LOGGER.log(Level.INFO, () -> String.format("Redeemed invoice %s as order %s", invoice.getInvoiceNo(), orderId));
+            // The invoice is PAID from here on; a failure below must not mark it failed or hide the order.
+            afterSettle(invoiceNo, orderId);
+            LOGGER.log(Level.INFO, () -> String.format("Redeemed invoice %s as order %s (trace %s)",
+                    invoiceNo, orderId, Tracer.traceId()));
             return orderId;
         }
     }
 
-    private List<String> resolveCodes(OrderStore.Invoice invoice, OrderStore.InvoiceLine line) {
+    private void afterSettle(String invoiceNo, String orderId) {
+        try {
+            saga.completed(invoiceNo);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Unable to close the fulfillment saga of paid invoice " + invoiceNo, e);
+        }
+        try {
+            pinVault.settle(invoiceNo);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Unable to settle vault reservations of paid invoice " + invoiceNo, e);
+        }
+        try {
+            deliveryDispatcher.dispatch(orderId);
+        } catch (RuntimeException e) {
+            // The order stays in the outbox; the dispatcher resumes it on the next start.
+            LOGGER.log(Level.WARNING, "Unable to dispatch delivery of order " + orderId + " right away", e);
+        }
+    }
+
+    /**
+     * Codes for every line, in line order. Enrollment lines of a multi-line invoice are fetched from
+     * Atlas concurrently under one deadline; vault lines are committed only once they have all
+     * arrived, so a failed or late Atlas line fails the whole invoice without consuming vault PINs.
+     */
+    private List<List<String>> resolveAllCodes(OrderStore.Invoice invoice) {
+        List<OrderStore.InvoiceLine> lines = invoice.getLines();
+        List<List<String>> codes = new ArrayList<>(Collections.nCopies(lines.size(), null));
+        List<Integer> remote = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            if (lines.get(i).getKey().family() == ProductFamily.ENROLLMENT) {
+                remote.add(i);
+            }
+        }
+        if (remote.size() > 1 && lineFetcher != null) {
+            fetchConcurrently(invoice, remote, codes);
+        } else {
+            for (int i : remote) {
+                codes.set(i, fetchEnrollmentPins(invoice, i));
+            }
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            if (codes.get(i) == null) {
+                codes.set(i, resolveCodes(invoice, i));
+            }
+        }
+        return codes;
+    }
+
+    private void fetchConcurrently(OrderStore.Invoice invoice, List<Integer> indexes, List<List<String>> codes) {
+        String invoiceNo = invoice.getInvoiceNo();
+        Map<Integer, Future<List<String>>> fetches = new LinkedHashMap<>();
+        Map<Integer, AtomicBoolean> started = new LinkedHashMap<>();
+        for (int i : indexes) {
+            AtomicBoolean claim = new AtomicBoolean();
+            started.put(i, claim);
+            // A line that has not started when the invoice is abandoned never reaches Atlas.
+            fetches.put(i, lineFetcher.submit(Tracer.wrap(() -> claim.compareAndSet(false, true)
+                    ? fetchEnrollmentPins(invoice, i)
+                    : null)));
+        }
+        long deadline = System.nanoTime() + lineDeadline.toNanos();
+        int fetched = 0;
+        try {
+            for (Map.Entry<Integer, Future<List<String>>> fetch : fetches.entrySet()) {
+                codes.set(fetch.getKey(), fetch.getValue().get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS));
+                fetched++;
+            }
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Atlas did not return PINs for invoice " + invoiceNo
+                    + " within " + lineDeadline.toMillis() + " ms", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Fetching PINs for invoice " + invoiceNo + " failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while fetching PINs for invoice " + invoiceNo, e);
+        } finally {
+            if (fetched < fetches.size()) {
+                abandon(invoiceNo, fetches, started);
+            }
+        }
+    }
+
+    /**
+     * Drops the lines that have not started and waits, up to {@code veristore.fulfillment.lineDrainSeconds},
+     * for the ones already talking to Atlas. They are not interrupted: a transaction Atlas creates must
+     * reach the saga, so a retry confirms it and a cancellation compensates it, before the invoice is
+     * marked failed. A line still running after that holds its creation claim in the saga, so a retry
+     * fails instead of creating a second transaction for it.
+     */
+    private void abandon(String invoiceNo, Map<Integer, Future<List<String>>> fetches, Map<Integer, AtomicBoolean> started) {
+        List<Future<List<String>>> running = new ArrayList<>();
+        fetches.forEach((index, fetch) -> {
+            if (started.get(index).compareAndSet(false, true)) {
+                fetch.cancel(false);
+            } else {
+                running.add(fetch);
+            }
+        });
+        long drainDeadline = System.nanoTime() + lineDrain.toNanos();
+        int unfinished = 0;
+        for (Future<List<String>> fetch : running) {
+            try {
+                fetch.get(Math.max(0, drainDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                // Already reported through the line that failed first, or recorded in the saga.
+            } catch (TimeoutException e) {
+                unfinished++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                unfinished++;
+            }
+        }
+        int stillRunning = unfinished;
+        LOGGER.log(Level.WARNING, () -> String.format(
+                "Abandoned invoice %s with %d of %d Atlas lines started; %d still running will record their transactions when done",
+                invoiceNo, running.size(), fetches.size(), stillRunning));
+    }
+
+    private List<String> resolveCodes(OrderStore.Invoice invoice, int index) {
+        OrderStore.InvoiceLine line = invoice.getLines().get(index);
         if (line.getKey().family() == ProductFamily.ENROLLMENT) {
-            return fetchEnrollmentPins(invoice, line);
+            return fetchEnrollmentPins(invoice, index);
         }
-        return new ArrayList<>(pinVault.take(line.getKey(), line.getQuantity()));
+        return new ArrayList<>(pinVault.commit(invoice.getInvoiceNo(), line.getKey(), line.getQuantity()));
     }
 
     private CheckoutInitiation initiateInvoice(String label,
@@ -153,68 +440,128 @@ public class PaymentService implements Serializable {
                                                Contact contact,
                                                DeliveryPrefs deliveryPrefs,
                                                boolean autoFulfill) {
-        Objects.requireNonNull(purchases, "purchases");
-        Objects.requireNonNull(contact, "contact");
-        Objects.requireNonNull(deliveryPrefs, "deliveryPrefs");
-        if (purchases.isEmpty()) {
-            throw new IllegalArgumentException("purchases must not be empty");
-        }
-        List<PurchaseDetail> details = new ArrayList<>();
-        for (Purchase purchase : purchases) {
-            Objects.requireNonNull(purchase, "purchase");
-            validateQuantity(purchase.getQuantity());
-            Price price = pricingService.get(purchase.getKey());
-            details.add(new PurchaseDetail(purchase.getKey(), purchase.getQuantity(), price));
-        }
+        try (Tracer.Span span = Tracer.start("payment.initiateInvoice")) {
+            Objects.requireNonNull(purchases, "purchases");
+            Objects.requireNonNull(contact, "contact");
+            Objects.requireNonNull(deliveryPrefs, "deliveryPrefs");
+            if (purchases.isEmpty()) {
+                throw new IllegalArgumentException("purchases must not be empty");
+            }
+            // Vault takes, reservations and delivered codes are all keyed by product, so one line per product.
+            Map<ProductKey, Integer> quantities = new LinkedHashMap<>();
+            for (Purchase purchase : purchases) {
+                Objects.requireNonNull(purchase, "purchase");
+                validateQuantity(purchase.getQuantity());
+                quantities.merge(purchase.getKey(), purchase.getQuantity(), Math::addExact);
+            }
+            List<PurchaseDetail> details = new ArrayList<>();
+            quantities.forEach((key, quantity) ->
+                    details.add(new PurchaseDetail(key, quantity, pricingService.get(key))));
+
+            List<OrderStore.InvoiceLine> invoiceLines = new ArrayList<>();
+            for (PurchaseDetail detail : details) {
+                long totalMinor = multiply(detail.price().amountMinor(), detail.quantity());
+                invoiceLines.add(new OrderStore.InvoiceLine(
+                        detail.key(),
+                        detail.quantity(),
+                        totalMinor,
+                        detail.price().currency(),
+                        List.of()));
+            }
+            String storedInvoice = orderStore.createInvoice(invoiceLines, contact, deliveryPrefs, null, null);
+            try {
+                reservePins(storedInvoice, invoiceLines);
+            } catch (RuntimeException e) {
+                span.fail();
+                // Cancelling releases whatever was reserved before the failure.
+                orderStore.markInvoiceCancelled(storedInvoice);
+                throw new IllegalStateException("Unable to reserve PINs for invoice " + storedInvoice, e);
+            }
 
-        List<OrderStore.InvoiceLine> invoiceLines = new ArrayList<>();
-        for (PurchaseDetail detail : details) {
-            long totalMinor = multiply(detail.price().amountMinor(), detail.quantity());
-            invoiceLines.add(new OrderStore.InvoiceLine(
-                    detail.key(),
-                    detail.quantity(),
-                    totalMinor,
-                    detail.price().currency(),
-                    List.of()));
+            LOGGER.log(Level.INFO, () -> String.format("Created %s invoice %s for %s", label, storedInvoice, contact.email()));
+            String orderId = null;
+            if (autoFulfill) {
+                orderId = orderStore.findInvoice(storedInvoice)
+                        .map(this::fulfillInvoice)
+                        .orElse(null);
+            }
+            return new CheckoutInitiation(storedInvoice, null, orderId);
         }
-        String storedInvoice = orderStore.createInvoice(invoiceLines, contact, deliveryPrefs, null, null);
+    }
 
-        LOGGER.log(Level.INFO, () -> String.format("Created %s invoice %s for %s", label, storedInvoice, contact.email()));
-        String orderId = null;
-        if (autoFulfill) {
-            orderId = orderStore.findInvoice(storedInvoice)
-                    .map(this::fulfillInvoice)
-                    .orElse(null);
+    private void reservePins(String invoiceNo, List<OrderStore.InvoiceLine> lines) {
+        for (OrderStore.InvoiceLine line : lines) {
+            if (line.getKey().family() != ProductFamily.ENROLLMENT) {
+                pinVault.reserve(invoiceNo, line.getKey(), line.getQuantity());
+            }
         }
-        return new CheckoutInitiation(storedInvoice, null, orderId);
     }
 
-    private List<String> fetchEnrollmentPins(OrderStore.Invoice invoice, OrderStore.InvoiceLine line) {
-        EnrollmentSku sku = EnrollmentSku.bySku(line.getKey().sku())
-            .orElseThrow(() -> new IllegalArgumentException("Unknown enrollment SKU: " + line.getKey().sku()));
+    /**
+     * Creates and confirms the line's Atlas transaction, or only confirms it if an earlier attempt
+     * already created one.
+     */
+    private List<String> fetchEnrollmentPins(OrderStore.Invoice invoice, int index) {
+        try (Tracer.Span span = Tracer.start("payment.fetchEnrollmentPins")) {
+            OrderStore.InvoiceLine line = invoice.getLines().get(index);
+            EnrollmentSku sku = EnrollmentSku.bySku(line.getKey().sku())
+                .orElseThrow(() -> new IllegalArgumentException("Unknown enrollment SKU: " + line.getKey().sku()));
+
+            String invoiceNo = invoice.getInvoiceNo();
+            Optional<FulfillmentSaga.Step> step = resumableStep(invoiceNo, index);
+            if (step.isEmpty()) {
+                if (!saga.claimCreation(invoiceNo, index)) {
+                    throw span.fail(new IllegalStateException("An earlier attempt is still creating the Atlas transaction for line "
+                            + index + " of invoice " + invoiceNo));
+                }
+                // That attempt may have recorded its transaction between the look-up and the claim.
+                step = resumableStep(invoiceNo, index);
+                if (step.isPresent()) {
+                    saga.creationFailed(invoiceNo, index);
+                }
+            }
+            String transactionId;
+            if (step.isPresent()) {
+                transactionId = step.get().transactionId();
+                LOGGER.log(Level.INFO, "Resuming Atlas transaction {0} for line {1} of invoice {2}",
+                    new Object[]{transactionId, index, invoiceNo});
+            } else {
+                TransactionRecord transaction;
+                try {
+                    transaction = atlasService.createTransaction(buildTransactionRequest(invoice, line, sku));
+                } catch (RuntimeException e) {
+                    saga.creationFailed(invoiceNo, index);
+                    throw e;
+                }
+                if (transaction == null || transaction.transactionId() == null || transaction.transactionId().isBlank()) {
+                    saga.creationFailed(invoiceNo, index);
+                    throw span.fail(new IllegalStateException("Atlas transaction could not be created for " + sku.name()));
+                }
+                transactionId = transaction.transactionId();
+                saga.created(invoiceNo, index, transactionId, transaction.cancelURL());
+            }
 
-        TransactionRequest request = buildTransactionRequest(invoice, line, sku);
-        System.out.println("THE REQUEST >>>>> " + request.toString());
-        TransactionRecord transaction = atlasService.createTransaction(request);
-        if (transaction == null || transaction.transactionId() == null || transaction.transactionId().isBlank()) {
-            throw new IllegalStateException("Atlas transaction could not be created for " + sku.name());
-        }
+            List<PinRecord> pins = atlasService.confirmTransaction(transactionId);
+            if (pins == null || pins.isEmpty()) {
+                throw span.fail(new IllegalStateException("Atlas returned no PINs for transaction " + transactionId));
+            }
+            saga.confirmed(invoiceNo, index);
+            if (pins.size() < line.getQuantity()) {
+                LOGGER.log(Level.WARNING, () -> String.format(
+                    "Atlas returned %d PIN(s) but %d were requested for %s",
+                    pins.size(),
+                    line.getQuantity(),
+                    sku.name()));
+            }
 
-        List<PinRecord> pins = atlasService.confirmTransaction(transaction.transactionId());
-        if (pins == null || pins.isEmpty()) {
-            throw new IllegalStateException("Atlas returned no PINs for transaction " + transaction.transactionId());
-        }
-        if (pins.size() < line.getQuantity()) {
-            LOGGER.log(Level.WARNING, () -> String.format(
-                "Atlas returned %d PIN(s) but %d were requested for %s",
-                pins.size(),
-                line.getQuantity(),
-                sku.name()));
+            return pins.stream()
+                .map(this::formatPinRecord)
+                .collect(Collectors.toList());
         }
+    }
 
-        return pins.stream()
-            .map(this::formatPinRecord)
-            .collect(Collectors.toList());
+    private Optional<FulfillmentSaga.Step> resumableStep(String invoiceNo, int index) {
+        return saga.step(invoiceNo, index).filter(existing -> existing.state() != FulfillmentSaga.StepState.COMPENSATED);
     }
 
     private TransactionRequest buildTransactionRequest(OrderStore.Invoice invoice,
@@ -252,36 +599,6 @@ public class PaymentService implements Serializable {
         return serial + " - " + value;
     }
 
-    private void deliver(String reference,
-                         Contact contact,
-                         DeliveryPrefs deliveryPrefs,
-                         List<OrderStore.OrderLine> lines) {
-        if (lines.isEmpty()) {
-            return;
-        }
-        Map<String, List<String>> codesByProduct = new LinkedHashMap<>();
-        for (OrderStore.OrderLine line : lines) {
-            if (line.getCodes().isEmpty()) {
-                continue;
-            }
-            String description = VariantDescriptions.describe(line.getKey().family(), line.getKey().sku());
-            codesByProduct.computeIfAbsent(description, key -> new ArrayList<>())
-                    .addAll(line.getCodes());
-        }
-        if (codesByProduct.isEmpty()) {
-            return;
-        }
-        if (deliveryPrefs.byEmail() && contact.email() != null && !contact.email().isBlank()) {
-            boolean sent = emailService.sendPinsEmail(contact.email(), reference, codesByProduct);
-            if (!sent) {
-                LOGGER.log(Level.WARNING, () -> "Failed to send PIN email to " + contact.email());
-            }
-        }
-        if (deliveryPrefs.bySms() && contact.msisdn() != null && !contact.msisdn().isBlank()) {
-            LOGGER.log(Level.INFO, () -> "SMS delivery pending implementation for " + contact.msisdn());
-        }
-    }
-
     private void validateQuantity(int quantity) {
         if (quantity <= 0) {
             throw new IllegalArgumentException("quantity must be positive");
@@ -381,4 +698,46 @@ public class PaymentService implements Serializable {
             return price;
         }
     }
+
+    /**
+     * Cancels the Atlas transactions of an abandoned invoice on the Atlas pool, off the caller's thread.
+     * This is only the fast path: the periodic sweep retries whatever it leaves open.
+     */
+    private void compensateLater(String invoiceNo) {
+        if (saga.steps(invoiceNo).isEmpty() || lineFetcher == null) {
+            return;
+        }
+        try {
+            lineFetcher.execute(() -> compensations.compensate(invoiceNo));
+        } catch (RejectedExecutionException e) {
+            // Shutting down; open sagas of cancelled invoices are compensated on the next start.
+        }
+    }
+
+    /**
+     * Returns the invoice's reserved PINs to the vault and starts cancelling its Atlas transactions.
+     * Runs on the thread that cancelled or expired the invoice.
+     */
+    private void abandonInvoice(String invoiceNo) {
+        pinVault.release(invoiceNo);
+        compensateLater(invoiceNo);
+    }
+
+    private void sweepAbandonedSagas() {
+        try {
+            compensations.sweep();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Saga compensation sweep failed; retrying on the next one", e);
+        }
+    }
+
+    /**
+     * An invoice that was cancelled, or is gone altogether, is never paid. A failed one is left to
+     * fulfillment retries until it expires into cancelled.
+     */
+    private boolean abandoned(String invoiceNo) {
+        return orderStore.findInvoice(invoiceNo)
+                .map(invoice -> invoice.getStatus() == InvoiceStatus.CANCELLED)
+                .orElse(true);
+    }
 }
@@ -0,0 +1,222 @@
+package com.theplutushome.veristore.util;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel: scheduling and cancelling are O(1) regardless of how many timeouts are
+ * outstanding, at the cost of firing up to one tick late. Callers only touch lock-free queues; a
+ * single worker thread moves new timeouts into their buckets, unlinks cancelled ones and runs
+ * expired tasks, so tasks should be short.
+ */
+public final class HashedWheelTimer implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(HashedWheelTimer.class.getName());
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Entry> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean running = true;
+    private long tick;
+
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        Objects.requireNonNull(name, "name");
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be positive");
+        }
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize must be a positive power of two");
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheelSize - 1;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Runs {@code task} on the timer thread once {@code delay} has elapsed.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Objects.requireNonNull(task, "task");
+        if (!running) {
+            throw new IllegalStateException("Timer has been stopped");
+        }
+        Entry entry = new Entry(task, System.nanoTime() - startNanos + unit.toNanos(Math.max(0, delay)));
+        scheduled.add(entry);
+        return entry;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                continue;
+            }
+            Entry removed;
+            while ((removed = cancelled.poll()) != null) {
+                if (removed.bucket != null) {
+                    removed.bucket.remove(removed);
+                }
+            }
+            transferScheduled();
+            wheel[(int) (tick & mask)].expire(deadline);
+            tick++;
+        }
+    }
+
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long sleepNanos = deadline - (System.nanoTime() - startNanos);
+            if (sleepNanos <= 0) {
+                return deadline;
+            }
+            LockSupport.parkNanos(this, sleepNanos);
+            if (!running) {
+                return -1;
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Entry entry = scheduled.poll();
+            if (entry == null) {
+                return;
+            }
+            if (entry.state.get() != Entry.PENDING) {
+                continue;
+            }
+            long dueTick = entry.deadlineNanos / tickNanos;
+            entry.remainingRounds = (dueTick - tick) / wheel.length;
+            // Timeouts already overdue go into the current bucket and fire on this tick.
+            wheel[(int) (Math.max(dueTick, tick) & mask)].add(entry);
+        }
+    }
+
+    public interface Timeout {
+
+        /**
+         * Cancels the timeout; returns {@code false} when it already fired or was cancelled.
+         */
+        boolean cancel();
+    }
+
+    private final class Entry implements Timeout {
+
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+
+        final Runnable task;
+        final long deadlineNanos;
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        long remainingRounds;
+        Bucket bucket;
+        Entry previous;
+        Entry next;
+
+        Entry(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            cancelled.add(this);
+            return true;
+        }
+
+        void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Timer task failed", e);
+            }
+        }
+    }
+
+    // Buckets are only touched by the worker thread.
+    private static final class Bucket {
+
+        private Entry head;
+        private Entry tail;
+
+        void add(Entry entry) {
+            entry.bucket = this;
+            if (head == null) {
+                head = entry;
+                tail = entry;
+            } else {
+                tail.next = entry;
+                entry.previous = tail;
+                tail = entry;
+            }
+        }
+
+        void expire(long deadline) {
+            Entry entry = head;
+            while (entry != null) {
+                Entry next = entry.next;
+                if (entry.remainingRounds <= 0 && entry.deadlineNanos <= deadline) {
+                    remove(entry);
+                    entry.expire();
+                } else if (entry.state.get() == Entry.CANCELLED) {
+                    remove(entry);
+                } else {
+                    entry.remainingRounds--;
+                }
+                entry = next;
+            }
+        }
+
+        void remove(Entry entry) {
+            if (entry.bucket != this) {
+                return;
+            }
+            if (entry.previous != null) {
+                entry.previous.next = entry.next;
+            } else {
+                head = entry.next;
+            }
+            if (entry.next != null) {
+                entry.next.previous = entry.previous;
+            } else {
+                tail = entry.previous;
+            }
+            entry.previous = null;
+            entry.next = null;
+            entry.bucket = null;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.theplutushome.veristore.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket latency histogram. Recording is a scan over a dozen bounds plus two {@link LongAdder}
+ * increments, with no allocation, so it can sit on hot paths shared by many threads.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Upper bucket bounds in microseconds; anything slower lands in the implicit +Inf bucket.
+     */
+    private static final long[] BOUNDS_MICROS = {
+        50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000, 1_000_000
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_MICROS.length + 1];
+    private final LongAdder totalNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = 0;
+        while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        totalNanos.add(nanos);
+    }
+
+    public Snapshot snapshot() {
+        long[] cumulative = new long[buckets.length];
+        long running = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            running += buckets[i].sum();
+            cumulative[i] = running;
+        }
+        return new Snapshot(BOUNDS_MICROS.clone(), cumulative, totalNanos.sum());
+    }
+
+    /**
+     * Cumulative counts per bucket, Prometheus style: {@code cumulativeCounts[i]} samples took at most
+     * {@code boundsMicros[i]}, and the last entry counts every sample.
+     */
+    public record Snapshot(long[] boundsMicros, long[] cumulativeCounts, long totalNanos) {
+
+        public long count() {
+            return cumulativeCounts[cumulativeCounts.length - 1];
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.theplutushome.veristore.util;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Span-based latency tracing for the checkout and fulfillment path. {@link #start} opens a span under
+ * the thread's current one, or a new trace if there is none; closing it records the span into a fixed
+ * ring of the most recent {@code veristore.tracing.ringSize} spans. Recording is one counter increment
+ * and one array store, with no locks. Work handed to another thread keeps its trace through
+ * {@link #wrap} or {@link #current}/{@link #attach}.
+ */
+public final class Tracer {
+
+    private static final boolean ENABLED = !Boolean.getBoolean("veristore.tracing.disabled");
+    private static final int RING_SIZE = Integer.highestOneBit(Math.max(64, Integer.getInteger("veristore.tracing.ringSize", 8192)));
+
+    private static final ThreadLocal<Context> CURRENT = new ThreadLocal<>();
+    private static final AtomicLong SPAN_IDS = new AtomicLong();
+    private static final Tracer GLOBAL = new Tracer(RING_SIZE);
+
+    private final AtomicReferenceArray<SpanRecord> ring;
+    private final AtomicLong written = new AtomicLong();
+    private final int mask;
+
+    Tracer(int ringSize) {
+        if (Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("ringSize must be a power of two");
+        }
+        this.ring = new AtomicReferenceArray<>(ringSize);
+        this.mask = ringSize - 1;
+    }
+
+    public static Tracer global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Opens a span for {@code stage}; close it with try-with-resources.
+     */
+    public static Span start(String stage) {
+        return ENABLED ? GLOBAL.open(stage) : Span.NOOP;
+    }
+
+    /**
+     * Like {@link #start}, but records nothing outside a trace; for stages that are also called from
+     * untraced paths such as page rendering, so they do not crowd the ring with one-span traces.
+     */
+    public static Span child(String stage) {
+        return ENABLED && CURRENT.get() != null ? GLOBAL.open(stage) : Span.NOOP;
+    }
+
+    /**
+     * The calling thread's trace id, or {@code null} outside a trace.
+     */
+    public static String traceId() {
+        Context context = CURRENT.get();
+        return context == null ? null : context.traceId;
+    }
+
+    /**
+     * The calling thread's position in its trace, to {@link #attach} on another thread.
+     */
+    public static Context current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Makes {@code context} the calling thread's current one until the returned scope is closed.
+     */
+    public static Scope attach(Context context) {
+        Context previous = CURRENT.get();
+        CURRENT.set(context);
+        return () -> CURRENT.set(previous);
+    }
+
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Context context = CURRENT.get();
+        if (context == null) {
+            return task;
+        }
+        return () -> {
+            try (Scope ignored = attach(context)) {
+                return task.call();
+            }
+        };
+    }
+
+    Span open(String stage) {
+        Objects.requireNonNull(stage, "stage");
+        Context parent = CURRENT.get();
+        String traceId = parent == null ? newTraceId() : parent.traceId;
+        Context context = new Context(traceId, SPAN_IDS.incrementAndGet());
+        CURRENT.set(context);
+        return new Span(this, stage, context, parent);
+    }
+
+    void record(SpanRecord span) {
+        ring.set((int) (written.getAndIncrement() & mask), span);
+    }
+
+    /**
+     * The spans still in the ring, oldest first.
+     */
+    public List<SpanRecord> spans() {
+        long end = written.get();
+        long start = Math.max(0, end - ring.length());
+        List<SpanRecord> spans = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            SpanRecord span = ring.get((int) (i & mask));
+            if (span != null) {
+                spans.add(span);
+            }
+        }
+        spans.sort(Comparator.comparingLong(SpanRecord::startMicros));
+        return spans;
+    }
+
+    /**
+     * Latency percentiles per stage over the spans in the ring, slowest stage first.
+     */
+    public List<StageStats> stages() {
+        Map<String, List<SpanRecord>> byStage = new LinkedHashMap<>();
+        for (SpanRecord span : spans()) {
+            byStage.computeIfAbsent(span.stage(), key -> new ArrayList<>()).add(span);
+        }
+        List<StageStats> stats = new ArrayList<>(byStage.size());
+        byStage.forEach((stage, spans) -> {
+            long[] durations = spans.stream().mapToLong(SpanRecord::durationNanos).sorted().toArray();
+            long errors = spans.stream().filter(SpanRecord::error).count();
+            stats.add(new StageStats(stage, durations.length, errors, percentile(durations, 0.50),
+                    percentile(durations, 0.90), percentile(durations, 0.99), durations[durations.length - 1]));
+        });
+        stats.sort(Comparator.comparingLong(StageStats::p99Nanos).reversed());
+        return stats;
+    }
+
+    /**
+     * The {@code limit} slowest traces whose root span is still in the ring, with all of their spans.
+     */
+    public List<Trace> slowest(int limit) {
+        Map<String, List<SpanRecord>> byTrace = new LinkedHashMap<>();
+        for (SpanRecord span : spans()) {
+            byTrace.computeIfAbsent(span.traceId(), key -> new ArrayList<>()).add(span);
+        }
+        List<Trace> traces = new ArrayList<>();
+        byTrace.forEach((traceId, spans) -> spans.stream()
+                .filter(span -> span.parentSpanId() == 0)
+                .findFirst()
+                .ifPresent(root -> traces.add(new Trace(traceId, root, spans))));
+        traces.sort(Comparator.comparingLong((Trace trace) -> trace.root().durationNanos()).reversed());
+        return traces.size() > limit ? List.copyOf(traces.subList(0, limit)) : traces;
+    }
+
+    public List<SpanRecord> trace(String traceId) {
+        return spans().stream().filter(span -> span.traceId().equals(traceId)).toList();
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String newTraceId() {
+        char[] id = new char[16];
+        Arrays.fill(id, '0');
+        String hex = Long.toHexString(ThreadLocalRandom.current().nextLong());
+        hex.getChars(0, hex.length(), id, id.length - hex.length());
+        return new String(id);
+    }
+
+    /**
+     * A thread's position in a trace: the trace id and the span new spans are opened under.
+     */
+    public static final class Context {
+
+        private final String traceId;
+        private final long spanId;
+
+        private Context(String traceId, long spanId) {
+            this.traceId = traceId;
+            this.spanId = spanId;
+        }
+
+        public String traceId() {
+            return traceId;
+        }
+    }
+
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+
+    /**
+     * An open span. Not thread-safe; close it on the thread that opened it.
+     */
+    public static final class Span implements AutoCloseable {
+
+        static final Span NOOP = new Span(null, null, null, null);
+
+        private final Tracer tracer;
+        private final String stage;
+        private final Context context;
+        private final Context parent;
+        private final long startMicros;
+        private final long startNanos;
+        private boolean error;
+        private boolean closed;
+
+        private Span(Tracer tracer, String stage, Context context, Context parent) {
+            this.tracer = tracer;
+            this.stage = stage;
+            this.context = context;
+            this.parent = parent;
+            Instant now = tracer == null ? Instant.EPOCH : Instant.now();
+            this.startMicros = TimeUnit.SECONDS.toMicros(now.getEpochSecond()) + now.getNano() / 1_000;
+            this.startNanos = tracer == null ? 0 : System.nanoTime();
+        }
+
+        /**
+         * Marks the span failed; use it where a failure is returned rather than thrown.
+         */
+        public void fail() {
+            error = true;
+        }
+
+        /**
+         * Marks the span failed and hands the exception back, for {@code throw span.fail(e)}.
+         */
+        public <E extends Throwable> E fail(E exception) {
+            error = true;
+            return exception;
+        }
+
+        @Override
+        public void close() {
+            if (tracer == null || closed) {
+                return;
+            }
+            closed = true;
+            long duration = System.nanoTime() - startNanos;
+            CURRENT.set(parent);
+            tracer.record(new SpanRecord(context.traceId, context.spanId, parent == null ? 0 : parent.spanId,
+                    stage, startMicros, duration, error));
+        }
+    }
+
+    /**
+     * @param parentSpanId {@code 0} for the root span of a trace
+     * @param startMicros  wall-clock start, in microseconds since the epoch
+     */
+    public record SpanRecord(String traceId, long spanId, long parentSpanId, String stage, long startMicros,
+                             long durationNanos, boolean error) {
+    }
+
+    public record StageStats(String stage, long count, long errors, long p50Nanos, long p90Nanos, long p99Nanos,
+                             long maxNanos) {
+    }
+
+    /**
+     * @param spans every span of the trace still in the ring, in start order
+     */
+    public record Trace(String traceId, SpanRecord root, List<SpanRecord> spans) {
+    }
+}
@@ -0,0 +1,71 @@
+package com.theplutushome.veristore.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IdGeneratorTest {
+
+    @Test
+    void concurrentCallersWithinOneMillisecondGetDistinctIds() throws Exception {
+        AtomicLong frozen = new AtomicLong(IdGenerator.EPOCH_MILLIS + 1_000);
+        IdGenerator generator = new IdGenerator(7, null, frozen::get);
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        assertTrue(seen.add(generator.next("INV-")));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(40_000, seen.size());
+    }
+
+    @Test
+    void restartBehindTheClockResumesPastIssuedIds(@TempDir Path dir) {
+        Path mark = dir.resolve("ids-1.hwm");
+        AtomicLong clock = new AtomicLong(IdGenerator.EPOCH_MILLIS + 60_000);
+        IdGenerator first = new IdGenerator(1, mark, clock::get);
+        String last = null;
+        for (int i = 0; i < 5_000; i++) {
+            last = first.next("ORD-");
+        }
+        first.close();
+
+        clock.addAndGet(-30_000);
+        IdGenerator second = new IdGenerator(1, mark, clock::get);
+        String next = second.next("ORD-");
+        second.close();
+
+        assertEquals(17, next.length());
+        assertTrue(next.compareTo(last) > 0, () -> "expected an id after the last issued one");
+    }
+
+    @Test
+    void rejectsNodeIdsOutsideTheField() {
+        assertThrows(IllegalArgumentException.class, () -> new IdGenerator(IdGenerator.MAX_NODE_ID + 1));
+        assertThrows(IllegalArgumentException.class, () -> new IdGenerator(-1));
+    }
+}
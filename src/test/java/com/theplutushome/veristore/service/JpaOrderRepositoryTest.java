@@ -0,0 +1,117 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.Contact;
+import com.theplutushome.veristore.model.Currency;
+import com.theplutushome.veristore.model.DeliveryPrefs;
+import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.Persistence;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JpaOrderRepositoryTest {
+
+    private static final ProductKey Y1 = new ProductKey(ProductFamily.VERIFICATION, "Y1");
+    private static final ProductKey Y2 = new ProductKey(ProductFamily.VERIFICATION, "Y2");
+    private static final DeliveryPrefs EMAIL_ONLY = new DeliveryPrefs(true, false);
+
+    private static EntityManagerFactory emf;
+
+    @BeforeAll
+    static void createFactory() {
+        emf = Persistence.createEntityManagerFactory("veristoreTestPU");
+    }
+
+    @AfterAll
+    static void closeFactory() {
+        emf.close();
+    }
+
+    @Test
+    void storesInvoicesAndTracksStatus() {
+        OrderStore store = new OrderStore(new JpaOrderRepository(emf));
+        Contact contact = new Contact("jpa-invoice@example.com", "0200000001");
+        List<OrderStore.InvoiceLine> lines = List.of(
+                new OrderStore.InvoiceLine(Y1, 2, 200, Currency.GHS, List.of()),
+                new OrderStore.InvoiceLine(Y2, 1, 150, Currency.GHS, List.of()));
+        String invoiceNo = store.createInvoice(lines, contact, EMAIL_ONLY, "INV-JPA-1", null);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> store.createInvoice(lines, contact, EMAIL_ONLY, invoiceNo, null));
+
+        assertTrue(store.beginFulfillment(invoiceNo));
+        assertFalse(store.beginFulfillment(invoiceNo));
+        assertTrue(store.markInvoicePaid(invoiceNo, Map.of(Y1, List.of("AAAA", "BBBB"), Y2, List.of("CCCC"))));
+        OrderStore.Invoice stored = store.findInvoice(invoiceNo).orElseThrow();
+        assertEquals(InvoiceStatus.PAID, stored.getStatus());
+        assertEquals(350, stored.getTotalMinor());
+        assertEquals(List.of("AAAA", "BBBB", "CCCC"), stored.getCodesIfDelivered());
+        assertTrue(store.findInvoice("INV-JPA-missing").isEmpty());
+    }
+
+    @Test
+    void settlingPaysTheInvoiceAndQueuesItsOrderForDelivery() {
+        OrderStore store = new OrderStore(new JpaOrderRepository(emf));
+        Contact contact = new Contact("jpa-settle@example.com", "0200000009");
+        String invoiceNo = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, "INV-JPA-SETTLE", null);
+        List<OrderStore.OrderLine> lines = List.of(new OrderStore.OrderLine(Y1, 1, 100, Currency.GHS, List.of("AAAA")));
+
+        assertEquals(null, store.settleInvoice(invoiceNo, Map.of(Y1, List.of("AAAA")), lines, contact, EMAIL_ONLY));
+        assertTrue(store.beginFulfillment(invoiceNo));
+        String orderId = store.settleInvoice(invoiceNo, Map.of(Y1, List.of("AAAA")), lines, contact, EMAIL_ONLY);
+
+        assertEquals(InvoiceStatus.PAID, store.findInvoice(invoiceNo).orElseThrow().getStatus());
+        assertEquals(List.of("AAAA"), store.findOrder(orderId).orElseThrow().getCodes());
+        assertTrue(store.pendingDeliveries().contains(orderId));
+        store.markDelivered(orderId);
+        assertFalse(store.pendingDeliveries().contains(orderId));
+    }
+
+    @Test
+    void aNodeSeesStatusChangesMadeByAnotherNode() {
+        EntityManagerFactory otherNode = Persistence.createEntityManagerFactory("veristoreTestPU",
+                Map.of("jakarta.persistence.schema-generation.database.action", "none"));
+        try {
+            OrderStore first = new OrderStore(new JpaOrderRepository(emf));
+            OrderStore second = new OrderStore(new JpaOrderRepository(otherNode));
+            String invoiceNo = first.createInvoice(Y1, 1, new Contact("jpa-nodes@example.com", "0200000010"),
+                    EMAIL_ONLY, 100, Currency.GHS, "INV-JPA-NODES", null);
+            assertEquals(InvoiceStatus.PENDING, first.findInvoice(invoiceNo).orElseThrow().getStatus());
+            assertEquals(InvoiceStatus.PENDING, second.findInvoice(invoiceNo).orElseThrow().getStatus());
+
+            assertTrue(second.beginFulfillment(invoiceNo));
+
+            assertEquals(InvoiceStatus.FULFILLING, first.findInvoice(invoiceNo).orElseThrow().getStatus());
+            assertFalse(first.beginFulfillment(invoiceNo));
+        } finally {
+            otherNode.close();
+        }
+    }
+
+    @Test
+    void looksUpOrdersByNormalizedContactNewestFirst() {
+        OrderStore store = new OrderStore(new JpaOrderRepository(emf));
+        String first = store.createOrder(Y1, 1, new Contact("Jpa-Order@Example.com", "0200000002"), EMAIL_ONLY, 100, Currency.GHS, List.of("A1"));
+        String second = store.createOrder(Y1, 2, new Contact("other@example.com", "020 000 0002"), EMAIL_ONLY, 200, Currency.GHS, List.of("B1", "B2"));
+        store.createOrder(Y1, 1, new Contact("unrelated@example.com", "0209999999"), EMAIL_ONLY, 100, Currency.GHS, List.of("C1"));
+
+        List<OrderStore.Order> orders = store.findOrdersByContact(new Contact("jpa-order@example.com", "0200000002"));
+
+        assertEquals(List.of(second, first), orders.stream().map(OrderStore.Order::getId).toList());
+        assertEquals(List.of("B1", "B2"), orders.get(0).getCodes());
+        assertEquals(List.of("A1"), store.findOrder(first).orElseThrow().getCodes());
+    }
+}
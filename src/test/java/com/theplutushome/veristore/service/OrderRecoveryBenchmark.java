@@ -0,0 +1,91 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.Contact;
+import com.theplutushome.veristore.model.Currency;
+import com.theplutushome.veristore.model.DeliveryPrefs;
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to reopen the journaled order store at a million orders, half from the snapshot and half
+ * replayed from the journal tail, spread over 400k emails and 300k phone numbers. Run with
+ * {@code mvn -Pbench test-compile exec:exec -Dbench.include=OrderRecovery}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class OrderRecoveryBenchmark {
+
+    private static final int ORDERS = 1_000_000;
+    private static final int SEGMENT_BYTES = 64 << 20;
+
+    private Path directory;
+
+    @Setup(Level.Trial)
+    public void writeStore() throws IOException {
+        directory = Files.createTempDirectory("order-recovery");
+        ProductKey key = new ProductKey(ProductFamily.VERIFICATION, "Y1");
+        DeliveryPrefs prefs = new DeliveryPrefs(true, false);
+        Instant start = Instant.now();
+        OrderJournal journal = OrderJournal.open(directory, SEGMENT_BYTES);
+        List<OrderStore.Order> snapshotted = new ArrayList<>(ORDERS / 2);
+        for (int i = 0; i < ORDERS; i++) {
+            Contact contact = new Contact("user" + (i % 400_000) + "@example.com", "024" + (i % 300_000));
+            OrderStore.Order order = new OrderStore.Order(String.format("ORD-%08d", i), contact, prefs, 100,
+                    Currency.GHS, start.plusMillis(i),
+                    List.of(new OrderStore.OrderLine(key, 1, 100, Currency.GHS, List.of("ABCDEFGHJKLMNP"))));
+            if (i < ORDERS / 2) {
+                snapshotted.add(order);
+            } else {
+                journal.apply(() -> { }, () -> OrderJournal.orderCreated(order));
+            }
+            if (i == ORDERS / 2 - 1) {
+                journal.snapshot(List.of(), snapshotted, List.of());
+            }
+        }
+        journal.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteStore() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public int recover() {
+        InMemoryOrderRepository repository = new InMemoryOrderRepository();
+        repository.openJournal(directory, SEGMENT_BYTES, 0);
+        int found = repository.countOrdersByContact("user1@example.com", "0241");
+        repository.closeWithoutSnapshot();
+        return found;
+    }
+}
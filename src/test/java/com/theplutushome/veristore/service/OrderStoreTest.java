@@ -0,0 +1,405 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.Contact;
+import com.theplutushome.veristore.model.Currency;
+import com.theplutushome.veristore.model.DeliveryPrefs;
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+
+import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.util.HashedWheelTimer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderStoreTest {
+
+    private static final ProductKey Y1 = new ProductKey(ProductFamily.VERIFICATION, "Y1");
+    private static final DeliveryPrefs EMAIL_ONLY = new DeliveryPrefs(true, false);
+
+    @Test
+    void findsOrdersByEitherContactNewestFirst() {
+        OrderStore store = new OrderStore();
+        String first = store.createOrder(Y1, 1, new Contact("Ama@Example.com", "0240000001"), EMAIL_ONLY, 100, Currency.GHS, List.of("A"));
+        String second = store.createOrder(Y1, 1, new Contact("kofi@example.com", "024 000 0001"), EMAIL_ONLY, 100, Currency.GHS, List.of("B"));
+        String third = store.createOrder(Y1, 1, new Contact(" ama@example.com ", ""), EMAIL_ONLY, 100, Currency.GHS, List.of("C"));
+        store.createOrder(Y1, 1, new Contact("other@example.com", "0550000000"), EMAIL_ONLY, 100, Currency.GHS, List.of("D"));
+
+        List<String> ids = store.findOrdersByContact(new Contact("ama@example.com", "0240000001")).stream()
+                .map(OrderStore.Order::getId)
+                .toList();
+
+        assertEquals(List.of(third, second, first), ids);
+    }
+
+    @Test
+    void blankQueryFieldsDoNotMatchEverything() {
+        OrderStore store = new OrderStore();
+        store.createOrder(Y1, 1, new Contact("ama@example.com", ""), EMAIL_ONLY, 100, Currency.GHS, List.of("A"));
+
+        assertTrue(store.findOrdersByContact(new Contact("", "")).isEmpty());
+        assertTrue(store.findOrdersByContact(new Contact("kofi@example.com", "")).isEmpty());
+    }
+
+    @Test
+    void pagesThroughHistoryWithContinuationTokens() {
+        OrderStore store = new OrderStore();
+        Contact contact = new Contact("ama@example.com", "0240000001");
+        List<String> created = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            created.add(0, store.createOrder(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, List.of("P" + i)));
+        }
+
+        List<String> seen = new ArrayList<>();
+        String continuation = null;
+        int pages = 0;
+        do {
+            OrderStore.OrderPage page = store.findOrdersByContact(contact, continuation, 2);
+            page.orders().forEach(order -> seen.add(order.getId()));
+            continuation = page.continuation();
+            pages++;
+        } while (continuation != null);
+
+        assertEquals(3, pages);
+        assertEquals(created, seen);
+        assertEquals(5, store.countOrdersByContact(contact));
+        assertThrows(IllegalArgumentException.class, () -> store.findOrdersByContact(contact, "not a cursor", 2));
+    }
+
+    @Test
+    void exactlyOneCallerClaimsFulfillment() throws Exception {
+        OrderStore store = new OrderStore();
+        Contact contact = new Contact("ama@example.com", "0240000001");
+        String invoiceNo = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, null, null);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> claims = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                claims.add(pool.submit(() -> store.beginFulfillment(invoiceNo)));
+            }
+            int winners = 0;
+            for (Future<Boolean> claim : claims) {
+                winners += claim.get() ? 1 : 0;
+            }
+            assertEquals(1, winners);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertFalse(store.markInvoiceCancelled(invoiceNo));
+        assertTrue(store.markInvoiceFailed(invoiceNo));
+        assertTrue(store.beginFulfillment(invoiceNo));
+        assertTrue(store.markInvoicePaid(invoiceNo, Map.of(Y1, List.of("AAAA"))));
+        assertFalse(store.beginFulfillment(invoiceNo));
+        assertFalse(store.markInvoiceCancelled(invoiceNo));
+        assertEquals(InvoiceStatus.PAID, store.findInvoice(invoiceNo).orElseThrow().getStatus());
+    }
+
+    @Test
+    void expiresUnpaidInvoicesAndHonoursLateCallbacksWithinGrace() throws Exception {
+        OrderStore store = new OrderStore();
+        store.startExpiry(new HashedWheelTimer("test-expiry", 10, TimeUnit.MILLISECONDS, 8),
+                Duration.ofMillis(50), Duration.ofMillis(300));
+        Contact contact = new Contact("ama@example.com", "0240000001");
+        String abandoned = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, null, null);
+        String late = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, null, null);
+        String paid = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, null, null);
+        assertTrue(store.beginFulfillment(paid));
+
+        awaitStatus(store, abandoned, InvoiceStatus.CANCELLED);
+        awaitStatus(store, late, InvoiceStatus.CANCELLED);
+        assertTrue(store.beginFulfillment(late));
+        assertEquals(InvoiceStatus.FULFILLING, store.findInvoice(paid).orElseThrow().getStatus());
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (store.findInvoice(abandoned).isPresent() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(store.findInvoice(abandoned).isEmpty());
+        assertFalse(store.beginFulfillment(abandoned));
+        assertEquals(InvoiceStatus.FULFILLING, store.findInvoice(late).orElseThrow().getStatus());
+        store.shutdown();
+    }
+
+    @Test
+    void aFailedFulfillmentStillExpiresByTtl() throws Exception {
+        OrderStore store = new OrderStore();
+        store.startExpiry(new HashedWheelTimer("test-expiry", 10, TimeUnit.MILLISECONDS, 8),
+                Duration.ofMillis(50), Duration.ofSeconds(5));
+        Contact contact = new Contact("ama@example.com", "0240000001");
+        String failed = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, null, null);
+        String settled = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, null, null);
+        assertTrue(store.beginFulfillment(failed));
+        assertTrue(store.beginFulfillment(settled));
+        assertTrue(store.markInvoiceFailed(settled));
+        assertTrue(store.beginFulfillment(settled));
+        List<OrderStore.OrderLine> lines = List.of(new OrderStore.OrderLine(Y1, 1, 100, Currency.GHS, List.of("AAAA")));
+        assertNotEquals(null, store.settleInvoice(settled, Map.of(Y1, List.of("AAAA")), lines, contact, EMAIL_ONLY));
+
+        Thread.sleep(150);
+        assertEquals(InvoiceStatus.FULFILLING, store.findInvoice(failed).orElseThrow().getStatus());
+        assertTrue(store.markInvoiceFailed(failed));
+        awaitStatus(store, failed, InvoiceStatus.CANCELLED);
+        assertEquals(InvoiceStatus.PAID, store.findInvoice(settled).orElseThrow().getStatus());
+        store.shutdown();
+    }
+
+    @Test
+    void cancellationListenersHearEveryCancelAndExpiry() throws Exception {
+        OrderStore store = new OrderStore();
+        List<String> heard = new CopyOnWriteArrayList<>();
+        store.onInvoiceCancelled(heard::add);
+        store.onInvoiceCancelled(invoiceNo -> {
+            throw new IllegalStateException("a failing listener must not stop the others");
+        });
+        store.startExpiry(new HashedWheelTimer("test-expiry", 10, TimeUnit.MILLISECONDS, 8),
+                Duration.ofMillis(50), Duration.ofSeconds(5));
+        Contact contact = new Contact("ama@example.com", "0240000001");
+        String cancelled = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, null, null);
+        String expired = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, null, null);
+        assertTrue(store.markInvoiceCancelled(cancelled));
+        assertFalse(store.markInvoiceCancelled(cancelled));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (heard.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of(cancelled, expired), heard);
+        store.shutdown();
+    }
+
+    @Test
+    void sharedDatabaseBackendRequiresANodeIdAndAHighWaterMarkLocation() {
+        assertThrows(IllegalStateException.class, () -> OrderStore.checkSharedBackendIdentity(null, "/var/veristore"));
+        assertThrows(IllegalStateException.class, () -> OrderStore.checkSharedBackendIdentity("3", " "));
+        OrderStore.checkSharedBackendIdentity("3", "/var/veristore");
+    }
+
+    @Test
+    void aLateCallbackRightAfterExpiryStillReinstatesTheInvoice() throws Exception {
+        InMemoryOrderRepository repository = new InMemoryOrderRepository();
+        OrderStore store = new OrderStore(repository);
+        String invoiceNo = store.createInvoice(Y1, 1, new Contact("ama@example.com", "0240000001"), EMAIL_ONLY,
+                100, Currency.GHS, null, null);
+        List<Boolean> reinstated = new CopyOnWriteArrayList<>();
+        InvoiceExpiry[] expiry = new InvoiceExpiry[1];
+        // The callback runs right after the PENDING -> CANCELLED transition, where a late payment can land.
+        expiry[0] = new InvoiceExpiry(repository, new HashedWheelTimer("test-expiry-race", 10, TimeUnit.MILLISECONDS, 8),
+                Duration.ZERO, Duration.ofSeconds(30), expired -> reinstated.add(expiry[0].reinstate(expired)));
+        try {
+            expiry[0].track(store.findInvoice(invoiceNo).orElseThrow());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (reinstated.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(List.of(true), reinstated);
+            assertEquals(InvoiceStatus.PENDING, store.findInvoice(invoiceNo).orElseThrow().getStatus());
+        } finally {
+            expiry[0].close();
+        }
+    }
+
+    @Test
+    void recoversFromSnapshotAndJournalTail(@TempDir Path dir) {
+        InMemoryOrderRepository repository = new InMemoryOrderRepository();
+        repository.openJournal(dir, 1 << 16, 0);
+        OrderStore store = new OrderStore(repository);
+        Contact contact = new Contact("ama@example.com", "0240000001");
+        String paid = store.createInvoice(Y1, 2, contact, EMAIL_ONLY, 200, Currency.GHS, "INV-1", null);
+        String before = store.createOrder(Y1, 2, contact, EMAIL_ONLY, 200, Currency.GHS, List.of("AAAA", "BBBB"));
+        repository.snapshot();
+        assertTrue(store.beginFulfillment(paid));
+        assertTrue(store.markInvoicePaid(paid, Map.of(Y1, List.of("AAAA", "BBBB"))));
+        String cancelled = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, "INV-2", "https://pay");
+        store.markInvoiceCancelled(cancelled);
+        String after = store.createOrder(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, List.of("CCCC"));
+        repository.closeWithoutSnapshot();
+
+        InMemoryOrderRepository reopened = new InMemoryOrderRepository();
+        reopened.openJournal(dir, 1 << 16, 0);
+        OrderStore recovered = new OrderStore(reopened);
+        recovered.init();
+
+        OrderStore.Invoice paidInvoice = recovered.findInvoice(paid).orElseThrow();
+        assertEquals(InvoiceStatus.PAID, paidInvoice.getStatus());
+        assertEquals(List.of("AAAA", "BBBB"), paidInvoice.getCodesIfDelivered());
+        OrderStore.Invoice cancelledInvoice = recovered.findInvoice(cancelled).orElseThrow();
+        assertEquals(InvoiceStatus.CANCELLED, cancelledInvoice.getStatus());
+        assertEquals("https://pay", cancelledInvoice.getCheckoutUrl());
+        assertEquals(List.of(after, before), recovered.findOrdersByContact(contact).stream().map(OrderStore.Order::getId).toList());
+        assertEquals(List.of("CCCC"), recovered.findOrder(after).orElseThrow().getCodes());
+
+        String next = recovered.createOrder(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, List.of("DDDD"));
+        assertNotEquals(after, next);
+        assertNotEquals(before, next);
+        recovered.shutdown();
+    }
+
+    @Test
+    void contactHistoriesKeepTheirOrderAcrossRestarts(@TempDir Path dir) {
+        InMemoryOrderRepository repository = new InMemoryOrderRepository();
+        repository.openJournal(dir, 1 << 20, 0);
+        OrderStore store = new OrderStore(repository);
+        Contact regular = new Contact("ama@example.com", "0240000001");
+        Contact once = new Contact("kofi@example.com", "0240000002");
+        List<String> history = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            if (i == 20) {
+                repository.snapshot();
+            }
+            history.add(0, store.createOrder(Y1, 1, regular, EMAIL_ONLY, 100, Currency.GHS, List.of("R" + i)));
+        }
+        String single = store.createOrder(Y1, 1, once, EMAIL_ONLY, 100, Currency.GHS, List.of("K"));
+        repository.closeWithoutSnapshot();
+
+        InMemoryOrderRepository reopened = new InMemoryOrderRepository();
+        reopened.openJournal(dir, 1 << 20, 0);
+        OrderStore recovered = new OrderStore(reopened);
+        List<String> seen = new ArrayList<>();
+        String continuation = null;
+        do {
+            OrderStore.OrderPage page = recovered.findOrdersByContact(regular, continuation, 7);
+            page.orders().forEach(order -> seen.add(order.getId()));
+            continuation = page.continuation();
+        } while (continuation != null);
+        assertEquals(history, seen);
+        assertEquals(50, recovered.countOrdersByContact(regular));
+        assertEquals(List.of(single), recovered.findOrdersByContact(once).stream().map(OrderStore.Order::getId).toList());
+
+        String latest = recovered.createOrder(Y1, 1, regular, EMAIL_ONLY, 100, Currency.GHS, List.of("R50"));
+        assertEquals(latest, recovered.findOrdersByContact(regular, null, 1).orders().get(0).getId());
+        assertEquals(51, recovered.countOrdersByContact(regular));
+        recovered.shutdown();
+    }
+
+    @Test
+    void settledOrdersStayInTheDeliveryOutboxAcrossRestarts(@TempDir Path dir) {
+        InMemoryOrderRepository repository = new InMemoryOrderRepository();
+        repository.openJournal(dir, 1 << 16, 0);
+        OrderStore store = new OrderStore(repository);
+        Contact contact = new Contact("ama@example.com", "0240000001");
+        List<OrderStore.OrderLine> lines = List.of(new OrderStore.OrderLine(Y1, 1, 100, Currency.GHS, List.of("AAAA")));
+        String first = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, "INV-1", null);
+        String second = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, "INV-2", null);
+
+        assertEquals(null, store.settleInvoice(first, Map.of(Y1, List.of("AAAA")), lines, contact, EMAIL_ONLY));
+        assertTrue(store.beginFulfillment(first));
+        String delivered = store.settleInvoice(first, Map.of(Y1, List.of("AAAA")), lines, contact, EMAIL_ONLY);
+        repository.snapshot();
+        assertTrue(store.beginFulfillment(second));
+        String pending = store.settleInvoice(second, Map.of(Y1, List.of("BBBB")), lines, contact, EMAIL_ONLY);
+        assertEquals(List.of(delivered, pending), store.pendingDeliveries());
+        store.markDelivered(delivered);
+        repository.closeWithoutSnapshot();
+
+        InMemoryOrderRepository reopened = new InMemoryOrderRepository();
+        reopened.openJournal(dir, 1 << 16, 0);
+        OrderStore recovered = new OrderStore(reopened);
+        assertEquals(List.of(pending), recovered.pendingDeliveries());
+        assertEquals(InvoiceStatus.PAID, recovered.findInvoice(second).orElseThrow().getStatus());
+        assertEquals(List.of("BBBB"), recovered.findInvoice(second).orElseThrow().getCodesIfDelivered());
+        assertTrue(recovered.findOrder(pending).isPresent());
+        recovered.shutdown();
+    }
+
+    @Test
+    void tieredOrdersFaultBackInAfterRestart(@TempDir Path dir) {
+        InMemoryOrderRepository repository = new InMemoryOrderRepository();
+        repository.openColdTier(dir.resolve("cold"), Duration.ofDays(1), 4, 0);
+        repository.openJournal(dir, 1 << 16, 0);
+        OrderStore store = new OrderStore(repository);
+        Contact contact = new Contact("ama@example.com", "0240000001");
+        String cold = store.createOrder(Y1, 2, contact, EMAIL_ONLY, 200, Currency.GHS, List.of("AAAA", "BBBB"));
+        assertEquals(1, repository.moveToColdTier(Instant.now().plusSeconds(1)));
+        String hot = store.createOrder(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, List.of("CCCC"));
+
+        assertEquals(List.of("AAAA", "BBBB"), store.findOrder(cold).orElseThrow().getCodes());
+        assertEquals(List.of(hot, cold), store.findOrdersByContact(contact).stream().map(OrderStore.Order::getId).toList());
+        repository.closeWithoutSnapshot();
+
+        InMemoryOrderRepository reopened = new InMemoryOrderRepository();
+        reopened.openColdTier(dir.resolve("cold"), Duration.ofDays(1), 4, 0);
+        reopened.openJournal(dir, 1 << 16, 0);
+        OrderStore recovered = new OrderStore(reopened);
+        recovered.init();
+
+        assertEquals(0, reopened.moveToColdTier(Instant.now().minus(Duration.ofDays(1))));
+        assertEquals(List.of(hot, cold), recovered.findOrdersByContact(contact).stream().map(OrderStore.Order::getId).toList());
+        assertEquals(List.of("AAAA", "BBBB"), recovered.findOrder(cold).orElseThrow().getCodes());
+        assertNotEquals(cold, recovered.createOrder(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, List.of("DDDD")));
+        recovered.shutdown();
+    }
+
+    @Test
+    void eventFeedHonoursDemandAndFailsSubscribersThatFallBehind() {
+        OrderStore store = new OrderStore(new InMemoryOrderRepository(), new OrderEventFeed(4, Runnable::run));
+        List<OrderEvent> received = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+        store.events().subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription[0] = s;
+                s.request(2);
+            }
+
+            @Override
+            public void onNext(OrderEvent event) {
+                received.add(event);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                errors.add(error);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        Contact contact = new Contact("ama@example.com", "");
+        String invoiceNo = store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, null, null);
+        String orderId = store.createOrder(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, List.of("A"));
+        store.markInvoiceCancelled(invoiceNo);
+
+        assertEquals(List.of(new OrderEvent.InvoiceCreated(0, received.get(0).at(), invoiceNo),
+                new OrderEvent.OrderCreated(1, received.get(1).at(), orderId)), received);
+        subscription[0].request(1);
+        assertEquals(new OrderEvent.InvoiceCancelled(2, received.get(2).at(), invoiceNo), received.get(2));
+
+        for (int i = 0; i < 5; i++) {
+            store.createOrder(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, List.of("B"));
+        }
+        subscription[0].request(10);
+        assertEquals(3, received.size());
+        assertTrue(errors.get(0) instanceof OrderEventFeed.OverrunException);
+    }
+
+    private static void awaitStatus(OrderStore store, String invoiceNo, InvoiceStatus status) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (store.findInvoice(invoiceNo).orElseThrow().getStatus() != status && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(status, store.findInvoice(invoiceNo).orElseThrow().getStatus());
+    }
+}
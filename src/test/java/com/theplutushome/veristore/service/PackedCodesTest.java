@@ -0,0 +1,34 @@
+package com.theplutushome.veristore.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PackedCodesTest {
+
+    @Test
+    void roundTripsEveryAlphabet() {
+        List<List<String>> batches = List.of(
+                List.of(),
+                List.of("ABCDEFGHJKLMNP", "QRSTUVWXYZ2345", "6789ABCDEFGHJK"),
+                List.of("123456789 - 000111222333", "9 - 1", ""),
+                List.of("Serial0 - abcXYZ", "z"),
+                List.of("PIN/é-ü", "plain"));
+        for (List<String> codes : batches) {
+            List<String> view = PackedCodes.view(PackedCodes.pack(codes));
+            assertEquals(codes, view);
+            assertEquals(codes.size(), PackedCodes.count(PackedCodes.pack(codes)));
+        }
+        assertThrows(UnsupportedOperationException.class, () -> PackedCodes.view(PackedCodes.pack(List.of("A"))).add("B"));
+    }
+
+    @Test
+    void vaultPinsTakeFiveBitsPerCharacter() {
+        byte[] packed = PackedCodes.pack(List.of("ABCDEFGHJKLMNP", "QRSTUVWXYZ2345"));
+        assertTrue(packed.length <= 3 + (2 * 14 * 5 + 7) / 8, () -> "packed to " + packed.length + " bytes");
+    }
+}
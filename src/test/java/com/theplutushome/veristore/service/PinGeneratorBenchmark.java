@@ -0,0 +1,54 @@
+package com.theplutushome.veristore.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Codes per second from {@link PinGenerator} against the former one-{@code nextInt}-per-character
+ * generator sharing a single {@link SecureRandom}. Run with {@code mvn -Pbench test-compile exec:exec}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class PinGeneratorBenchmark {
+
+    private static final int BATCH = 256;
+    private static final char[] ALLOWED = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789".toCharArray();
+
+    private final SecureRandom shared = new SecureRandom();
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void sharedSecureRandom(Blackhole blackhole) {
+        for (int n = 0; n < BATCH; n++) {
+            char[] buffer = new char[14];
+            for (int i = 0; i < buffer.length; i++) {
+                buffer[i] = ALLOWED[shared.nextInt(ALLOWED.length)];
+            }
+            blackhole.consume(new String(buffer));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void batchedDrbg(Blackhole blackhole) {
+        blackhole.consume(PinGenerator.next(BATCH));
+    }
+}
@@ -0,0 +1,36 @@
+package com.theplutushome.veristore.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PinGeneratorTest {
+
+    private static final String ALPHABET = "ABCDEFGHJKLMNPQRSTUVWXYZ23456789";
+
+    @Test
+    void drawsEveryCharacterOfEveryPositionUniformly() {
+        int codes = 64_000;
+        int[][] counts = new int[PinGenerator.CODE_LENGTH][ALPHABET.length()];
+        List<String> generated = PinGenerator.next(codes);
+        assertEquals(codes, generated.size());
+        for (String code : generated) {
+            assertEquals(PinGenerator.CODE_LENGTH, code.length());
+            for (int i = 0; i < code.length(); i++) {
+                int index = ALPHABET.indexOf(code.charAt(i));
+                assertTrue(index >= 0, "unexpected character in " + code);
+                counts[i][index]++;
+            }
+        }
+        int expected = codes / ALPHABET.length();
+        for (int[] position : counts) {
+            for (int count : position) {
+                // Ten standard deviations either side of 2000 draws.
+                assertTrue(Math.abs(count - expected) < 440, "skewed count " + count);
+            }
+        }
+    }
+}
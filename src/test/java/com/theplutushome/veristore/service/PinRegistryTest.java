@@ -0,0 +1,96 @@
+package com.theplutushome.veristore.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PinRegistryTest {
+
+    @Test
+    void rejectsPreviouslyIssuedCodesAcrossRestarts(@TempDir Path dir) {
+        List<String> issued = PinGenerator.next(5_000);
+        PinRegistry registry = PinRegistry.open(dir, 20_000);
+        assertEquals(issued, registry.register(issued));
+        assertEquals(List.of(), registry.register(issued.subList(0, 10)));
+        registry.close();
+
+        PinRegistry reopened = PinRegistry.open(dir, 20_000);
+        assertEquals(5_000, reopened.size());
+        List<String> batch = new ArrayList<>(PinGenerator.next(100));
+        batch.add(issued.get(42));
+        batch.add(batch.get(0));
+        List<String> fresh = reopened.register(batch);
+        assertEquals(batch.subList(0, 100), fresh);
+        assertTrue(reopened.contains(issued.get(4_999)));
+        assertFalse(reopened.contains("AAAAAAAAAAAAAA"));
+    }
+
+    @Test
+    void recoversCodesRegisteredSinceTheLastCheckpoint(@TempDir Path dir) {
+        List<String> issued = PinGenerator.next(1_000);
+        PinRegistry crashed = PinRegistry.open(dir, 4_000);
+        crashed.register(issued);
+        // No close(), so no checkpoint: the codes are only in the log.
+
+        PinRegistry reopened = PinRegistry.open(dir, 4_000);
+        assertEquals(1_000, reopened.size());
+        for (String code : issued) {
+            assertTrue(reopened.contains(code));
+        }
+        reopened.close();
+    }
+
+    @Test
+    void growsPastThreeQuartersFullAndKeepsEveryCode(@TempDir Path dir) throws IOException {
+        // Capacity 100 rounds up to 256 slots, full at 192 codes.
+        PinRegistry registry = PinRegistry.open(dir, 100);
+        List<String> issued = PinGenerator.next(1_000);
+        assertEquals(issued.subList(0, 150), registry.register(issued.subList(0, 150)));
+        assertEquals(issued.subList(150, 1_000), registry.register(issued.subList(150, 1_000)));
+        assertEquals(List.of(), registry.register(issued.subList(0, 200)));
+        registry.close();
+
+        PinRegistry reopened = PinRegistry.open(dir, 100);
+        try {
+            assertEquals(1_000, reopened.size());
+            for (String code : issued) {
+                assertTrue(reopened.contains(code));
+            }
+        } finally {
+            reopened.close();
+        }
+        try (Stream<Path> tables = Files.list(dir)) {
+            assertEquals(1, tables.filter(file -> file.getFileName().toString().startsWith("issued.table")).count());
+        }
+    }
+
+    @Test
+    void rebuildsWhenReopenedWithALargerCapacity(@TempDir Path dir) {
+        List<String> issued = PinGenerator.next(150);
+        PinRegistry small = PinRegistry.open(dir, 100);
+        small.register(issued);
+        small.close();
+
+        PinRegistry larger = PinRegistry.open(dir, 10_000);
+        try {
+            assertEquals(150, larger.size());
+            for (String code : issued) {
+                assertTrue(larger.contains(code));
+            }
+            larger.register(PinGenerator.next(9_000));
+            assertEquals(9_150, larger.size());
+        } finally {
+            larger.close();
+        }
+    }
+}
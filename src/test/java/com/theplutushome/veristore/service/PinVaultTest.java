@@ -0,0 +1,281 @@
+package com.theplutushome.veristore.service;
+
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+
+import com.theplutushome.veristore.util.HashedWheelTimer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PinVaultTest {
+
+    private static final ProductKey Y1 = new ProductKey(ProductFamily.VERIFICATION, "Y1");
+    private static final ProductKey CU = new ProductKey(ProductFamily.ENROLLMENT, "CU");
+
+    @Test
+    void concurrentTakesNeverHandOutTheSamePinTwice() throws Exception {
+        PinVault vault = new PinVault();
+        vault.ensure(Y1, 20_000);
+        vault.ensure(CU, 20_000);
+        int threads = 8;
+        int takesPerThread = 2_000;
+        Set<String> handedOut = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads + 1);
+        try {
+            List<Future<Integer>> takers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                ProductKey key = t % 2 == 0 ? Y1 : CU;
+                int quantity = 1 + t % 3;
+                takers.add(pool.submit(() -> {
+                    start.await();
+                    int taken = 0;
+                    for (int i = 0; i < takesPerThread; i++) {
+                        List<String> pins = vault.take(key, quantity);
+                        assertEquals(quantity, pins.size());
+                        for (String pin : pins) {
+                            assertTrue(handedOut.add(pin), "PIN handed out twice: " + pin);
+                        }
+                        taken += pins.size();
+                    }
+                    return taken;
+                }));
+            }
+            Future<?> refill = pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < 200; i++) {
+                    vault.ensure(Y1, 5_000);
+                    vault.ensure(CU, 5_000);
+                }
+                return null;
+            });
+            start.countDown();
+            int total = 0;
+            for (Future<Integer> taker : takers) {
+                total += taker.get();
+            }
+            refill.get();
+            assertEquals(total, handedOut.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void replenishesInTheBackgroundAndCountsInlineFallbacks() throws Exception {
+        PinVault vault = new PinVault();
+        vault.startReplenisher(10);
+        try {
+            assertEquals(3, vault.take(Y1, 3).size());
+            assertEquals(3, vault.inlineGenerated());
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (vault.stocked(Y1) < 512 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(vault.stocked(Y1) >= 512);
+            vault.take(Y1, 100);
+            assertEquals(3, vault.inlineGenerated());
+        } finally {
+            vault.shutdown();
+        }
+    }
+
+    @Test
+    void stockLevelsReportPerSkuCountersAndTakeLatency() {
+        PinVault vault = new PinVault();
+        vault.ensure(Y1, 10);
+        vault.take(Y1, 4);
+        vault.take(Y1, 8);
+        vault.reserve("INV-T1", CU, 2);
+
+        List<PinVault.StockLevel> levels = vault.stockLevels();
+        assertEquals(List.of(CU, Y1), levels.stream().map(PinVault.StockLevel::key).toList());
+        PinVault.StockLevel y1 = levels.get(1);
+        assertEquals(0, y1.available());
+        assertEquals(12, y1.taken());
+        assertEquals(2, y1.inlineGenerated());
+        assertEquals(2, y1.takeLatency().count());
+        PinVault.StockLevel cu = levels.get(0);
+        assertEquals(1, cu.reservations());
+        assertEquals(2, cu.inlineGenerated());
+        assertEquals(4, vault.inlineGenerated());
+    }
+
+    @Test
+    void reservedPinsCountAsTakenOnceWhenCommitted(@TempDir Path dir) {
+        PinVault inMemory = new PinVault();
+        PinVault ledgered = new PinVault();
+        ledgered.openLedger(dir, 10_000);
+        try {
+            for (PinVault vault : List.of(inMemory, ledgered)) {
+                vault.ensure(Y1, 10);
+                vault.reserve("INV-C1", Y1, 3);
+                assertEquals(0, vault.stockLevels().get(0).taken());
+                vault.commit("INV-C1", Y1, 3);
+                assertEquals(3, vault.stockLevels().get(0).taken());
+            }
+        } finally {
+            ledgered.shutdown();
+        }
+    }
+
+    @Test
+    void pinsReturnedToAFullOffHeapRingAreKept() {
+        PinVault vault = new PinVault(64);
+        vault.ensure(Y1, 64);
+        vault.reserve("INV-R1", Y1, 10);
+        vault.ensure(Y1, 64);
+        assertEquals(64, vault.stocked(Y1));
+
+        vault.release("INV-R1");
+
+        assertEquals(74, vault.stocked(Y1));
+        assertEquals(74, new HashSet<>(vault.take(Y1, 74)).size());
+        assertEquals(0, vault.inlineGenerated());
+    }
+
+    @Test
+    void offHeapStockIsBoundedAndHandsOutEachPinOnce() throws Exception {
+        PinVault vault = new PinVault(1024);
+        vault.ensure(Y1, 5_000);
+        assertEquals(1024, vault.stocked(Y1));
+
+        Set<String> handedOut = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                workers.add(pool.submit(() -> {
+                    for (int i = 0; i < 1_000; i++) {
+                        for (String pin : vault.take(Y1, 2)) {
+                            assertEquals(OffHeapPinRing.CODE_LENGTH, pin.length());
+                            assertTrue(handedOut.add(pin), "PIN handed out twice: " + pin);
+                        }
+                        vault.ensure(Y1, 512);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(8_000, handedOut.size());
+    }
+
+    @Test
+    void ledgerKeepsTakesAcrossRestartsWithoutReissuingPins(@TempDir Path dir) {
+        PinVault vault = new PinVault();
+        vault.openLedger(dir, 10_000);
+        vault.ensure(Y1, 100);
+        List<String> first = vault.take("INV-1", Y1, 3);
+        List<String> anonymous = vault.take(Y1, 5);
+        vault.shutdown();
+
+        PinVault reopened = new PinVault();
+        reopened.openLedger(dir, 10_000);
+        assertEquals(92, reopened.stocked(Y1));
+        assertEquals(first, reopened.take("INV-1", Y1, 3));
+        List<String> second = reopened.take("INV-2", Y1, 10);
+        assertEquals(82, reopened.stocked(Y1));
+        reopened.settle("INV-1");
+        reopened.shutdown();
+
+        PinVault again = new PinVault();
+        again.openLedger(dir, 10_000);
+        assertEquals(second, again.take("INV-2", Y1, 10));
+        List<String> retaken = again.take("INV-1", Y1, 3);
+        again.shutdown();
+
+        Set<String> all = new HashSet<>();
+        for (List<String> pins : List.of(first, anonymous, second, retaken)) {
+            all.addAll(pins);
+        }
+        assertEquals(21, all.size());
+    }
+
+    @Test
+    void ledgerCheckpointDropsCoveredSegmentsAndReplaysOnlyTheTail(@TempDir Path dir) throws Exception {
+        PinLedger ledger = PinLedger.open(dir, 4096);
+        ledger.stock(Y1, PinGenerator.next(400));
+        List<String> kept = ledger.take("INV-KEPT", Y1, 2).orElseThrow();
+        for (int i = 0; i < 200; i++) {
+            ledger.take("INV-" + i, Y1, 1).orElseThrow();
+            ledger.settle("INV-" + i);
+        }
+        long segments = journalSegments(dir);
+        ledger.checkpointIfDue();
+        assertTrue(journalSegments(dir) < segments);
+        List<String> tail = ledger.take("INV-TAIL", Y1, 3).orElseThrow();
+        ledger.release("INV-KEPT", Y1);
+        // Simulates a crash: the tail after the checkpoint is only in the journal.
+        PinLedger crashed = PinLedger.open(dir, 4096);
+        try {
+            assertEquals(195 + 2, crashed.available(Y1));
+            assertEquals(tail, crashed.take("INV-TAIL", Y1, 3).orElseThrow());
+            assertTrue(crashed.take("INV-KEPT", Y1, 2).orElseThrow().stream().noneMatch(kept::contains));
+        } finally {
+            crashed.close();
+            ledger.close();
+        }
+    }
+
+    private static long journalSegments(Path dir) throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.getFileName().toString().startsWith("pin-ledger") && file.toString().endsWith(".log")).count();
+        }
+    }
+
+    @Test
+    void reservationsAreCommittedReleasedOrExpired() throws Exception {
+        PinVault vault = new PinVault();
+        vault.startReservationExpiry(new HashedWheelTimer("test-reservations", 10, TimeUnit.MILLISECONDS, 64), Duration.ofMillis(50));
+        try {
+            vault.ensure(Y1, 20);
+            vault.reserve("INV-1", Y1, 3);
+            vault.reserve("INV-1", Y1, 3);
+            assertEquals(17, vault.stocked(Y1));
+            List<String> committed = vault.commit("INV-1", Y1, 3);
+            assertEquals(3, new HashSet<>(committed).size());
+
+            vault.reserve("INV-2", Y1, 5);
+            assertEquals(12, vault.stocked(Y1));
+            vault.release("INV-2");
+            assertEquals(17, vault.stocked(Y1));
+
+            vault.reserve("INV-3", Y1, 4);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (vault.stocked(Y1) < 17 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(17, vault.stocked(Y1));
+            assertEquals(4, vault.commit("INV-3", Y1, 4).size());
+            assertEquals(13, vault.stocked(Y1));
+            assertEquals(0, vault.inlineGenerated());
+        } finally {
+            vault.shutdown();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.theplutushome.veristore.service.payment;
+
+import com.theplutushome.veristore.model.Contact;
+import com.theplutushome.veristore.model.Currency;
+import com.theplutushome.veristore.model.DeliveryPrefs;
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+import com.theplutushome.veristore.service.OrderStore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkRedemptionTest {
+
+    private static final ProductKey Y1 = new ProductKey(ProductFamily.VERIFICATION, "Y1");
+    private static final ProductKey Y2 = new ProductKey(ProductFamily.VERIFICATION, "Y2");
+    private static final DeliveryPrefs EMAIL_ONLY = new DeliveryPrefs(true, false);
+    private static final Contact CONTACT = new Contact("ama@example.com", "");
+
+    @Test
+    void redeemsWithBoundedParallelismAndReportsEveryInvoice() throws Exception {
+        OrderStore store = new OrderStore();
+        List<String> invoices = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String invoiceNo = "INV-" + i;
+            store.createInvoice(i % 2 == 0 ? Y1 : Y2, 1, CONTACT, EMAIL_ONLY, 100, Currency.GHS, invoiceNo, null);
+            invoices.add(invoiceNo);
+        }
+        store.markInvoiceCancelled("INV-3");
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        BulkRedemption bulk = new BulkRedemption(store, invoiceNo -> {
+            peak.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+                if (invoiceNo.equals("INV-7")) {
+                    throw new IllegalStateException("Atlas unavailable");
+                }
+                return invoiceNo.equals("INV-9")
+                        || store.beginFulfillment(invoiceNo) && store.markInvoicePaid(invoiceNo, Map.of());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                active.decrementAndGet();
+            }
+        }, 4, 1000);
+        List<String> input = new ArrayList<>(invoices);
+        input.add(" INV-1 ");
+        input.add("# settlement 2026-10-17");
+        input.add("");
+        input.add("INV-MISSING");
+
+        List<BulkRedemption.Result> results = new ArrayList<>();
+        try {
+            BulkRedemption.Batch batch = bulk.prepare(input.iterator());
+            assertEquals(41, batch.size());
+            bulk.run(batch, results::add);
+        } finally {
+            bulk.shutdown();
+        }
+
+        assertEquals(41, results.size());
+        assertTrue(peak.get() <= 4);
+        Map<String, BulkRedemption.Result> byInvoice = new HashMap<>();
+        results.forEach(result -> byInvoice.put(result.invoiceNo(), result));
+        assertEquals(BulkRedemption.Outcome.NOT_FOUND, byInvoice.get("INV-MISSING").outcome());
+        assertEquals(BulkRedemption.Outcome.CANCELLED, byInvoice.get("INV-3").outcome());
+        assertEquals(BulkRedemption.Outcome.FAILED, byInvoice.get("INV-7").outcome());
+        assertEquals("Atlas unavailable", byInvoice.get("INV-7").error());
+        assertEquals(BulkRedemption.Outcome.REDEEMED, byInvoice.get("INV-0").outcome());
+        assertEquals("Y2", byInvoice.get("INV-1").sku());
+        long redeemed = results.stream().filter(result -> result.outcome() == BulkRedemption.Outcome.REDEEMED).count();
+        assertEquals(38, redeemed);
+    }
+
+    @Test
+    void groupsInvoicesBySkuAndStopsWhenTheSinkFails() throws Exception {
+        OrderStore store = new OrderStore();
+        for (int i = 0; i < 6; i++) {
+            store.createInvoice(i % 2 == 0 ? Y1 : Y2, 1, CONTACT, EMAIL_ONLY, 100, Currency.GHS, "INV-" + i, null);
+        }
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        BulkRedemption bulk = new BulkRedemption(store, invoiceNo -> {
+            order.add(invoiceNo);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return true;
+        }, 1, 3);
+        try {
+            assertThrows(IllegalArgumentException.class,
+                    () -> bulk.prepare(List.of("INV-0", "INV-1", "INV-2", "INV-3").iterator()));
+
+            bulk.run(bulk.prepare(List.of("INV-0", "INV-1", "INV-2").iterator()), result -> {
+            });
+            assertEquals(List.of("INV-0", "INV-2", "INV-1"), order);
+
+            order.clear();
+            assertThrows(IllegalStateException.class,
+                    () -> bulk.run(bulk.prepare(List.of("INV-3", "INV-4", "INV-5").iterator()), result -> {
+                        throw new IllegalStateException("client went away");
+                    }));
+            assertTrue(order.size() < 3);
+        } finally {
+            bulk.shutdown();
+        }
+    }
+}
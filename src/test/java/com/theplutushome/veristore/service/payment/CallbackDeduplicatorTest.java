@@ -0,0 +1,84 @@
+package com.theplutushome.veristore.service.payment;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CallbackDeduplicatorTest {
+
+    @Test
+    void concurrentDuplicatesShareTheFirstOutcome() throws Exception {
+        CallbackDeduplicator deduplicator = new CallbackDeduplicator(Duration.ofMinutes(5), 1000);
+        AtomicInteger handled = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int threads = 16;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CallbackDeduplicator.Outcome>> outcomes = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                outcomes.add(pool.submit(() -> deduplicator.process("INV-1", "evt-1", () -> {
+                    handled.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return CallbackDeduplicator.Outcome.FULFILLED;
+                })));
+            }
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<CallbackDeduplicator.Outcome> outcome : outcomes) {
+                assertEquals(CallbackDeduplicator.Outcome.FULFILLED, outcome.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, handled.get());
+        assertEquals(threads - 1, deduplicator.duplicates());
+
+        // A different event for the same invoice is processed on its own.
+        assertEquals(CallbackDeduplicator.Outcome.NOT_FULFILLED,
+                deduplicator.process("INV-1", "evt-2", () -> CallbackDeduplicator.Outcome.NOT_FULFILLED));
+    }
+
+    @Test
+    void failuresAndRetryLaterAreNotRemembered() {
+        CallbackDeduplicator deduplicator = new CallbackDeduplicator(Duration.ofMinutes(5), 1000);
+        assertThrows(IllegalStateException.class, () -> deduplicator.process("INV-1", null, () -> {
+            throw new IllegalStateException("store unavailable");
+        }));
+        assertEquals(CallbackDeduplicator.Outcome.RETRY_LATER,
+                deduplicator.process("INV-1", null, () -> CallbackDeduplicator.Outcome.RETRY_LATER));
+        assertEquals(CallbackDeduplicator.Outcome.ACCEPTED,
+                deduplicator.process("INV-1", null, () -> CallbackDeduplicator.Outcome.ACCEPTED));
+        assertEquals(CallbackDeduplicator.Outcome.ACCEPTED,
+                deduplicator.process("INV-1", null, () -> CallbackDeduplicator.Outcome.RETRY_LATER));
+    }
+
+    @Test
+    void entriesExpireAndTheCacheStaysBounded() throws Exception {
+        CallbackDeduplicator bounded = new CallbackDeduplicator(Duration.ofMinutes(5), 100);
+        for (int i = 0; i < 1000; i++) {
+            bounded.process("INV-" + i, null, () -> CallbackDeduplicator.Outcome.ACCEPTED);
+        }
+        assertTrue(bounded.size() <= 100);
+
+        CallbackDeduplicator windowed = new CallbackDeduplicator(Duration.ofMillis(20), 100);
+        windowed.process("INV-1", null, () -> CallbackDeduplicator.Outcome.NOT_FULFILLED);
+        Thread.sleep(40);
+        assertEquals(CallbackDeduplicator.Outcome.FULFILLED,
+                windowed.process("INV-1", null, () -> CallbackDeduplicator.Outcome.FULFILLED));
+    }
+}
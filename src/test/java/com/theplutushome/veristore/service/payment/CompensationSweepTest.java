@@ -0,0 +1,67 @@
+package com.theplutushome.veristore.service.payment;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompensationSweepTest {
+
+    @Test
+    void compensatesOnlyAbandonedInvoices() {
+        FulfillmentSaga saga = new FulfillmentSaga();
+        saga.start(null);
+        saga.created("INV-CANCELLED", 0, "TX-1", null);
+        saga.created("INV-PENDING", 0, "TX-2", null);
+        List<String> cancelled = new ArrayList<>();
+        CompensationSweep sweep = new CompensationSweep(saga, Set.of("INV-CANCELLED")::contains,
+                step -> cancelled.add(step.transactionId()), Duration.ZERO, Duration.ZERO);
+
+        assertEquals(1, sweep.sweep());
+        assertEquals(List.of("TX-1"), cancelled);
+        assertEquals(List.of("INV-PENDING"), List.copyOf(saga.openSagas().keySet()));
+    }
+
+    @Test
+    void retriesAFailedCompensationOnALaterSweep() {
+        FulfillmentSaga saga = new FulfillmentSaga();
+        saga.start(null);
+        saga.created("INV-1", 0, "TX-1", null);
+        AtomicBoolean atlasUp = new AtomicBoolean();
+        CompensationSweep sweep = new CompensationSweep(saga, invoiceNo -> true, step -> {
+            if (!atlasUp.get()) {
+                throw new IllegalStateException("Atlas unavailable");
+            }
+            return true;
+        }, Duration.ZERO, Duration.ZERO);
+
+        assertEquals(0, sweep.sweep());
+        atlasUp.set(true);
+        assertEquals(1, sweep.sweep());
+        assertTrue(saga.openSagas().isEmpty());
+    }
+
+    @Test
+    void backsOffAfterAFailedCompensation() {
+        FulfillmentSaga saga = new FulfillmentSaga();
+        saga.start(null);
+        saga.created("INV-1", 0, "TX-1", null);
+        List<String> attempts = new ArrayList<>();
+        CompensationSweep sweep = new CompensationSweep(saga, invoiceNo -> true,
+                step -> !attempts.add(step.transactionId()), Duration.ofHours(1), Duration.ofHours(1));
+
+        sweep.sweep();
+        sweep.sweep();
+        assertEquals(List.of("TX-1"), attempts);
+
+        // The feed's fast path is not held back by the sweep's backoff.
+        sweep.compensate("INV-1");
+        assertEquals(List.of("TX-1", "TX-1"), attempts);
+    }
+}
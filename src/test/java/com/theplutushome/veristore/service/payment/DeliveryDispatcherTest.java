@@ -0,0 +1,62 @@
+package com.theplutushome.veristore.service.payment;
+
+import com.theplutushome.veristore.model.Contact;
+import com.theplutushome.veristore.model.Currency;
+import com.theplutushome.veristore.model.DeliveryPrefs;
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+import com.theplutushome.veristore.service.OrderStore;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DeliveryDispatcherTest {
+
+    private static final ProductKey Y1 = new ProductKey(ProductFamily.VERIFICATION, "Y1");
+    private static final DeliveryPrefs EMAIL_ONLY = new DeliveryPrefs(true, false);
+
+    @Test
+    void retriesFailedSendsAndEmptiesTheOutboxOnSuccess() throws Exception {
+        OrderStore store = new OrderStore();
+        String flaky = settle(store, "INV-1");
+        String broken = settle(store, "INV-2");
+        AtomicInteger flakyAttempts = new AtomicInteger();
+        AtomicInteger brokenAttempts = new AtomicInteger();
+
+        DeliveryDispatcher dispatcher = new DeliveryDispatcher(store);
+        dispatcher.start(order -> {
+            if (order.getId().equals(broken)) {
+                brokenAttempts.incrementAndGet();
+                throw new IllegalStateException("SMTP unavailable");
+            }
+            return flakyAttempts.incrementAndGet() >= 3;
+        }, 2, 4, Duration.ofMillis(1));
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while ((store.pendingDeliveries().contains(flaky) || brokenAttempts.get() < 4) && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            assertEquals(3, flakyAttempts.get());
+            assertEquals(List.of(broken), store.pendingDeliveries());
+            Thread.sleep(50);
+            assertEquals(4, brokenAttempts.get());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    private static String settle(OrderStore store, String invoiceNo) {
+        Contact contact = new Contact("ama@example.com", "");
+        store.createInvoice(Y1, 1, contact, EMAIL_ONLY, 100, Currency.GHS, invoiceNo, null);
+        store.beginFulfillment(invoiceNo);
+        return store.settleInvoice(invoiceNo, Map.of(Y1, List.of("AAAA")),
+                List.of(new OrderStore.OrderLine(Y1, 1, 100, Currency.GHS, List.of("AAAA"))), contact, EMAIL_ONLY);
+    }
+}
@@ -0,0 +1,154 @@
+package com.theplutushome.veristore.service.payment;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FulfillmentQueueTest {
+
+    @Test
+    void retriesFailuresAndDeadLettersJobsThatNeverSucceed(@TempDir Path dir) throws Exception {
+        Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+        FulfillmentQueue queue = new FulfillmentQueue();
+        queue.start(dir, invoiceNo -> {
+            int call = calls.computeIfAbsent(invoiceNo, k -> new AtomicInteger()).incrementAndGet();
+            return switch (invoiceNo) {
+                case "INV-OK" -> {
+                    if (call < 3) {
+                        throw new IllegalStateException("Atlas unavailable");
+                    }
+                    yield FulfillmentQueue.Outcome.FULFILLED;
+                }
+                case "INV-GONE" -> FulfillmentQueue.Outcome.REJECTED;
+                default -> throw new IllegalStateException("Atlas unavailable");
+            };
+        }, 2, 16, 3, Duration.ofMillis(1), Duration.ofHours(1));
+        try {
+            assertTrue(queue.enqueue("INV-OK"));
+            assertTrue(queue.enqueue("INV-GONE"));
+            assertTrue(queue.enqueue("INV-BAD"));
+
+            awaitFinal(queue, "INV-OK");
+            awaitFinal(queue, "INV-GONE");
+            awaitFinal(queue, "INV-BAD");
+            assertEquals(FulfillmentQueue.State.FULFILLED, queue.status("INV-OK").orElseThrow().state());
+            assertEquals(3, queue.status("INV-OK").orElseThrow().attempts());
+            assertEquals(FulfillmentQueue.State.REJECTED, queue.status("INV-GONE").orElseThrow().state());
+            FulfillmentQueue.Status dead = queue.status("INV-BAD").orElseThrow();
+            assertEquals(FulfillmentQueue.State.DEAD_LETTERED, dead.state());
+            assertEquals("Atlas unavailable", dead.lastError());
+            assertEquals(1, queue.deadLetters().size());
+
+            // A repeated callback for a fulfilled invoice is acknowledged without running it again.
+            assertTrue(queue.enqueue("INV-OK"));
+            assertEquals(3, calls.get("INV-OK").get());
+        } finally {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    void unfinishedJobsSurviveARestartAndTheQueueIsBounded(@TempDir Path dir) throws Exception {
+        FulfillmentQueue first = new FulfillmentQueue();
+        first.start(dir, invoiceNo -> FulfillmentQueue.Outcome.BUSY, 1, 2, 10, Duration.ofHours(1), Duration.ofHours(1));
+        assertTrue(first.enqueue("INV-1"));
+        assertTrue(first.enqueue("INV-2"));
+        assertFalse(first.enqueue("INV-3"));
+        first.shutdown();
+
+        FulfillmentQueue second = new FulfillmentQueue();
+        second.start(dir, invoiceNo -> FulfillmentQueue.Outcome.FULFILLED, 1, 2, 10, Duration.ofMillis(1), Duration.ofHours(1));
+        try {
+            awaitFinal(second, "INV-1");
+            awaitFinal(second, "INV-2");
+            assertEquals(FulfillmentQueue.State.FULFILLED, second.status("INV-1").orElseThrow().state());
+            assertTrue(second.status("INV-3").isEmpty());
+        } finally {
+            second.shutdown();
+        }
+
+        FulfillmentQueue third = new FulfillmentQueue();
+        third.start(dir, invoiceNo -> {
+            throw new AssertionError("nothing should be left to fulfill");
+        }, 1, 2, 10, Duration.ofMillis(1), Duration.ofHours(1));
+        try {
+            assertEquals(FulfillmentQueue.State.FULFILLED, third.status("INV-2").orElseThrow().state());
+        } finally {
+            third.shutdown();
+        }
+    }
+
+    @Test
+    void finishedJobsAreCompactedAwayAsTheJournalGrows(@TempDir Path dir) throws Exception {
+        FulfillmentQueue first = new FulfillmentQueue();
+        first.start(dir, invoiceNo -> invoiceNo.equals("INV-OPEN")
+                ? FulfillmentQueue.Outcome.BUSY
+                : FulfillmentQueue.Outcome.FULFILLED, 1, 1024, 10, Duration.ofHours(1), Duration.ZERO, 4096);
+        assertTrue(first.enqueue("INV-OPEN"));
+        for (int i = 0; i < 500; i++) {
+            assertTrue(first.enqueue("INV-" + i));
+        }
+        awaitForgotten(first, "INV-499");
+        try (Stream<Path> segments = Files.list(dir)) {
+            assertTrue(segments.count() <= 2);
+        }
+        first.shutdown();
+
+        List<String> replayed = new CopyOnWriteArrayList<>();
+        FulfillmentQueue second = new FulfillmentQueue();
+        second.start(dir, invoiceNo -> {
+            replayed.add(invoiceNo);
+            return FulfillmentQueue.Outcome.FULFILLED;
+        }, 1, 16, 10, Duration.ofMillis(1), Duration.ofHours(1), 4096);
+        try {
+            awaitFinal(second, "INV-OPEN");
+            assertEquals(List.of("INV-OPEN"), replayed);
+        } finally {
+            second.shutdown();
+        }
+    }
+
+    @Test
+    void journalDefaultsToBesideADurableOrderStore() {
+        assertEquals(Path.of("/var/queue"), FulfillmentQueue.journalDirectory("/var/queue", "/var/store"));
+        assertEquals(Path.of("/var/store", "fulfillment"), FulfillmentQueue.journalDirectory(null, "/var/store"));
+        assertNull(FulfillmentQueue.journalDirectory(" ", null));
+    }
+
+    /** With no retention a finished job's status is dropped as soon as it is recorded. */
+    private static void awaitForgotten(FulfillmentQueue queue, String invoiceNo) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.status(invoiceNo).isPresent()) {
+            if (System.nanoTime() > deadline) {
+                throw new AssertionError("Fulfillment of " + invoiceNo + " did not finish: " + queue.status(invoiceNo));
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitFinal(FulfillmentQueue queue, String invoiceNo) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            if (queue.status(invoiceNo).map(status -> status.state().isFinal()).orElse(false)) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+        throw new AssertionError("Fulfillment of " + invoiceNo + " did not finish: " + queue.status(invoiceNo));
+    }
+}
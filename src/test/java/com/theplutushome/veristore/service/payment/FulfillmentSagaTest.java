@@ -0,0 +1,106 @@
+package com.theplutushome.veristore.service.payment;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FulfillmentSagaTest {
+
+    @Test
+    void transactionIdsSurviveARestartUntilTheInvoiceIsPaid(@TempDir Path dir) {
+        FulfillmentSaga first = new FulfillmentSaga();
+        first.start(dir);
+        first.created("INV-1", 0, "TX-1", "http://atlas/cancel/TX-1");
+        first.created("INV-1", 2, "TX-2", null);
+        first.confirmed("INV-1", 0);
+        first.created("INV-2", 0, "TX-3", null);
+        first.completed("INV-2");
+        first.shutdown();
+
+        FulfillmentSaga second = new FulfillmentSaga();
+        second.start(dir);
+        try {
+            assertEquals(List.of("INV-1"), List.copyOf(second.openSagas().keySet()));
+            FulfillmentSaga.Step confirmed = second.step("INV-1", 0).orElseThrow();
+            assertEquals("TX-1", confirmed.transactionId());
+            assertEquals("http://atlas/cancel/TX-1", confirmed.cancelUrl());
+            assertEquals(FulfillmentSaga.StepState.CONFIRMED, confirmed.state());
+            assertEquals(FulfillmentSaga.StepState.CREATED, second.step("INV-1", 2).orElseThrow().state());
+            assertTrue(second.step("INV-2", 0).isEmpty());
+        } finally {
+            second.shutdown();
+        }
+    }
+
+    @Test
+    void compensationRetriesOnlyTheStepsThatWereNotCancelled(@TempDir Path dir) {
+        FulfillmentSaga saga = new FulfillmentSaga();
+        saga.start(dir);
+        saga.created("INV-1", 0, "TX-1", null);
+        saga.created("INV-1", 1, "TX-2", null);
+        List<String> cancelled = new ArrayList<>();
+
+        assertFalse(saga.compensate("INV-1", step -> {
+            if (step.transactionId().equals("TX-2")) {
+                throw new IllegalStateException("Atlas unavailable");
+            }
+            return cancelled.add(step.transactionId());
+        }));
+        assertEquals(FulfillmentSaga.StepState.COMPENSATED, saga.step("INV-1", 0).orElseThrow().state());
+        saga.shutdown();
+
+        FulfillmentSaga restarted = new FulfillmentSaga();
+        restarted.start(dir);
+        try {
+            assertEquals(FulfillmentSaga.StepState.COMPENSATED, restarted.step("INV-1", 0).orElseThrow().state());
+            assertTrue(restarted.compensate("INV-1", step -> cancelled.add(step.transactionId())));
+            assertEquals(List.of("TX-1", "TX-2"), cancelled);
+            assertTrue(restarted.openSagas().isEmpty());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    void compactsTheJournalEachTimeItGrowsBySegment(@TempDir Path dir) throws IOException {
+        FulfillmentSaga saga = new FulfillmentSaga();
+        saga.start(dir, 4096);
+        saga.created("INV-OPEN", 0, "TX-OPEN", null);
+        for (int i = 0; i < 500; i++) {
+            saga.created("INV-" + i, 0, "TX-" + i, "http://atlas/cancel/TX-" + i);
+            saga.confirmed("INV-" + i, 0);
+            saga.completed("INV-" + i);
+        }
+        try (Stream<Path> segments = Files.list(dir)) {
+            assertTrue(segments.count() <= 2);
+        }
+        saga.shutdown();
+
+        FulfillmentSaga restarted = new FulfillmentSaga();
+        restarted.start(dir, 4096);
+        try {
+            assertEquals(List.of("INV-OPEN"), List.copyOf(restarted.openSagas().keySet()));
+            assertEquals("TX-OPEN", restarted.step("INV-OPEN", 0).orElseThrow().transactionId());
+        } finally {
+            restarted.shutdown();
+        }
+    }
+
+    @Test
+    void journalDefaultsToBesideADurableOrderStore() {
+        assertEquals(Path.of("/var/saga"), FulfillmentSaga.journalDirectory("/var/saga", "/var/store"));
+        assertEquals(Path.of("/var/store", "saga"), FulfillmentSaga.journalDirectory(null, "/var/store"));
+        assertNull(FulfillmentSaga.journalDirectory(" ", null));
+    }
+}
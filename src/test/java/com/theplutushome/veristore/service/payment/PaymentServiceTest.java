@@ -0,0 +1,180 @@
+package com.theplutushome.veristore.service.payment;
+
+import com.theplutushome.veristore.model.Contact;
+import com.theplutushome.veristore.model.DeliveryPrefs;
+import com.theplutushome.veristore.model.InvoiceStatus;
+import com.theplutushome.veristore.model.PinRecord;
+import com.theplutushome.veristore.model.TransactionRecord;
+import com.theplutushome.veristore.model.catalog.ProductFamily;
+import com.theplutushome.veristore.model.catalog.ProductKey;
+import com.theplutushome.veristore.payload.request.TransactionRequest;
+import com.theplutushome.veristore.service.OrderStore;
+import com.theplutushome.veristore.service.PinVault;
+import com.theplutushome.veristore.service.PricingService;
+import com.theplutushome.veristore.service.atlas.AtlasService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PaymentServiceTest {
+
+    private static final ProductKey CU = new ProductKey(ProductFamily.ENROLLMENT, "CU");
+    private static final ProductKey CB = new ProductKey(ProductFamily.ENROLLMENT, "CB");
+    private static final ProductKey CP = new ProductKey(ProductFamily.ENROLLMENT, "CP");
+    private static final String CU_SERVICE = "REGULAR_PERSONAL_INFORMATION_UPDATE";
+    private static final String CB_SERVICE = "REGULAR_DOB_UPDATE";
+    private static final String CP_SERVICE = "REGULAR_PICTURE_UPDATE";
+    private static final Contact CONTACT = new Contact("ama@example.com", "0240000001");
+    private static final DeliveryPrefs EMAIL_ONLY = new DeliveryPrefs(true, false);
+
+    private final StubAtlas atlas = new StubAtlas();
+    private final OrderStore store = new OrderStore();
+    private final FulfillmentSaga saga = new FulfillmentSaga();
+    private final DeliveryDispatcher dispatcher = new DeliveryDispatcher(store);
+    private PaymentService payments;
+
+    @AfterEach
+    void stop() {
+        atlas.release.countDown();
+        payments.shutdown();
+        dispatcher.shutdown();
+    }
+
+    @Test
+    void linesCompletingOutOfOrderAreDeliveredInLineOrder() {
+        start(4, Duration.ofSeconds(10), Duration.ofSeconds(10));
+        atlas.delays.put(CU_SERVICE, 200L);
+        String invoiceNo = invoice(CU, CB, CP);
+
+        assertTrue(payments.redeemInvoice(invoiceNo));
+        List<OrderStore.InvoiceLine> lines = store.findInvoice(invoiceNo).orElseThrow().getLines();
+        assertTrue(lines.get(0).getDeliveredCodes().get(0).startsWith("TX-" + CU_SERVICE));
+        assertTrue(lines.get(1).getDeliveredCodes().get(0).startsWith("TX-" + CB_SERVICE));
+        assertTrue(lines.get(2).getDeliveredCodes().get(0).startsWith("TX-" + CP_SERVICE));
+        // The fast lines finished while the slow first one was still running.
+        assertEquals(CU_SERVICE, atlas.answered.get(atlas.answered.size() - 1));
+    }
+
+    @Test
+    void aFailingLineFailsTheInvoiceOnceTheRunningLinesHaveDrained() {
+        start(4, Duration.ofSeconds(10), Duration.ofSeconds(10));
+        atlas.delays.put(CU_SERVICE, 300L);
+        atlas.failing.add(CB_SERVICE);
+        String invoiceNo = invoice(CU, CB);
+
+        assertThrows(IllegalStateException.class, () -> payments.redeemInvoice(invoiceNo));
+        assertEquals(InvoiceStatus.FAILED, store.findInvoice(invoiceNo).orElseThrow().getStatus());
+        // The slow line was waited for, so its transaction is in the saga before the retry.
+        assertEquals(FulfillmentSaga.StepState.CONFIRMED, saga.step(invoiceNo, 0).orElseThrow().state());
+        assertTrue(saga.step(invoiceNo, 1).isEmpty());
+
+        atlas.failing.clear();
+        assertTrue(payments.redeemInvoice(invoiceNo));
+        assertEquals(1, atlas.createdCount(CU_SERVICE));
+        assertEquals(2, atlas.createdCount(CB_SERVICE));
+    }
+
+    @Test
+    void aRetryNeverCreatesASecondTransactionForALineStillRunningPastTheDeadline() throws Exception {
+        start(4, Duration.ofMillis(200), Duration.ofMillis(100));
+        atlas.blocked.add(CU_SERVICE);
+        String invoiceNo = invoice(CU, CB);
+
+        assertThrows(IllegalStateException.class, () -> payments.redeemInvoice(invoiceNo));
+        assertEquals(InvoiceStatus.FAILED, store.findInvoice(invoiceNo).orElseThrow().getStatus());
+        assertThrows(IllegalStateException.class, () -> payments.redeemInvoice(invoiceNo));
+        assertEquals(1, atlas.createdCount(CU_SERVICE));
+
+        atlas.release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (saga.step(invoiceNo, 0).isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(payments.redeemInvoice(invoiceNo));
+        assertEquals(1, atlas.createdCount(CU_SERVICE));
+        assertEquals(1, atlas.createdCount(CB_SERVICE));
+    }
+
+    @Test
+    void linesNotStartedByTheDeadlineNeverReachAtlas() {
+        start(1, Duration.ofMillis(200), Duration.ofMillis(100));
+        atlas.blocked.add(CU_SERVICE);
+        String invoiceNo = invoice(CU, CB, CP);
+
+        assertThrows(IllegalStateException.class, () -> payments.redeemInvoice(invoiceNo));
+        atlas.release.countDown();
+        assertEquals(List.of(CU_SERVICE), atlas.created);
+    }
+
+    private void start(int lineParallelism, Duration lineDeadline, Duration lineDrain) {
+        saga.start(null);
+        dispatcher.start(order -> true, 1, 1, Duration.ofMillis(1));
+        payments = new PaymentService(new PinVault(), new PricingService(), store, atlas, dispatcher, saga);
+        payments.start(lineParallelism, lineDeadline, lineDrain, Duration.ofHours(1));
+    }
+
+    private String invoice(ProductKey... keys) {
+        List<PaymentService.Purchase> purchases = Arrays.stream(keys)
+                .map(key -> new PaymentService.Purchase(key, 1))
+                .toList();
+        return payments.payLater(purchases, CONTACT, EMAIL_ONLY).getInvoiceNo();
+    }
+
+    private static final class StubAtlas extends AtlasService {
+
+        final List<String> created = new CopyOnWriteArrayList<>();
+        final List<String> answered = new CopyOnWriteArrayList<>();
+        final Map<String, Long> delays = new ConcurrentHashMap<>();
+        final List<String> failing = new CopyOnWriteArrayList<>();
+        final List<String> blocked = new CopyOnWriteArrayList<>();
+        final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger ids = new AtomicInteger();
+
+        @Override
+        public TransactionRecord createTransaction(TransactionRequest request) {
+            String service = request.getServiceId();
+            created.add(service);
+            try {
+                Thread.sleep(delays.getOrDefault(service, 0L));
+                if (blocked.contains(service)) {
+                    release.await();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            answered.add(service);
+            if (failing.contains(service)) {
+                throw new IllegalStateException("Atlas rejected " + service);
+            }
+            return new TransactionRecord("TX-" + service + "-" + ids.incrementAndGet(), null, null, request);
+        }
+
+        @Override
+        public List<PinRecord> confirmTransaction(String transactionId) {
+            return List.of(new PinRecord(transactionId, "1234"));
+        }
+
+        @Override
+        public boolean cancelTransaction(String transactionId, String cancelUrl) {
+            return true;
+        }
+
+        int createdCount(String service) {
+            return (int) created.stream().filter(service::equals).count();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.theplutushome.veristore.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TracerTest {
+
+    @Test
+    void spansShareTheTraceIdAcrossThreadsAndNestUnderTheirParent() throws Exception {
+        Tracer tracer = new Tracer(64);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        String traceId;
+        try (Tracer.Span root = tracer.open("checkout")) {
+            traceId = Tracer.traceId();
+            try (Tracer.Span child = tracer.open("pricing.get")) {
+                child.fail();
+            }
+            Future<String> remote = pool.submit(Tracer.wrap(() -> {
+                try (Tracer.Span fetch = tracer.open("atlas.confirmTransaction")) {
+                    return Tracer.traceId();
+                }
+            }));
+            assertEquals(traceId, remote.get());
+        } finally {
+            pool.shutdownNow();
+        }
+        assertNull(Tracer.traceId());
+
+        List<Tracer.SpanRecord> spans = tracer.trace(traceId);
+        assertEquals(3, spans.size());
+        Tracer.SpanRecord root = spans.stream().filter(span -> span.stage().equals("checkout")).findFirst().orElseThrow();
+        assertEquals(0, root.parentSpanId());
+        assertTrue(spans.stream().filter(span -> span != root).allMatch(span -> span.parentSpanId() == root.spanId()));
+        assertTrue(spans.stream().filter(span -> span.stage().equals("pricing.get")).allMatch(Tracer.SpanRecord::error));
+    }
+
+    @Test
+    void ringKeepsTheNewestSpansAndReportsSlowestTracesAndStagePercentiles() throws Exception {
+        Tracer tracer = new Tracer(64);
+        for (int i = 0; i < 200; i++) {
+            try (Tracer.Span root = tracer.open("checkout")) {
+                if (i == 190) {
+                    Thread.sleep(20);
+                }
+            }
+        }
+        assertEquals(64, tracer.spans().size());
+
+        List<Tracer.Trace> slowest = tracer.slowest(3);
+        assertEquals(3, slowest.size());
+        assertTrue(slowest.get(0).root().durationNanos() >= 20_000_000L);
+
+        Tracer.StageStats stats = tracer.stages().get(0);
+        assertEquals("checkout", stats.stage());
+        assertEquals(64, stats.count());
+        assertTrue(stats.p50Nanos() <= stats.p99Nanos() && stats.p99Nanos() <= stats.maxNanos());
+        assertEquals(slowest.get(0).root().durationNanos(), stats.maxNanos());
+    }
+}